@@ -5,8 +5,11 @@ import androidx.datastore.core.DataStore
 import androidx.datastore.preferences.core.Preferences
 import androidx.datastore.preferences.core.edit
 import androidx.datastore.preferences.core.intPreferencesKey
+import androidx.datastore.preferences.core.longPreferencesKey
 import androidx.datastore.preferences.core.stringPreferencesKey
+import androidx.datastore.preferences.core.stringSetPreferencesKey
 import androidx.datastore.preferences.preferencesDataStore
+import com.fourshil.musicya.data.model.LibraryFilter
 import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.map
@@ -27,6 +30,12 @@ class SettingsPreferences @Inject constructor(
 ) {
     private val themeKey = stringPreferencesKey("theme_mode")
     private val crossfadeKey = intPreferencesKey("crossfade_duration")
+    private val includedFoldersKey = stringSetPreferencesKey("library_included_folders")
+    private val excludedFoldersKey = stringSetPreferencesKey("library_excluded_folders")
+    private val minDurationKey = longPreferencesKey("library_min_duration_ms")
+    private val extensionsKey = stringSetPreferencesKey("library_extensions")
+    private val addedAfterKey = longPreferencesKey("library_added_after")
+    private val addedBeforeKey = longPreferencesKey("library_added_before")
     
     val themeMode: Flow<ThemeMode> = context.dataStore.data.map { preferences ->
         when (preferences[themeKey]) {
@@ -43,6 +52,20 @@ class SettingsPreferences @Inject constructor(
         preferences[crossfadeKey] ?: 0
     }
     
+    /**
+     * Rules deciding which MediaStore songs make up the library.
+     */
+    val libraryFilter: Flow<LibraryFilter> = context.dataStore.data.map { preferences ->
+        LibraryFilter(
+            includedFolders = preferences[includedFoldersKey] ?: emptySet(),
+            excludedFolders = preferences[excludedFoldersKey] ?: emptySet(),
+            minDurationMs = preferences[minDurationKey] ?: 0L,
+            extensions = preferences[extensionsKey] ?: emptySet(),
+            addedAfter = preferences[addedAfterKey],
+            addedBefore = preferences[addedBeforeKey]
+        )
+    }
+    
     suspend fun setThemeMode(mode: ThemeMode) {
         context.dataStore.edit { preferences ->
             preferences[themeKey] = when (mode) {
@@ -62,5 +85,15 @@ class SettingsPreferences @Inject constructor(
             preferences[crossfadeKey] = seconds.coerceIn(0, 12)
         }
     }
+    
+    suspend fun setLibraryFilter(filter: LibraryFilter) {
+        context.dataStore.edit { preferences ->
+            preferences[includedFoldersKey] = filter.includedFolders.mapTo(HashSet()) { LibraryFilter.normalizeFolder(it) }
+            preferences[excludedFoldersKey] = filter.excludedFolders.mapTo(HashSet()) { LibraryFilter.normalizeFolder(it) }
+            preferences[minDurationKey] = filter.minDurationMs.coerceAtLeast(0L)
+            preferences[extensionsKey] = filter.normalizedExtensions
+            if (filter.addedAfter != null) preferences[addedAfterKey] = filter.addedAfter else preferences.remove(addedAfterKey)
+            if (filter.addedBefore != null) preferences[addedBeforeKey] = filter.addedBefore else preferences.remove(addedBeforeKey)
+        }
+    }
 }
-
@@ -5,19 +5,27 @@ import androidx.room.RoomDatabase
 
 /**
  * Room database for LYRA music player.
- * Stores favorites, custom playlists, and play history.
+ * Stores favorites, custom playlists, play history with its per-play log and rollups,
+ * and the MediaStore library index with its full-text search table.
  */
 @Database(
     entities = [
         FavoriteSong::class,
         Playlist::class,
         PlaylistSong::class,
-        SongPlayHistory::class
+        SongPlayHistory::class,
+        LibrarySong::class,
+        LibrarySyncState::class,
+        LibrarySearchEntry::class,
+        PlayEvent::class,
+        DailyPlays::class,
+        WeeklyPlays::class
     ],
-    version = 3,
+    version = 9,
     exportSchema = false // Explicit migrations provided in DatabaseModule
 )
 abstract class AppDatabase : RoomDatabase() {
     abstract fun musicDao(): MusicDao
+    abstract fun libraryDao(): LibraryDao
 }
 
@@ -0,0 +1,222 @@
+package com.fourshil.musicya.data.db
+
+import androidx.paging.PagingSource
+import androidx.room.*
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * Data Access Object for the persistent library index.
+ * Song writes update the `library_search` full-text rows in the same transaction,
+ * so searches never see songs the index doesn't hold.
+ */
+@Dao
+interface LibraryDao {
+
+    // ============ SONGS ============
+
+    @Query("SELECT * FROM library_songs ORDER BY title COLLATE NOCASE ASC, id ASC")
+    suspend fun getAllSongs(): List<LibrarySong>
+
+    @Query("SELECT id FROM library_songs")
+    suspend fun getAllSongIds(): List<Long>
+
+    @Query("SELECT COUNT(*) FROM library_songs")
+    suspend fun getSongCount(): Int
+
+    /**
+     * Songs on the given MediaStore volumes, in library order. Rows of unmounted
+     * volumes stay in the table so a remount can restore them without a rescan.
+     */
+    @Query("SELECT * FROM library_songs WHERE volumeName IN (:volumeNames) ORDER BY title COLLATE NOCASE ASC, id ASC")
+    suspend fun getSongsOnVolumes(volumeNames: Collection<String>): List<LibrarySong>
+
+    @Query("SELECT id FROM library_songs WHERE volumeName IN (:volumeNames)")
+    suspend fun getSongIdsOnVolumes(volumeNames: Collection<String>): List<Long>
+
+    @Query("SELECT COUNT(*) FROM library_songs WHERE volumeName IN (:volumeNames)")
+    suspend fun getSongCountOnVolumes(volumeNames: Collection<String>): Int
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun upsertSongRows(songs: List<LibrarySong>)
+
+    @Query("DELETE FROM library_songs WHERE id IN (:songIds)")
+    suspend fun deleteSongsInternal(songIds: List<Long>)
+
+    @Query("DELETE FROM library_songs")
+    suspend fun clearSongRows()
+
+    @Query("DELETE FROM library_songs WHERE volumeName = :volumeName")
+    suspend fun clearVolumeRows(volumeName: String)
+
+    /**
+     * Insert or replace songs together with their full-text search rows. Lyrics already
+     * indexed for a song are carried over, since the MediaStore row doesn't hold them.
+     */
+    @Transaction
+    suspend fun upsertSongs(songs: List<LibrarySong>) {
+        if (songs.isEmpty()) return
+        upsertSongRows(songs)
+        val lyrics = HashMap<Long, String>()
+        songs.chunked(MAX_BIND_ARGS).forEach { chunk ->
+            getSearchEntriesWithLyrics(chunk.map { it.id }).forEach { lyrics[it.songId] = it.lyrics }
+        }
+        upsertSearchEntries(songs.map { LibrarySearchEntry.of(it, lyrics[it.id] ?: "") })
+    }
+
+    /**
+     * Delete songs by ID, chunked to stay under SQLite's bind variable limit.
+     */
+    @Transaction
+    suspend fun deleteSongs(songIds: List<Long>) {
+        songIds.chunked(MAX_BIND_ARGS).forEach {
+            deleteSongsInternal(it)
+            deleteSearchEntries(it)
+        }
+    }
+
+    @Transaction
+    suspend fun clearSongs() {
+        clearSongRows()
+        clearSearchEntries()
+    }
+
+    @Transaction
+    suspend fun clearVolume(volumeName: String) {
+        clearVolumeRows(volumeName)
+        deleteOrphanSearchEntries()
+    }
+
+    // ============ FULL-TEXT SEARCH ============
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun upsertSearchEntries(entries: List<LibrarySearchEntry>)
+
+    @Query("DELETE FROM library_search WHERE rowid IN (:songIds)")
+    suspend fun deleteSearchEntries(songIds: List<Long>)
+
+    @Query("DELETE FROM library_search")
+    suspend fun clearSearchEntries()
+
+    @Query("DELETE FROM library_search WHERE rowid NOT IN (SELECT id FROM library_songs)")
+    suspend fun deleteOrphanSearchEntries()
+
+    @Query("SELECT rowid, * FROM library_search WHERE rowid IN (:songIds) AND lyrics != ''")
+    suspend fun getSearchEntriesWithLyrics(songIds: List<Long>): List<LibrarySearchEntry>
+
+    /**
+     * Index the lyrics text of a song. No-op for songs that aren't in the index.
+     */
+    @Query("UPDATE library_search SET lyrics = :lyrics WHERE rowid = :songId")
+    suspend fun setLyrics(songId: Long, lyrics: String)
+
+    /**
+     * Songs on [volumeNames] matching the FTS4 [match] expression (see
+     * [com.fourshil.musicya.data.repository.FullTextQuery]), in library order, each with
+     * a snippet of its best matching column.
+     */
+    @Query(
+        """
+        SELECT library_songs.*,
+            snippet(library_search, '${LibrarySearchHit.MATCH_START}', '${LibrarySearchHit.MATCH_END}', '…', -1, $SNIPPET_TOKENS) AS snippet
+        FROM library_search JOIN library_songs ON library_songs.id = library_search.rowid
+        WHERE library_search MATCH :match AND library_songs.volumeName IN (:volumeNames)
+        ORDER BY library_songs.title COLLATE NOCASE ASC, library_songs.id ASC
+        """
+    )
+    fun searchSongs(match: String, volumeNames: Collection<String>): PagingSource<Int, LibrarySearchHit>
+
+    /**
+     * The first [limit] rows of [searchSongs], re-emitted whenever the index changes.
+     */
+    @Query(
+        """
+        SELECT library_songs.*,
+            snippet(library_search, '${LibrarySearchHit.MATCH_START}', '${LibrarySearchHit.MATCH_END}', '…', -1, $SNIPPET_TOKENS) AS snippet
+        FROM library_search JOIN library_songs ON library_songs.id = library_search.rowid
+        WHERE library_search MATCH :match AND library_songs.volumeName IN (:volumeNames)
+        ORDER BY library_songs.title COLLATE NOCASE ASC, library_songs.id ASC
+        LIMIT :limit
+        """
+    )
+    fun observeSearch(match: String, volumeNames: Collection<String>, limit: Int): Flow<List<LibrarySearchHit>>
+
+    @Query(
+        """
+        SELECT COUNT(*) FROM library_search JOIN library_songs ON library_songs.id = library_search.rowid
+        WHERE library_search MATCH :match AND library_songs.volumeName IN (:volumeNames)
+        """
+    )
+    fun observeSearchCount(match: String, volumeNames: Collection<String>): Flow<Int>
+
+    // ============ SYNC STATE ============
+
+    @Query("SELECT * FROM library_sync_state WHERE volumeName = :volumeName")
+    suspend fun getSyncState(volumeName: String): LibrarySyncState?
+
+    @Query("SELECT * FROM library_sync_state")
+    suspend fun getAllSyncStates(): List<LibrarySyncState>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun saveSyncState(state: LibrarySyncState)
+
+    /**
+     * Bump [LibrarySyncState.lastSyncedAt] on every volume, e.g. after applying rows
+     * named by a change notification without a full delta sync.
+     */
+    @Query("UPDATE library_sync_state SET lastSyncedAt = :syncedAt")
+    suspend fun touchSyncStates(syncedAt: Long)
+
+    /**
+     * Apply a MediaStore delta in one transaction so the index never holds a half-applied sync.
+     */
+    @Transaction
+    suspend fun applyDelta(upserts: List<LibrarySong>, removedIds: List<Long>, state: LibrarySyncState) {
+        if (removedIds.isNotEmpty()) deleteSongs(removedIds)
+        if (upserts.isNotEmpty()) upsertSongs(upserts)
+        saveSyncState(state)
+    }
+
+    /**
+     * Replace the rows of one volume, used when that volume is first seen or its
+     * MediaStore version changes.
+     */
+    @Transaction
+    suspend fun replaceVolume(songs: List<LibrarySong>, state: LibrarySyncState) {
+        // Search rows go after the upsert so songs that stay keep their indexed lyrics
+        clearVolumeRows(state.volumeName)
+        upsertSongs(songs)
+        deleteOrphanSearchEntries()
+        saveSyncState(state)
+    }
+
+    /**
+     * Replace the rows of every volume in [states] with one scan covering all of them.
+     * Cached rows of other (unmounted) volumes are kept.
+     */
+    @Transaction
+    suspend fun replaceAll(songs: List<LibrarySong>, states: List<LibrarySyncState>) {
+        states.forEach { clearVolumeRows(it.volumeName) }
+        upsertSongs(songs)
+        deleteOrphanSearchEntries()
+        states.forEach { saveSyncState(it) }
+    }
+
+    /**
+     * Apply rows re-read by ID. There's no new watermark to store, but every volume's
+     * [LibrarySyncState.lastSyncedAt] is bumped so the index reads as changed.
+     */
+    @Transaction
+    suspend fun applyRows(upserts: List<LibrarySong>, removedIds: List<Long>, syncedAt: Long) {
+        if (removedIds.isNotEmpty()) deleteSongs(removedIds)
+        if (upserts.isNotEmpty()) upsertSongs(upserts)
+        touchSyncStates(syncedAt)
+    }
+
+    companion object {
+        /** SQLite's default SQLITE_MAX_VARIABLE_NUMBER is 999 on older Android releases. */
+        const val MAX_BIND_ARGS = 900
+
+        /** Tokens per search snippet. */
+        const val SNIPPET_TOKENS = 10
+    }
+}
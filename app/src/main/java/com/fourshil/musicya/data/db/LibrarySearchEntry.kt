@@ -0,0 +1,57 @@
+package com.fourshil.musicya.data.db
+
+import androidx.room.ColumnInfo
+import androidx.room.Embedded
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.PrimaryKey
+
+/**
+ * Full-text search row for one indexed song, in the FTS4 table `library_search`.
+ * The rowid is the MediaStore ID, so rows join straight onto [LibrarySong].
+ *
+ * The unicode61 tokenizer folds case and strips diacritics, so "beyonce" matches
+ * "Beyoncé". [folder] is only the song's own folder name. [lyrics] isn't part of the
+ * MediaStore row; it's filled in once the song's lyrics have been read (see
+ * [LibraryDao.setLyrics]) and carried over when the song's row is replaced.
+ */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61, tokenizerArgs = ["remove_diacritics=1"])
+@Entity(tableName = "library_search")
+data class LibrarySearchEntry(
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    val songId: Long,
+    val title: String,
+    val artist: String,
+    val album: String,
+    val folder: String,
+    val genre: String,
+    val lyrics: String = ""
+) {
+    companion object {
+        fun of(song: LibrarySong, lyrics: String = "") = LibrarySearchEntry(
+            songId = song.id,
+            title = song.title,
+            artist = song.artist,
+            album = song.album,
+            folder = song.path.substringBeforeLast('/', "").substringAfterLast('/'),
+            genre = song.genre,
+            lyrics = lyrics
+        )
+    }
+}
+
+/**
+ * A song matching a full-text query, with a [snippet] of the best matching column in
+ * which each matched term is wrapped in [MATCH_START] and [MATCH_END].
+ */
+data class LibrarySearchHit(
+    @Embedded val song: LibrarySong,
+    val snippet: String
+) {
+    companion object {
+        const val MATCH_START = "\u0002"
+        const val MATCH_END = "\u0003"
+    }
+}
@@ -0,0 +1,33 @@
+package com.fourshil.musicya.data.db
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * Entity mirroring a single MediaStore audio row.
+ * The library index is served from this table so a cold start doesn't need a full cursor scan.
+ * [volumeName] is the MediaStore volume the file lives on (e.g. `external_primary` or an
+ * SD card's volume ID); before API 29 every row is on `external`. [genre] is only
+ * reported by MediaStore from API 30 and is empty before that.
+ */
+@Entity(tableName = "library_songs", indices = [Index("volumeName")])
+data class LibrarySong(
+    @PrimaryKey
+    val id: Long,
+    val title: String,
+    val artist: String,
+    val album: String,
+    val albumId: Long,
+    val duration: Long,
+    val path: String,
+    val dateAdded: Long,
+    val dateModified: Long,
+    val size: Long,
+    @ColumnInfo(defaultValue = "0")
+    val year: Int = 0,
+    @ColumnInfo(defaultValue = "''")
+    val genre: String = "",
+    val volumeName: String = "external"
+)
@@ -0,0 +1,22 @@
+package com.fourshil.musicya.data.db
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Entity tracking how far the library index has been synced with a MediaStore volume.
+ * There is one row per volume ever scanned, including removable volumes that are
+ * currently unmounted.
+ *
+ * On API 30+ [mediaStoreVersion] and [generation] come from MediaStore directly.
+ * Older APIs only have [dateModifiedWatermark] (seconds, as reported by MediaStore).
+ */
+@Entity(tableName = "library_sync_state")
+data class LibrarySyncState(
+    @PrimaryKey
+    val volumeName: String,
+    val mediaStoreVersion: String? = null,
+    val generation: Long = 0L,
+    val dateModifiedWatermark: Long = 0L,
+    val lastSyncedAt: Long = System.currentTimeMillis()
+)
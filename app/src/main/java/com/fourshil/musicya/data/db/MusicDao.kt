@@ -43,12 +43,45 @@ interface MusicDao {
     @Query("SELECT * FROM playlists ORDER BY updatedAt DESC")
     fun getAllPlaylists(): Flow<List<Playlist>>
     
+    /**
+     * Every playlist's songs grouped by album, for [PlaylistSummary.fromRows]: one query
+     * and one invalidation-tracked Flow for the whole Playlists tab, however many
+     * playlists there are. Durations and albums come from the library index.
+     *
+     * Only songs indexed on [volumeNames] count, as on the playlist screen, which shows
+     * the library's songs ([com.fourshil.musicya.data.repository.MusicRepository.getSongsByIds]);
+     * deleted songs and songs on unmounted volumes fall into the null album with no songs.
+     */
+    @Query(
+        """
+        SELECT playlists.*, library_songs.albumId AS albumId,
+            COUNT(library_songs.id) AS songCount,
+            COALESCE(SUM(library_songs.duration), 0) AS duration,
+            MIN(playlist_songs.sortOrder) AS firstSortOrder
+        FROM playlists
+        LEFT JOIN playlist_songs ON playlist_songs.playlistId = playlists.id
+        LEFT JOIN library_songs ON library_songs.id = playlist_songs.songId
+            AND library_songs.volumeName IN (:volumeNames)
+        GROUP BY playlists.id, library_songs.albumId
+        ORDER BY playlists.updatedAt DESC, playlists.id
+        """
+    )
+    fun getPlaylistAlbumRows(volumeNames: Collection<String>): Flow<List<PlaylistAlbumRow>>
+    
     @Query("SELECT * FROM playlists WHERE id = :playlistId")
     suspend fun getPlaylist(playlistId: Long): Playlist?
     
     @Insert
     suspend fun createPlaylist(playlist: Playlist): Long
     
+    /** Create [playlist] already holding [songIds], so it is never seen half-filled. */
+    @Transaction
+    suspend fun createPlaylistWithSongs(playlist: Playlist, songIds: List<Long>): Long {
+        val playlistId = createPlaylist(playlist)
+        addSongsToPlaylist(playlistId, songIds)
+        return playlistId
+    }
+    
     @Update
     suspend fun updatePlaylist(playlist: Playlist)
     
@@ -69,8 +102,30 @@ interface MusicDao {
     @Query("SELECT COUNT(*) FROM playlist_songs WHERE playlistId = :playlistId")
     fun getPlaylistSongCount(playlistId: Long): Flow<Int>
     
+    @Query("SELECT songId FROM playlist_songs WHERE playlistId = :playlistId ORDER BY sortOrder")
+    suspend fun getPlaylistSongIdsSync(playlistId: Long): List<Long>
+    
+    @Query("SELECT MAX(sortOrder) FROM playlist_songs WHERE playlistId = :playlistId")
+    suspend fun getLastSortOrder(playlistId: Long): Long?
+    
+    /**
+     * Sort key of the song at [position] in the playlist, or null past the end. Walks the
+     * (playlistId, sortOrder) index up to [position] but reads a single row.
+     */
+    @Query("SELECT sortOrder FROM playlist_songs WHERE playlistId = :playlistId ORDER BY sortOrder LIMIT 1 OFFSET :position")
+    suspend fun getSortOrderAt(playlistId: Long, position: Int): Long?
+    
+    @Query("SELECT songId FROM playlist_songs WHERE playlistId = :playlistId ORDER BY sortOrder LIMIT 1 OFFSET :position")
+    suspend fun getPlaylistSongIdAt(playlistId: Long, position: Int): Long?
+    
     @Insert(onConflict = OnConflictStrategy.IGNORE)
-    suspend fun addSongToPlaylist(playlistSong: PlaylistSong)
+    suspend fun insertPlaylistSongs(playlistSongs: List<PlaylistSong>)
+    
+    @Query("UPDATE playlist_songs SET sortOrder = :sortOrder WHERE playlistId = :playlistId AND songId = :songId")
+    suspend fun setSortOrder(playlistId: Long, songId: Long, sortOrder: Long)
+    
+    @Query("DELETE FROM playlist_songs WHERE playlistId = :playlistId AND sortOrder BETWEEN :first AND :last")
+    suspend fun deleteSortOrderRange(playlistId: Long, first: Long, last: Long): Int
     
     @Query("DELETE FROM playlist_songs WHERE playlistId = :playlistId AND songId = :songId")
     suspend fun removeSongFromPlaylist(playlistId: Long, songId: Long)
@@ -78,41 +133,212 @@ interface MusicDao {
     @Query("DELETE FROM playlist_songs WHERE playlistId = :playlistId")
     suspend fun clearPlaylist(playlistId: Long)
     
+    @Query("UPDATE playlists SET updatedAt = :updatedAt WHERE id = :playlistId")
+    suspend fun touchPlaylist(playlistId: Long, updatedAt: Long = System.currentTimeMillis())
+    
+    suspend fun addSongToPlaylist(playlistId: Long, songId: Long) = addSongsToPlaylist(playlistId, listOf(songId))
+    
+    /**
+     * Append [songIds] to the end of the playlist in one batch insert. Songs already in
+     * the playlist keep their place.
+     */
     @Transaction
     suspend fun addSongsToPlaylist(playlistId: Long, songIds: List<Long>) {
-        var order = 0
-        songIds.forEach { songId ->
-            addSongToPlaylist(PlaylistSong(playlistId, songId, sortOrder = order++))
-        }
-        // Update playlist timestamp
-        getPlaylist(playlistId)?.let {
-            updatePlaylist(it.copy(updatedAt = System.currentTimeMillis()))
+        val ids = songIds.distinct()
+        if (ids.isEmpty()) return
+        val keys = PlaylistOrder.after(getLastSortOrder(playlistId), ids.size)
+        val now = System.currentTimeMillis()
+        insertPlaylistSongs(ids.mapIndexed { i, songId -> PlaylistSong(playlistId, songId, now, keys[i]) })
+        touchPlaylist(playlistId, now)
+    }
+    
+    /**
+     * Insert [songIds] so the first lands at [position] (past the end appends). Only the
+     * new rows are written unless the gap there has run out. Songs already in the
+     * playlist keep their place.
+     */
+    @Transaction
+    suspend fun insertSongsIntoPlaylist(playlistId: Long, position: Int, songIds: List<Long>) {
+        val ids = songIds.distinct()
+        if (ids.isEmpty()) return
+        val keys = freeSortOrders(playlistId, position.coerceAtLeast(0), ids.size)
+        val now = System.currentTimeMillis()
+        insertPlaylistSongs(ids.mapIndexed { i, songId -> PlaylistSong(playlistId, songId, now, keys[i]) })
+        touchPlaylist(playlistId, now)
+    }
+    
+    /**
+     * Move the song at position [from] to position [to], as in a drag and drop. Only the
+     * moved row is written unless the gap at its new place has run out.
+     */
+    @Transaction
+    suspend fun moveSongInPlaylist(playlistId: Long, from: Int, to: Int) {
+        if (from < 0 || to < 0 || from == to) return
+        val songId = getPlaylistSongIdAt(playlistId, from) ?: return
+        // Positions of the new neighbours, counted with the song still in place
+        val key = freeSortOrders(playlistId, if (to > from) to + 1 else to, 1)[0]
+        setSortOrder(playlistId, songId, key)
+        touchPlaylist(playlistId)
+    }
+    
+    /**
+     * Remove [count] songs starting at position [from] with one range delete.
+     * @return Songs removed
+     */
+    @Transaction
+    suspend fun removeSongsFromPlaylist(playlistId: Long, from: Int, count: Int): Int {
+        if (from < 0 || count <= 0) return 0
+        val first = getSortOrderAt(playlistId, from) ?: return 0
+        val last = getSortOrderAt(playlistId, from + count - 1) ?: getLastSortOrder(playlistId) ?: return 0
+        val removed = deleteSortOrderRange(playlistId, first, last)
+        touchPlaylist(playlistId)
+        return removed
+    }
+    
+    /**
+     * [count] unused sort keys that fall between the songs now at [position] - 1 and
+     * [position], renumbering the playlist to make room if there are too few.
+     */
+    @Transaction
+    suspend fun freeSortOrders(playlistId: Long, position: Int, count: Int): LongArray {
+        val before = if (position > 0) getSortOrderAt(playlistId, position - 1) ?: getLastSortOrder(playlistId) else null
+        PlaylistOrder.between(before, getSortOrderAt(playlistId, position), count)?.let { return it }
+        renumberPlaylist(playlistId, gapAt = position, gapSize = count)
+        return LongArray(count) { PlaylistOrder.GAP * (position + 1 + it) }
+    }
+    
+    /**
+     * Respace the playlist's keys [PlaylistOrder.GAP] apart, leaving [gapSize] free keys
+     * before the song at [gapAt].
+     */
+    @Transaction
+    suspend fun renumberPlaylist(playlistId: Long, gapAt: Int = 0, gapSize: Int = 0) {
+        getPlaylistSongIdsSync(playlistId).forEachIndexed { i, songId ->
+            setSortOrder(playlistId, songId, PlaylistOrder.GAP * (i + 1 + if (i >= gapAt) gapSize else 0))
         }
     }
     
     // ============ PLAY HISTORY ============
     
     /**
-     * Record that a song was played. Increments play count and updates last played time.
+     * Record a batch of plays in one transaction: the raw events, then one upsert per
+     * song and per song and day or week into the rollups. Skips count towards the
+     * rollups' skips only, so [SongPlayHistory.playCount] agrees with their plays.
+     *
+     * Plays already recorded (same song and start time) are ignored, so replaying a
+     * batch is harmless. That takes the raw event, so plays from before the raw
+     * retention window ([compactPlayStats]) are ignored as well: there'd be no telling
+     * whether they were counted before their events were compacted away.
      */
     @Transaction
-    suspend fun recordPlay(songId: Long) {
-        val existing = getPlayHistory(songId)
-        if (existing != null) {
-            updatePlayHistory(SongPlayHistory(
-                songId = songId,
-                playCount = existing.playCount + 1,
-                lastPlayedAt = System.currentTimeMillis()
-            ))
-        } else {
-            insertPlayHistory(SongPlayHistory(
-                songId = songId,
-                playCount = 1,
-                lastPlayedAt = System.currentTimeMillis()
-            ))
+    suspend fun recordPlays(events: List<PlayEvent>, now: Long = System.currentTimeMillis()) {
+        val retainedFrom = (PlayStats.day(now) - PlayStats.RAW_RETENTION_DAYS) * PlayStats.DAY_MS
+        val retained = events.filter { it.playedAt >= retainedFrom }
+        if (retained.isEmpty()) return
+        val rowIds = insertPlayEvents(retained)
+        val recorded = retained.filterIndexed { i, _ -> rowIds[i] != -1L }
+        recorded.groupBy { it.songId }.forEach { (songId, plays) ->
+            insertPlayHistoryIfMissing(songId)
+            addPlays(songId, plays.count { !it.skipped }, plays.maxOf { it.playedAt }, plays.sumOf { PlayStats.decayWeight(it) })
+        }
+        recorded.groupBy { it.songId to PlayStats.day(it.playedAt) }.forEach { (key, plays) ->
+            insertDailyPlaysIfMissing(key.first, key.second)
+            addDailyPlays(key.first, key.second, plays.count { !it.skipped }, plays.count { it.skipped }, plays.sumOf { it.listenedMs })
+        }
+        recorded.groupBy { it.songId to PlayStats.week(it.playedAt) }.forEach { (key, plays) ->
+            insertWeeklyPlaysIfMissing(key.first, key.second)
+            addWeeklyPlays(key.first, key.second, plays.count { !it.skipped }, plays.count { it.skipped }, plays.sumOf { it.listenedMs })
         }
     }
     
+    /** @return Row IDs, -1 for plays already recorded */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertPlayEvents(events: List<PlayEvent>): List<Long>
+    
+    // Upserts are two statements rather than INSERT ... ON CONFLICT DO UPDATE, which
+    // needs SQLite 3.24 (API 30) and minSdk is 24
+    @Query("INSERT OR IGNORE INTO song_play_history (songId, playCount, lastPlayedAt) VALUES (:songId, 0, 0)")
+    suspend fun insertPlayHistoryIfMissing(songId: Long)
+    
+    @Query(
+        """
+        UPDATE song_play_history
+        SET playCount = playCount + :plays, lastPlayedAt = MAX(lastPlayedAt, :lastPlayedAt), decayedPlays = decayedPlays + :decayed
+        WHERE songId = :songId
+        """
+    )
+    suspend fun addPlays(songId: Long, plays: Int, lastPlayedAt: Long, decayed: Double)
+    
+    @Query("INSERT OR IGNORE INTO play_daily (songId, day, plays, skips, listenedMs) VALUES (:songId, :day, 0, 0, 0)")
+    suspend fun insertDailyPlaysIfMissing(songId: Long, day: Int)
+    
+    @Query(
+        """
+        UPDATE play_daily SET plays = plays + :plays, skips = skips + :skips, listenedMs = listenedMs + :listenedMs
+        WHERE songId = :songId AND day = :day
+        """
+    )
+    suspend fun addDailyPlays(songId: Long, day: Int, plays: Int, skips: Int, listenedMs: Long)
+    
+    @Query("INSERT OR IGNORE INTO play_weekly (songId, week, plays, skips, listenedMs) VALUES (:songId, :week, 0, 0, 0)")
+    suspend fun insertWeeklyPlaysIfMissing(songId: Long, week: Int)
+    
+    @Query(
+        """
+        UPDATE play_weekly SET plays = plays + :plays, skips = skips + :skips, listenedMs = listenedMs + :listenedMs
+        WHERE songId = :songId AND week = :week
+        """
+    )
+    suspend fun addWeeklyPlays(songId: Long, week: Int, plays: Int, skips: Int, listenedMs: Long)
+    
+    /**
+     * Drop raw plays older than [PlayStats.RAW_RETENTION_DAYS] and daily rollups older
+     * than [PlayStats.DAILY_RETENTION_DAYS]; weekly rollups keep the long view.
+     */
+    @Transaction
+    suspend fun compactPlayStats(now: Long) {
+        val today = PlayStats.day(now)
+        deletePlayEventsBefore((today - PlayStats.RAW_RETENTION_DAYS) * PlayStats.DAY_MS)
+        deleteDailyPlaysBefore(today - PlayStats.DAILY_RETENTION_DAYS)
+    }
+    
+    @Query("DELETE FROM play_events WHERE playedAt < :before")
+    suspend fun deletePlayEventsBefore(before: Long): Int
+    
+    @Query("DELETE FROM play_daily WHERE day < :day")
+    suspend fun deleteDailyPlaysBefore(day: Int): Int
+    
+    /**
+     * Songs with the most plays (skips excluded) from [fromDay] on, most played first.
+     * Reads daily rollups, so [fromDay] must be within [PlayStats.DAILY_RETENTION_DAYS].
+     */
+    @Query(
+        """
+        SELECT songId FROM play_daily WHERE day >= :fromDay
+        GROUP BY songId HAVING SUM(plays) > 0
+        ORDER BY SUM(plays) DESC, MAX(day) DESC LIMIT :limit
+        """
+    )
+    fun getMostPlayedSongIdsSinceDay(fromDay: Int, limit: Int = 50): Flow<List<Long>>
+    
+    /**
+     * Songs with the most plays (skips excluded) from [fromWeek] on, most played first.
+     */
+    @Query(
+        """
+        SELECT songId FROM play_weekly WHERE week >= :fromWeek
+        GROUP BY songId HAVING SUM(plays) > 0
+        ORDER BY SUM(plays) DESC, MAX(week) DESC LIMIT :limit
+        """
+    )
+    fun getMostPlayedSongIdsSinceWeek(fromWeek: Int, limit: Int = 50): Flow<List<Long>>
+    
+    /**
+     * Songs by plays weighted by recency (half-life [PlayStats.HALF_LIFE_DAYS]), highest first.
+     */
+    @Query("SELECT songId FROM song_play_history WHERE decayedPlays > 0 ORDER BY decayedPlays DESC LIMIT :limit")
+    fun getTrendingSongIds(limit: Int = 50): Flow<List<Long>>
+    
     @Query("SELECT * FROM song_play_history WHERE songId = :songId")
     suspend fun getPlayHistory(songId: Long): SongPlayHistory?
     
@@ -148,5 +374,11 @@ interface MusicDao {
      */
     @Query("SELECT songId FROM song_play_history WHERE playCount > 0")
     fun getAllPlayedSongIds(): Flow<List<Long>>
+
+    /**
+     * Get play history of every song played at least once, e.g. to rank search results.
+     */
+    @Query("SELECT * FROM song_play_history WHERE playCount > 0")
+    fun getPlayedSongs(): Flow<List<SongPlayHistory>>
 }
 
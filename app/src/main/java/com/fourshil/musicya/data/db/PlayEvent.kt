@@ -0,0 +1,35 @@
+package com.fourshil.musicya.data.db
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * One play of a song, kept raw for [PlayStats.RAW_RETENTION_DAYS] and rolled up into
+ * [DailyPlays], [WeeklyPlays] and [SongPlayHistory] as it's recorded (see
+ * [MusicDao.recordPlays]).
+ *
+ * A song can't start twice in the same millisecond, so (songId, playedAt) is unique;
+ * that makes recording the same play again a no-op.
+ *
+ * @property playedAt When the song started, in epoch milliseconds
+ * @property listenedMs Time the song was actually playing, pauses excluded
+ * @property completion Share of the song heard, 0 to 1
+ * @property skipped Whether the listener moved on before hearing half of it
+ */
+@Entity(
+    tableName = "play_events",
+    indices = [
+        Index(value = ["songId", "playedAt"], unique = true),
+        Index(value = ["playedAt"])  // For compaction
+    ]
+)
+data class PlayEvent(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    val songId: Long,
+    val playedAt: Long,
+    val listenedMs: Long = 0L,
+    val completion: Float = 0f,
+    val skipped: Boolean = false
+)
@@ -0,0 +1,71 @@
+package com.fourshil.musicya.data.db
+
+import androidx.room.Entity
+import androidx.room.Index
+import kotlin.math.pow
+
+/**
+ * Plays of a song on one day, for time-window rankings over recent weeks.
+ *
+ * @property day Days since the epoch, UTC (see [PlayStats.day])
+ * @property plays Plays that weren't skips
+ */
+@Entity(
+    tableName = "play_daily",
+    primaryKeys = ["songId", "day"],
+    indices = [Index(value = ["day"])]
+)
+data class DailyPlays(
+    val songId: Long,
+    val day: Int,
+    val plays: Int = 0,
+    val skips: Int = 0,
+    val listenedMs: Long = 0L
+)
+
+/**
+ * Plays of a song in one week, for time-window rankings over months and years. Kept
+ * for good, so a year's ranking reads at most 53 rows per song.
+ *
+ * @property week Weeks since the epoch, Monday to Sunday, UTC (see [PlayStats.week])
+ * @property plays Plays that weren't skips
+ */
+@Entity(
+    tableName = "play_weekly",
+    primaryKeys = ["songId", "week"],
+    indices = [Index(value = ["week"])]
+)
+data class WeeklyPlays(
+    val songId: Long,
+    val week: Int,
+    val plays: Int = 0,
+    val skips: Int = 0,
+    val listenedMs: Long = 0L
+)
+
+/**
+ * Bucketing, decay and retention rules for play statistics.
+ *
+ * The decayed ranking weighs each play by 2^(-age / [HALF_LIFE_DAYS]). Rather than
+ * re-weighing every play as time passes, each play adds 2^((playedAt - [DECAY_EPOCH]) /
+ * half-life) to [SongPlayHistory.decayedPlays]: every score shrinks by the same factor
+ * as time passes, so ordering by the stored sum is ordering by decayed plays now. The
+ * sums stay well within a double for decades past the epoch.
+ */
+object PlayStats {
+    const val HALF_LIFE_DAYS = 14
+    /** 2024-01-01T00:00:00Z. */
+    const val DECAY_EPOCH = 1_704_067_200_000L
+    const val RAW_RETENTION_DAYS = 90
+    const val DAILY_RETENTION_DAYS = 400
+    const val DAY_MS = 86_400_000L
+
+    fun day(time: Long): Int = Math.floorDiv(time, DAY_MS).toInt()
+
+    // Epoch day 0 was a Thursday; shift so weeks start on Monday
+    fun week(time: Long): Int = Math.floorDiv(day(time) + 3, 7)
+
+    /** What a play adds to [SongPlayHistory.decayedPlays]; skips add nothing. */
+    fun decayWeight(event: PlayEvent): Double =
+        if (event.skipped) 0.0 else 2.0.pow((event.playedAt - DECAY_EPOCH).toDouble() / (HALF_LIFE_DAYS * DAY_MS))
+}
@@ -6,6 +6,8 @@ import androidx.room.Index
 
 /**
  * Cross-reference entity linking songs to playlists.
+ *
+ * @property sortOrder Sparse position key, see [PlaylistOrder]
  */
 @Entity(
     tableName = "playlist_songs",
@@ -18,11 +20,39 @@ import androidx.room.Index
             onDelete = ForeignKey.CASCADE
         )
     ],
-    indices = [Index("playlistId"), Index("songId")]
+    indices = [Index("playlistId", "sortOrder"), Index("songId")]
 )
 data class PlaylistSong(
     val playlistId: Long,
     val songId: Long,
     val addedAt: Long = System.currentTimeMillis(),
-    val sortOrder: Int = 0
+    val sortOrder: Long = 0
 )
+
+/**
+ * Sort keys for playlist songs.
+ *
+ * Keys are spaced [GAP] apart, so a song can be moved or inserted by giving it a key
+ * between its new neighbours' without touching any other row. Repeated inserts at the
+ * same spot halve the space there each time; when two neighbours have no key left
+ * between them, the playlist is renumbered once (see [MusicDao.renumberPlaylist]), which
+ * happens about once per log2([GAP]) inserts into the same gap.
+ */
+object PlaylistOrder {
+    const val GAP = 1024L
+
+    /** [count] keys after [last], or from the start if the playlist is empty. */
+    fun after(last: Long?, count: Int): LongArray = LongArray(count) { (last ?: 0L) + GAP * (it + 1) }
+
+    /**
+     * [count] keys spread evenly between [before] and [next] (null for the ends of the
+     * playlist), or null if there aren't enough keys between them.
+     */
+    fun between(before: Long?, next: Long?, count: Int): LongArray? {
+        if (next == null) return after(before, count)
+        val low = before ?: 0L
+        val step = (next - low) / (count + 1)
+        if (step == 0L) return null
+        return LongArray(count) { low + step * (it + 1) }
+    }
+}
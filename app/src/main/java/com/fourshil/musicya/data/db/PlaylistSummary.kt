@@ -0,0 +1,54 @@
+package com.fourshil.musicya.data.db
+
+import android.net.Uri
+import androidx.room.Embedded
+
+/**
+ * Songs of one album in one playlist, as returned by [MusicDao.getPlaylistAlbumRows].
+ * A playlist without songs has a single row with a null [albumId] and no songs; its
+ * songs that aren't in the library index share a row like that.
+ *
+ * @property firstSortOrder Sort key of the album's first song in the playlist
+ */
+data class PlaylistAlbumRow(
+    @Embedded val playlist: Playlist,
+    val albumId: Long?,
+    val songCount: Int,
+    val duration: Long,
+    val firstSortOrder: Long?
+)
+
+/**
+ * What the Playlists tab shows for a playlist.
+ *
+ * @property albumIds Up to [ART_TILES] distinct albums in playlist order, for the artwork grid
+ */
+data class PlaylistSummary(
+    val playlist: Playlist,
+    val songCount: Int,
+    val totalDuration: Long,
+    val albumIds: List<Long>
+) {
+    val artUris: List<Uri> get() = albumIds.map { Uri.parse("content://media/external/audio/albumart/$it") }
+
+    companion object {
+        const val ART_TILES = 4
+
+        /**
+         * Fold [rows] into one summary per playlist, keeping the rows' playlist order.
+         */
+        fun fromRows(rows: List<PlaylistAlbumRow>): List<PlaylistSummary> =
+            rows.groupBy { it.playlist.id }.values.map { albums ->
+                PlaylistSummary(
+                    playlist = albums.first().playlist,
+                    songCount = albums.sumOf { it.songCount },
+                    totalDuration = albums.sumOf { it.duration },
+                    albumIds = albums
+                        .filter { it.albumId != null && it.firstSortOrder != null }
+                        .sortedBy { it.firstSortOrder }
+                        .take(ART_TILES)
+                        .map { it.albumId!! }
+                )
+            }
+    }
+}
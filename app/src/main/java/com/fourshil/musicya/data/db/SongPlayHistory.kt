@@ -1,5 +1,6 @@
 package com.fourshil.musicya.data.db
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.Index
 import androidx.room.PrimaryKey
@@ -7,18 +8,24 @@ import androidx.room.PrimaryKey
 /**
  * Entity tracking play history for songs.
  * Stores play count and last played timestamp for "Most Played" and "Recently Played" features.
+ *
+ * @property decayedPlays Plays weighted by recency, for the "Trending" ranking; only
+ *   comparable between songs (see [PlayStats])
  */
 @Entity(
     tableName = "song_play_history",
     indices = [
         Index(value = ["playCount"]),    // For efficient Most Played sorting
-        Index(value = ["lastPlayedAt"])  // For efficient Recently Played sorting
+        Index(value = ["lastPlayedAt"]),  // For efficient Recently Played sorting
+        Index(value = ["decayedPlays"])
     ]
 )
 data class SongPlayHistory(
     @PrimaryKey
     val songId: Long,
     val playCount: Int = 0,
-    val lastPlayedAt: Long = 0L
+    val lastPlayedAt: Long = 0L,
+    @ColumnInfo(defaultValue = "0")
+    val decayedPlays: Double = 0.0
 )
 
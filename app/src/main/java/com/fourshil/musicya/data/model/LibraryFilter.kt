@@ -0,0 +1,70 @@
+package com.fourshil.musicya.data.model
+
+import java.util.Locale
+
+/**
+ * User rules deciding which MediaStore audio rows make up the library.
+ *
+ * Empty sets and null bounds mean "no restriction". Folder rules match the folder itself
+ * and everything below it; a song under both an included and an excluded folder is
+ * excluded.
+ *
+ * @property includedFolders If not empty, only songs under one of these folders are kept
+ * @property excludedFolders Songs under any of these folders are dropped
+ * @property minDurationMs Shorter songs (ringtones, voice notes) are dropped
+ * @property extensions If not empty, only files with one of these extensions are kept
+ *   (without the dot, case-insensitive)
+ * @property addedAfter Only songs added at or after this time, in epoch seconds like `DATE_ADDED`
+ * @property addedBefore Only songs added before this time, in epoch seconds
+ */
+data class LibraryFilter(
+    val includedFolders: Set<String> = emptySet(),
+    val excludedFolders: Set<String> = emptySet(),
+    val minDurationMs: Long = 0L,
+    val extensions: Set<String> = emptySet(),
+    val addedAfter: Long? = null,
+    val addedBefore: Long? = null
+) {
+    val isEmpty: Boolean
+        get() = includedFolders.isEmpty() && excludedFolders.isEmpty() && minDurationMs <= 0 &&
+            extensions.isEmpty() && addedAfter == null && addedBefore == null
+
+    /**
+     * Evaluate every rule in Kotlin. [com.fourshil.musicya.data.repository.LibraryFilterQuery]
+     * pushes the same rules into SQL; this is the reference both have to agree with.
+     */
+    fun matches(path: String, duration: Long, dateAdded: Long): Boolean {
+        if (duration < minDurationMs) return false
+        if (addedAfter != null && dateAdded < addedAfter) return false
+        if (addedBefore != null && dateAdded >= addedBefore) return false
+        if (includedFolders.isNotEmpty() && includedFolders.none { isUnder(path, it) }) return false
+        if (excludedFolders.any { isUnder(path, it) }) return false
+        if (extensions.isNotEmpty() && extensionOf(path) !in normalizedExtensions) return false
+        return true
+    }
+
+    /** [extensions] lowercased and without dots. */
+    val normalizedExtensions: Set<String> by lazy {
+        extensions.mapTo(HashSet()) { it.trim().removePrefix(".").lowercase(Locale.ROOT) }
+    }
+
+    companion object {
+        val NONE = LibraryFilter()
+
+        /**
+         * [folder] without trailing slashes, so "/Music/" and "/Music" are the same rule.
+         */
+        fun normalizeFolder(folder: String): String = folder.trimEnd('/')
+
+        fun isUnder(path: String, folder: String): Boolean {
+            val prefix = normalizeFolder(folder) + "/"
+            return path.startsWith(prefix)
+        }
+
+        fun extensionOf(path: String): String {
+            val name = path.substringAfterLast('/')
+            val dot = name.lastIndexOf('.')
+            return if (dot < 0) "" else name.substring(dot + 1).lowercase(Locale.ROOT)
+        }
+    }
+}
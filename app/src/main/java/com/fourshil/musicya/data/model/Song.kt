@@ -12,37 +12,71 @@ data class Song(
     val uri: Uri,
     val path: String,
     val dateAdded: Long,
-    val size: Long
+    val size: Long,
+    val year: Int = 0
 ) {
-    // Cached formatted duration - computed once per instance
-    val durationFormatted: String by lazy {
-        val minutes = (duration / 1000) / 60
-        val seconds = (duration / 1000) % 60
-        "%d:%02d".format(minutes, seconds)
-    }
+    // Derived on access rather than stored: a library holds every song at once, and
+    // a lazy delegate plus a parsed Uri per song cost more than the odd recompute
+    val durationFormatted: String
+        get() {
+            val minutes = (duration / 1000) / 60
+            val seconds = (duration / 1000) % 60
+            return "%d:%02d".format(minutes, seconds)
+        }
     
-    val albumArtUri: Uri = Uri.parse("content://media/external/audio/albumart/$albumId")
+    val albumArtUri: Uri get() = Uri.parse("content://media/external/audio/albumart/$albumId")
 }
 
+/**
+ * An album derived from the library songs.
+ *
+ * @property year Earliest release year among its songs, or 0 if none is tagged
+ * @property lastYear Latest release year; differs from [year] for reissues and compilations
+ * @property totalDuration Sum of the song durations, in milliseconds
+ */
 data class Album(
     val id: Long,
     val name: String,
     val artist: String,
     val songCount: Int,
-    val year: Int
+    val year: Int,
+    val lastYear: Int = year,
+    val totalDuration: Long = 0L
 ) {
     val artUri: Uri = Uri.parse("content://media/external/audio/albumart/$id")
 }
 
+/**
+ * An artist derived from the library songs.
+ *
+ * @property firstYear Earliest release year among its songs, or 0 if none is tagged
+ * @property lastYear Latest release year, or 0 if none is tagged
+ * @property artUris Art of up to four of the artist's albums, in library order
+ */
 data class Artist(
     val id: Long,
     val name: String,
     val songCount: Int,
-    val albumCount: Int
+    val albumCount: Int,
+    val totalDuration: Long = 0L,
+    val firstYear: Int = 0,
+    val lastYear: Int = 0,
+    val artUris: List<Uri> = emptyList()
 )
 
+/**
+ * A directory holding music.
+ *
+ * In the flat library folder list [songCount] counts the songs directly inside the
+ * folder. Folders from the folder tree count their whole subtree instead, with the
+ * direct songs in [directSongCount].
+ */
 data class Folder(
     val path: String,
     val name: String,
-    val songCount: Int
+    val songCount: Int,
+    val directSongCount: Int = songCount,
+    val subfolderCount: Int = 0,
+    val totalDuration: Long = 0L,
+    val totalSize: Long = 0L
 )
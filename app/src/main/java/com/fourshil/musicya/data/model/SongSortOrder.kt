@@ -0,0 +1,33 @@
+package com.fourshil.musicya.data.model
+
+/**
+ * Library orderings supported by paging.
+ *
+ * Every ordering is made total by breaking ties on the song ID in the same direction,
+ * which is what lets a page boundary be described by a single (sort value, id) key.
+ */
+enum class SongSortOrder(val descending: Boolean) {
+    TITLE(descending = false),
+    ARTIST(descending = false),
+    ALBUM(descending = false),
+    DATE_ADDED(descending = true),
+    DURATION(descending = true),
+    SIZE(descending = true);
+
+    /** True if the sort value is a number; otherwise it's text compared by collation. */
+    val isNumeric: Boolean
+        get() = this == DATE_ADDED || this == DURATION || this == SIZE
+
+    /**
+     * The value of this ordering's sort column for [song], as stored in a page key.
+     * Text fallbacks match the ones applied when mapping MediaStore rows to [Song].
+     */
+    fun keyOf(song: Song): String = when (this) {
+        TITLE -> song.title
+        ARTIST -> song.artist
+        ALBUM -> song.album
+        DATE_ADDED -> song.dateAdded.toString()
+        DURATION -> song.duration.toString()
+        SIZE -> song.size.toString()
+    }
+}
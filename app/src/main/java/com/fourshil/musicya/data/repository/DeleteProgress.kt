@@ -0,0 +1,14 @@
+package com.fourshil.musicya.data.repository
+
+/**
+ * Progress of a bulk delete.
+ *
+ * @property processed Songs attempted so far
+ * @property deleted Songs actually removed so far
+ * @property total Songs requested
+ */
+data class DeleteProgress(
+    val processed: Int,
+    val deleted: Int,
+    val total: Int
+)
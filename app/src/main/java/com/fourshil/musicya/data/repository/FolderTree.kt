@@ -0,0 +1,170 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Folder
+import com.fourshil.musicya.data.model.Song
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Directory trie over song paths with recursive aggregates.
+ *
+ * Each node keeps the number of songs directly inside it plus the song count, total
+ * duration and total size of its whole subtree. Adding or removing a song only walks
+ * that song's ancestors, so patches cost O(depth) instead of regrouping the library;
+ * nodes whose subtree becomes empty are pruned.
+ *
+ * Nodes are exposed as immutable [Folder] values. Like [LibraryIndex], access is guarded
+ * by a read/write lock.
+ */
+class FolderTree {
+
+    private class Node(val path: String, val name: String, val parent: Node?) {
+        val children = HashMap<String, Node>()
+        var directCount = 0
+        var songCount = 0
+        var totalDuration = 0L
+        var totalSize = 0L
+
+        fun toFolder() = Folder(
+            path = path,
+            name = name,
+            songCount = songCount,
+            directSongCount = directCount,
+            subfolderCount = children.size,
+            totalDuration = totalDuration,
+            totalSize = totalSize
+        )
+    }
+
+    private val lock = ReentrantReadWriteLock()
+    private val root = Node(path = "", name = "", parent = null)
+
+    /**
+     * Replace the tree contents with [songs].
+     */
+    fun rebuild(songs: List<Song>) = lock.write {
+        root.children.clear()
+        root.directCount = 0
+        root.songCount = 0
+        root.totalDuration = 0
+        root.totalSize = 0
+        songs.forEach { addLocked(it) }
+    }
+
+    /**
+     * Apply a patch: [removed] are the previous versions of removed or updated songs,
+     * [added] the new versions of inserted or updated ones.
+     */
+    fun patch(removed: List<Song>, added: List<Song>) = lock.write {
+        removed.forEach { removeLocked(it) }
+        added.forEach { addLocked(it) }
+    }
+
+    fun add(songs: List<Song>) = lock.write { songs.forEach { addLocked(it) } }
+
+    /**
+     * The folder at [path], or null if no song lives under it.
+     */
+    fun folder(path: String): Folder? = lock.read { findLocked(path)?.toFolder() }
+
+    /**
+     * Subfolders of [path], sorted by name. A null path lists the top level: the
+     * single-child chain from the filesystem root (e.g. `/storage/emulated/0/Music`)
+     * is skipped so browsing starts where the music actually branches out.
+     */
+    fun children(path: String?): List<Folder> = lock.read {
+        val node = if (path == null) topLevelLocked() else findLocked(path)
+        node?.children?.values
+            ?.sortedWith(compareBy(String.CASE_INSENSITIVE_ORDER) { it.name })
+            ?.map { it.toFolder() }
+            ?: emptyList()
+    }
+
+    /**
+     * Paths of every folder in the subtree of [path] that directly holds songs, in
+     * depth-first order with subfolders sorted by name.
+     */
+    fun subtreeFolderPaths(path: String): List<String> = lock.read {
+        val start = findLocked(path) ?: return@read emptyList()
+        val paths = mutableListOf<String>()
+        val stack = ArrayDeque<Node>().apply { addLast(start) }
+        while (stack.isNotEmpty()) {
+            val node = stack.removeLast()
+            if (node.directCount > 0) paths.add(node.path)
+            // Push in reverse so the alphabetically first child is visited next
+            node.children.values
+                .sortedWith(compareByDescending(String.CASE_INSENSITIVE_ORDER) { it.name })
+                .forEach { stack.addLast(it) }
+        }
+        paths
+    }
+
+    /**
+     * Every folder that directly holds songs, with [Folder.songCount] covering only
+     * those direct songs. This is the flat list the library snapshot publishes.
+     */
+    fun foldersWithSongs(): List<Folder> = lock.read {
+        val folders = mutableListOf<Folder>()
+        val stack = ArrayDeque<Node>().apply { addLast(root) }
+        while (stack.isNotEmpty()) {
+            val node = stack.removeLast()
+            if (node.directCount > 0 && node.path.isNotEmpty()) {
+                folders.add(Folder(path = node.path, name = node.name, songCount = node.directCount))
+            }
+            node.children.values.forEach { stack.addLast(it) }
+        }
+        folders.sortedBy { it.name }
+    }
+
+    private fun topLevelLocked(): Node {
+        var node = root
+        while (node.directCount == 0 && node.children.size == 1) {
+            node = node.children.values.first()
+        }
+        // Songs directly in the deepest shared folder: list from its parent so it shows up
+        return if (node.directCount > 0) node.parent ?: node else node
+    }
+
+    private fun findLocked(path: String): Node? {
+        if (path.isEmpty()) return root
+        var node = root
+        for (segment in segments(path)) {
+            node = node.children[segment] ?: return null
+        }
+        return node
+    }
+
+    private fun addLocked(song: Song) {
+        var node = root
+        node.accumulate(song, 1)
+        for (segment in segments(folderOf(song.path))) {
+            node = node.children.getOrPut(segment) {
+                Node(path = "${node.path}/$segment", name = segment, parent = node)
+            }
+            node.accumulate(song, 1)
+        }
+        node.directCount++
+    }
+
+    private fun removeLocked(song: Song) {
+        val leaf = findLocked(folderOf(song.path)) ?: return
+        if (leaf.directCount == 0) return
+        leaf.directCount--
+        var node: Node? = leaf
+        while (node != null) {
+            node.accumulate(song, -1)
+            val parent = node.parent
+            if (parent != null && node.songCount == 0) parent.children.remove(node.name)
+            node = parent
+        }
+    }
+
+    private fun Node.accumulate(song: Song, sign: Int) {
+        songCount += sign
+        totalDuration += sign * song.duration
+        totalSize += sign * song.size
+    }
+
+    private fun segments(path: String): List<String> = path.split('/').filter { it.isNotEmpty() }
+}
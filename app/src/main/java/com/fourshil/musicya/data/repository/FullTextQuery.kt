@@ -0,0 +1,57 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.db.LibrarySearchHit
+import com.fourshil.musicya.data.model.Song
+import java.util.Locale
+
+/**
+ * A song found by full-text search.
+ *
+ * @property snippet Fragment of the best matching column (title, lyrics, ...) with each
+ *   matched term between [LibrarySearchHit.MATCH_START] and [LibrarySearchHit.MATCH_END]
+ */
+data class SongMatch(val song: Song, val snippet: String)
+
+/**
+ * Builds FTS4 `MATCH` expressions for the `library_search` table from what the user typed.
+ *
+ * Each word becomes a prefix term, so "beat" matches "Beatles", and text in double
+ * quotes becomes a phrase matched word for word. Terms are ANDed. Anything that isn't a
+ * letter or digit separates words, as in the unicode61 tokenizer, and words are
+ * lowercased so input like OR, NOT or NEAR is never read as an operator. The result is
+ * therefore always a valid expression.
+ */
+object FullTextQuery {
+
+    /**
+     * @return The MATCH expression, or null if [input] has no words
+     */
+    fun build(input: String): String? {
+        val terms = ArrayList<String>()
+        input.split('"').forEachIndexed { i, part ->
+            val words = words(part)
+            if (words.isEmpty()) return@forEachIndexed
+            // Odd parts sit between quotes; an unclosed quote still starts a phrase
+            if (i % 2 == 1) {
+                terms += words.joinToString(" ", prefix = "\"", postfix = "\"")
+            } else {
+                words.mapTo(terms) { "$it*" }
+            }
+        }
+        return if (terms.isEmpty()) null else terms.joinToString(" ")
+    }
+
+    private fun words(text: String): List<String> {
+        val words = ArrayList<String>()
+        var start = -1
+        for (i in 0..text.length) {
+            val inWord = i < text.length && text[i].isLetterOrDigit()
+            if (inWord && start < 0) start = i
+            if (!inWord && start >= 0) {
+                words += text.substring(start, i).lowercase(Locale.ROOT)
+                start = -1
+            }
+        }
+        return words
+    }
+}
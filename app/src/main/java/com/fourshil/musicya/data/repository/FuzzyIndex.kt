@@ -0,0 +1,292 @@
+package com.fourshil.musicya.data.repository
+
+import kotlin.math.ln
+
+/**
+ * Typo-tolerant word search over documents made of text fields, for queries the
+ * substring [TrigramIndex] can't match, such as "beatels" or "bjrok".
+ *
+ * Fields are split into words (runs of letters and digits) and each distinct word becomes
+ * a token with a posting list of the documents holding it. A query word matches a token
+ * exactly, as a prefix (last query word only, since that's the one still being typed), or
+ * within a bounded Damerau-Levenshtein distance (optimal string alignment, so a swap of
+ * two neighbours is one edit): one edit for words of 3 to 5 characters, two from 6 on.
+ *
+ * Fuzzy candidates come from a symmetric-delete dictionary rather than a scan: each token
+ * is filed under the strings left by deleting up to its edit budget of characters from
+ * its first [PREFIX] characters, and a query word looks up its own deletes, so any two
+ * words within the budget share a key. Keys are 32-bit hashes packed with the token ID
+ * into one sorted [LongArray]; every candidate is checked against the real distance, so
+ * a collision costs a comparison but never a false match. Tokens with digits aren't
+ * filed; a typo in "1999" isn't worth guessing at.
+ *
+ * A document matches when every query word matches one of its tokens. It scores the mean
+ * of each word's best match (1 exact, 0.75 to 1 for a prefix by how much of the token it
+ * covers, under 0.8 for a fuzzy match by distance) plus [POPULARITY_WEIGHT] times
+ * ln(1 + popularity), so equally good matches rank by how often they're played.
+ *
+ * Fields are expected to be normalized already (see [MetadataPool.fold]); queries must be
+ * normalized the same way. Immutable once built; [search] reuses per-document scratch
+ * arrays and is synchronized.
+ */
+class FuzzyIndex(documents: List<Array<String>>) {
+
+    private val documentCount = documents.size
+    private val tokens: Array<String>
+    private val postings: Array<IntArray>
+
+    /** Token IDs in string order, for exact and prefix lookups. */
+    private val sortedTokens: IntArray
+
+    /** `(delete hash shl 32) or token ID`, sorted, without duplicates. */
+    private val deletes: LongArray
+
+    // Search scratch, indexed by document. Only the documents matching the first query
+    // word are ever touched, so only those are reset.
+    private val matchedWords = ByteArray(documentCount)
+    private val scoreSums = FloatArray(documentCount)
+    private val wordScores = FloatArray(documentCount)
+    private val touched = IntArray(documentCount)
+    private val firstMatches = IntArray(documentCount)
+    private var firstMatchCount = 0
+
+    init {
+        val ids = HashMap<String, Int>()
+        val tokenList = ArrayList<String>()
+        val lists = ArrayList<IntArray>()
+        var sizes = IntArray(256)
+        documents.forEachIndexed { document, fields ->
+            fields.forEach { field ->
+                forEachWord(field) { start, end ->
+                    val word = field.substring(start, end)
+                    val id = ids.getOrPut(word) {
+                        tokenList += word
+                        lists += IntArray(2)
+                        if (tokenList.size > sizes.size) sizes = sizes.copyOf(sizes.size * 2)
+                        tokenList.size - 1
+                    }
+                    val size = sizes[id]
+                    // A word can repeat within and across a document's fields
+                    if (size > 0 && lists[id][size - 1] == document) return@forEachWord
+                    if (size == lists[id].size) lists[id] = lists[id].copyOf(size * 2)
+                    lists[id][size] = document
+                    sizes[id] = size + 1
+                }
+            }
+        }
+        tokens = tokenList.toTypedArray()
+        postings = Array(tokens.size) { lists[it].copyOf(sizes[it]) }
+        sortedTokens = tokens.indices.sortedWith { a, b -> tokens[a].compareTo(tokens[b]) }.toIntArray()
+
+        var keys = LongArray(tokens.size * 4)
+        var keyCount = 0
+        tokens.forEachIndexed { id, token ->
+            if (!isFuzzy(token)) return@forEachIndexed
+            forEachDelete(token, maxDistance(token.length)) { hash ->
+                if (keyCount == keys.size) keys = keys.copyOf(keyCount * 2)
+                keys[keyCount++] = (hash.toLong() shl 32) or id.toLong()
+            }
+        }
+        keys.sort(0, keyCount)
+        var unique = 0
+        for (i in 0 until keyCount) {
+            if (unique == 0 || keys[unique - 1] != keys[i]) keys[unique++] = keys[i]
+        }
+        deletes = keys.copyOf(unique)
+    }
+
+    /**
+     * Documents matching every word of [query], best first.
+     * @param popularity Play count (or similar) of a document, for ranking
+     */
+    @Synchronized
+    fun search(query: String, limit: Int, popularity: (Int) -> Int): IntArray {
+        val words = ArrayList<String>()
+        forEachWord(query) { start, end -> if (words.size < MAX_WORDS) words += query.substring(start, end) }
+        if (words.isEmpty() || documentCount == 0 || limit <= 0) return IntArray(0)
+        reset()
+
+        for ((w, word) in words.withIndex()) {
+            var touchedCount = 0
+            for ((token, score) in tokenScores(word, prefix = w == words.lastIndex)) {
+                for (document in postings[token]) {
+                    if (matchedWords[document].toInt() != w) continue
+                    if (wordScores[document] == 0f) touched[touchedCount++] = document
+                    if (score > wordScores[document]) wordScores[document] = score
+                }
+            }
+            if (touchedCount == 0) return IntArray(0)
+            for (i in 0 until touchedCount) {
+                val document = touched[i]
+                scoreSums[document] += wordScores[document]
+                wordScores[document] = 0f
+                matchedWords[document]++
+            }
+            if (w == 0) {
+                System.arraycopy(touched, 0, firstMatches, 0, touchedCount)
+                firstMatchCount = touchedCount
+            }
+        }
+
+        // Sort (descending score, ascending document) as one key: positive floats order
+        // like their bits, so invert those into the high half
+        val ranked = LongArray(firstMatchCount)
+        var count = 0
+        for (i in 0 until firstMatchCount) {
+            val document = firstMatches[i]
+            if (matchedWords[document].toInt() != words.size) continue
+            val score = scoreSums[document] / words.size +
+                POPULARITY_WEIGHT * ln(1.0 + popularity(document).coerceAtLeast(0)).toFloat()
+            ranked[count++] = ((Int.MAX_VALUE - score.toRawBits()).toLong() shl 32) or document.toLong()
+        }
+        ranked.sort(0, count)
+        return IntArray(minOf(limit, count)) { ranked[it].toInt() }
+    }
+
+    private fun reset() {
+        for (i in 0 until firstMatchCount) {
+            matchedWords[firstMatches[i]] = 0
+            scoreSums[firstMatches[i]] = 0f
+        }
+        firstMatchCount = 0
+    }
+
+    /**
+     * Tokens matching [word] and how well, by token ID.
+     */
+    private fun tokenScores(word: String, prefix: Boolean): Map<Int, Float> {
+        val scores = HashMap<Int, Float>()
+        val from = lowerBound(word)
+        if (from < sortedTokens.size && tokens[sortedTokens[from]] == word) scores[sortedTokens[from]] = EXACT_SCORE
+        if (prefix && word.length >= MIN_PREFIX_LENGTH) {
+            var i = from
+            while (i < sortedTokens.size && i - from < MAX_PREFIX_TOKENS) {
+                val token = sortedTokens[i++]
+                val text = tokens[token]
+                if (!text.startsWith(word)) break
+                if (text.length > word.length) {
+                    scores[token] = PREFIX_SCORE + (EXACT_SCORE - PREFIX_SCORE) * word.length / text.length
+                }
+            }
+        }
+
+        val budget = maxDistance(word.length)
+        if (budget == 0) return scores
+        val checked = HashSet<Int>()
+        forEachDelete(word, budget) { hash ->
+            var i = deletes.binarySearch(hash.toLong() shl 32).let { if (it < 0) -it - 1 else it }
+            while (i < deletes.size && (deletes[i] ushr 32).toInt() == hash) {
+                val token = deletes[i++].toInt()
+                if (token in scores || !checked.add(token)) continue
+                val text = tokens[token]
+                val bound = minOf(budget, maxDistance(text.length))
+                val distance = distance(word, text, bound)
+                if (distance <= bound) scores[token] = FUZZY_SCORE * (1 - distance / (word.length + 1f))
+            }
+        }
+        return scores
+    }
+
+    /** Position in [sortedTokens] of the first token not below [word]. */
+    private fun lowerBound(word: String): Int {
+        var low = 0
+        var high = sortedTokens.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (tokens[sortedTokens[mid]] < word) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    companion object {
+        /** Characters of a word that go into its deletes. */
+        const val PREFIX = 7
+        const val POPULARITY_WEIGHT = 0.05f
+
+        private const val MAX_WORDS = 8
+        private const val MIN_PREFIX_LENGTH = 2
+        // A two-letter prefix can cover a good part of the vocabulary
+        private const val MAX_PREFIX_TOKENS = 512
+        private const val EXACT_SCORE = 1f
+        private const val PREFIX_SCORE = 0.75f
+        private const val FUZZY_SCORE = 0.8f
+
+        /** Edits allowed for a word of [length] characters. */
+        fun maxDistance(length: Int): Int = when {
+            length < 3 -> 0
+            length < 6 -> 1
+            else -> 2
+        }
+
+        /**
+         * Optimal string alignment distance between [a] and [b], or [bound] + 1 as soon as
+         * it's known to exceed [bound].
+         */
+        fun distance(a: String, b: String, bound: Int): Int {
+            if (kotlin.math.abs(a.length - b.length) > bound) return bound + 1
+            var beforePrevious = IntArray(b.length + 1)
+            var previous = IntArray(b.length + 1) { it }
+            var current = IntArray(b.length + 1)
+            for (i in 1..a.length) {
+                current[0] = i
+                var rowMin = i
+                for (j in 1..b.length) {
+                    var cost = minOf(previous[j] + 1, current[j - 1] + 1, previous[j - 1] + if (a[i - 1] == b[j - 1]) 0 else 1)
+                    if (i > 1 && j > 1 && a[i - 1] == b[j - 2] && a[i - 2] == b[j - 1]) {
+                        cost = minOf(cost, beforePrevious[j - 2] + 1)
+                    }
+                    current[j] = cost
+                    if (cost < rowMin) rowMin = cost
+                }
+                if (rowMin > bound) return bound + 1
+                val recycled = beforePrevious
+                beforePrevious = previous
+                previous = current
+                current = recycled
+            }
+            return previous[b.length]
+        }
+
+        private fun isFuzzy(token: String) = token.length >= 3 && token.none { it.isDigit() }
+
+        private inline fun forEachWord(text: String, action: (start: Int, end: Int) -> Unit) {
+            var start = -1
+            for (i in 0..text.length) {
+                val inWord = i < text.length && text[i].isLetterOrDigit()
+                if (inWord && start < 0) start = i
+                if (!inWord && start >= 0) {
+                    action(start, i)
+                    start = -1
+                }
+            }
+        }
+
+        /** Hashes of [word]'s first [PREFIX] characters with up to [distance] (at most 2) deleted. */
+        private inline fun forEachDelete(word: String, distance: Int, action: (Int) -> Unit) {
+            val length = minOf(word.length, PREFIX)
+            action(hash(word, length, -1, -1))
+            if (distance == 0) return
+            for (i in 0 until length) {
+                action(hash(word, length, i, -1))
+                if (distance >= 2) for (j in i + 1 until length) action(hash(word, length, i, j))
+            }
+        }
+
+        private fun hash(word: String, length: Int, skip: Int, skipAlso: Int): Int {
+            var hash = 0
+            var kept = 0
+            for (i in 0 until length) {
+                if (i == skip || i == skipAlso) continue
+                hash = hash * 31 + word[i].code
+                kept++
+            }
+            // Murmur3 finalizer, so the high bits used as the sort key are well mixed
+            hash = hash * 31 + kept
+            hash = hash xor (hash ushr 16)
+            hash *= -0x7a143595
+            hash = hash xor (hash ushr 13)
+            hash *= -0x3d4d51cb
+            return hash xor (hash ushr 16)
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.fourshil.musicya.data.repository
 
+import android.content.IntentSender
+import android.net.Uri
 import com.fourshil.musicya.data.model.Album
 import com.fourshil.musicya.data.model.Artist
 import com.fourshil.musicya.data.model.Folder
 import com.fourshil.musicya.data.model.Song
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
 
 /**
  * Repository interface for music data operations.
@@ -11,18 +16,35 @@ import com.fourshil.musicya.data.model.Song
  */
 interface IMusicRepository {
     
+    /**
+     * The shared library snapshot. Starts empty and unloaded; see [loadLibrary].
+     */
+    val library: StateFlow<LibrarySnapshot>
+    
+    /**
+     * Load the library if needed and return the current snapshot.
+     * Concurrent callers share a single in-flight load.
+     */
+    suspend fun loadLibrary(): LibrarySnapshot
+    
+    /**
+     * Load the library, emitting growing song lists while a scan is in progress.
+     * The final emission is the complete list from the loaded snapshot.
+     */
+    fun scanLibrary(): Flow<List<Song>>
+    
     /**
      * Get all songs from the device storage.
      */
     suspend fun getAllSongs(): List<Song>
     
     /**
-     * Get all albums from the device storage.
+     * Get all albums, derived from the library songs.
      */
     suspend fun getAllAlbums(): List<Album>
     
     /**
-     * Get all artists from the device storage.
+     * Get all artists, derived from the library songs.
      */
     suspend fun getAllArtists(): List<Artist>
     
@@ -31,6 +53,26 @@ interface IMusicRepository {
      */
     suspend fun getFolders(): List<Folder>
     
+    /**
+     * Get a folder with recursive song count, duration and size, or null if it holds no music.
+     */
+    suspend fun getFolder(folderPath: String): Folder?
+    
+    /**
+     * Get the subfolders of a folder, or of the top of the music tree if [folderPath] is null.
+     */
+    suspend fun getSubfolders(folderPath: String?): List<Folder>
+    
+    /**
+     * Get up to [limit] distinct album art URIs from songs under a folder.
+     */
+    suspend fun getFolderArt(folderPath: String, limit: Int = 4): List<Uri>
+    
+    /**
+     * Get all songs in a folder and its subfolders.
+     */
+    suspend fun getSongsInFolderTree(folderPath: String): List<Song>
+    
     /**
      * Get all songs belonging to a specific album.
      */
@@ -56,14 +98,38 @@ interface IMusicRepository {
      */
     fun clearCache()
     
+    /**
+     * Apply MediaStore changes since the last sync without dropping the cache.
+     * The resulting patch is published on [libraryChanges].
+     */
+    suspend fun refresh()
+    
+    /**
+     * Minimal change sets emitted whenever the cached library is patched.
+     */
+    val libraryChanges: SharedFlow<LibraryChange>
+    
     /**
      * Get all song IDs efficiently (for Select All functionality).
      */
     suspend fun getAllSongIds(): List<Long>
     
     /**
-     * Delete songs from the device storage.
+     * Delete songs from the device storage in batches.
+     * @param onProgress Called after each batch
      * @return Number of songs successfully deleted
      */
-    suspend fun deleteSongs(songIds: List<Long>): Int
+    suspend fun deleteSongs(songIds: List<Long>, onProgress: (DeleteProgress) -> Unit = {}): Int
+    
+    /**
+     * API 30+: a system request that deletes all [songIds] after one user confirmation.
+     * @return The request to launch, or null if unavailable (fall back to [deleteSongs])
+     */
+    fun createDeleteRequest(songIds: List<Long>): IntentSender?
+    
+    /**
+     * Drop songs deleted by an accepted [createDeleteRequest] from the library.
+     * @return Number of songs that were deleted
+     */
+    suspend fun onDeleteRequestCompleted(songIds: List<Long>): Int
 }
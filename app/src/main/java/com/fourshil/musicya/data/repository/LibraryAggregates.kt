@@ -0,0 +1,143 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Album
+import com.fourshil.musicya.data.model.Artist
+import com.fourshil.musicya.data.model.Song
+
+/**
+ * Albums and artists derived from the song list, so they always agree with it.
+ *
+ * [build] groups the whole library in a single pass; [rebuildAlbums] and [rebuildArtists]
+ * recompute only the groups a patch touched. Albums are grouped by album ID and artists
+ * by [LibraryIndex.normalizeArtist], matching the lookups in [LibraryIndex]. Both lists
+ * are sorted case-insensitively by name.
+ */
+internal object LibraryAggregates {
+
+    const val VARIOUS_ARTISTS = "Various Artists"
+
+    /** Album art URIs kept per artist, enough for a 2x2 grid. */
+    private const val ARTIST_ART_LIMIT = 4
+
+    private val ALBUM_ORDER = compareBy<Album, String>(String.CASE_INSENSITIVE_ORDER) { it.name }.thenBy { it.id }
+    private val ARTIST_ORDER = compareBy<Artist, String>(String.CASE_INSENSITIVE_ORDER) { it.name }.thenBy { it.id }
+
+    /**
+     * Albums and artists of [songs], in one pass over the list.
+     */
+    fun build(songs: List<Song>): Pair<List<Album>, List<Artist>> {
+        val albums = HashMap<Long, AlbumAccumulator>()
+        val artists = HashMap<String, ArtistAccumulator>()
+        for (song in songs) {
+            albums.getOrPut(song.albumId) { AlbumAccumulator(song) }.add(song)
+            artists.getOrPut(LibraryIndex.normalizeArtist(song.artist)) { ArtistAccumulator(song) }.add(song)
+        }
+        return albums.values.map { it.toAlbum() }.sortedWith(ALBUM_ORDER) to
+            artists.values.map { it.toArtist() }.sortedWith(ARTIST_ORDER)
+    }
+
+    /**
+     * [current] with the albums in [albumIds] recomputed from [songsOf]; albums left
+     * without songs are dropped.
+     */
+    fun rebuildAlbums(current: List<Album>, albumIds: Set<Long>, songsOf: (Long) -> List<Song>): List<Album> {
+        if (albumIds.isEmpty()) return current
+        val rebuilt = albumIds.mapNotNull { id -> album(songsOf(id)) }
+        return (current.filter { it.id !in albumIds } + rebuilt).sortedWith(ALBUM_ORDER)
+    }
+
+    /**
+     * [current] with the artists named in [artistNames] recomputed from [songsOf];
+     * artists left without songs are dropped.
+     */
+    fun rebuildArtists(current: List<Artist>, artistNames: Set<String>, songsOf: (String) -> List<Song>): List<Artist> {
+        if (artistNames.isEmpty()) return current
+        val keys = artistNames.mapTo(HashSet()) { LibraryIndex.normalizeArtist(it) }
+        val rebuilt = keys.mapNotNull { key -> artist(songsOf(key)) }
+        return (current.filter { LibraryIndex.normalizeArtist(it.name) !in keys } + rebuilt).sortedWith(ARTIST_ORDER)
+    }
+
+    private fun album(songs: List<Song>): Album? {
+        if (songs.isEmpty()) return null
+        val accumulator = AlbumAccumulator(songs.first())
+        songs.forEach { accumulator.add(it) }
+        return accumulator.toAlbum()
+    }
+
+    private fun artist(songs: List<Song>): Artist? {
+        if (songs.isEmpty()) return null
+        val accumulator = ArtistAccumulator(songs.first())
+        songs.forEach { accumulator.add(it) }
+        return accumulator.toArtist()
+    }
+
+    /**
+     * Running min/max over tagged years; 0 means untagged and is ignored.
+     */
+    private class YearRange {
+        var first = 0
+        var last = 0
+
+        fun add(year: Int) {
+            if (year <= 0) return
+            if (first == 0 || year < first) first = year
+            if (year > last) last = year
+        }
+    }
+
+    private class AlbumAccumulator(first: Song) {
+        private val id = first.albumId
+        private val name = first.album
+        private var artist: String? = first.artist
+        private var songCount = 0
+        private var totalDuration = 0L
+        private val years = YearRange()
+
+        fun add(song: Song) {
+            songCount++
+            totalDuration += song.duration
+            years.add(song.year)
+            if (artist != null && !artist.equals(song.artist, ignoreCase = true)) artist = null
+        }
+
+        fun toAlbum() = Album(
+            id = id,
+            name = name,
+            artist = artist ?: VARIOUS_ARTISTS,
+            songCount = songCount,
+            year = years.first,
+            lastYear = years.last,
+            totalDuration = totalDuration
+        )
+    }
+
+    private class ArtistAccumulator(first: Song) {
+        private val name = first.artist
+        private var id = first.id
+        private var songCount = 0
+        private var totalDuration = 0L
+        private val years = YearRange()
+        private val albumIds = HashSet<Long>()
+        private val art = ArrayList<Song>(ARTIST_ART_LIMIT)
+
+        fun add(song: Song) {
+            songCount++
+            totalDuration += song.duration
+            years.add(song.year)
+            if (song.id < id) id = song.id
+            if (albumIds.add(song.albumId) && art.size < ARTIST_ART_LIMIT) art.add(song)
+        }
+
+        fun toArtist() = Artist(
+            // Smallest song ID: unique per artist, and stable while that song stays
+            id = id,
+            name = name,
+            songCount = songCount,
+            albumCount = albumIds.size,
+            totalDuration = totalDuration,
+            firstYear = years.first,
+            lastYear = years.last,
+            artUris = art.map { it.albumArtUri }
+        )
+    }
+}
@@ -0,0 +1,27 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Song
+
+/**
+ * Minimal change set published after the library cache has been patched.
+ *
+ * Consumers re-read only what is affected: the song list, the folders named in
+ * [affectedFolders], and album/artist aggregates for [affectedAlbumIds]/[affectedArtists].
+ *
+ * @property upserted Songs that were added or updated
+ * @property removedIds IDs of songs that disappeared
+ * @property isFullReload True when the change couldn't be expressed as a patch
+ *   (e.g. MediaStore was rebuilt) and consumers should reload everything
+ */
+data class LibraryChange(
+    val upserted: List<Song> = emptyList(),
+    val removedIds: Set<Long> = emptySet(),
+    val affectedFolders: Set<String> = emptySet(),
+    val affectedAlbumIds: Set<Long> = emptySet(),
+    val affectedArtists: Set<String> = emptySet(),
+    val isFullReload: Boolean = false
+) {
+    companion object {
+        val FULL_RELOAD = LibraryChange(isFullReload = true)
+    }
+}
@@ -0,0 +1,93 @@
+package com.fourshil.musicya.data.repository
+
+import android.provider.MediaStore
+import com.fourshil.musicya.data.model.LibraryFilter
+
+/**
+ * Compiles a [LibraryFilter] into a parameterized MediaStore selection, so filtered-out
+ * rows are dropped by MediaProvider and never cross the binder.
+ *
+ * Folder rules become binary range checks on `_data`: everything under `/a/b` sorts
+ * between `/a/b/` and `/a/b0` (`0` follows `/`), which matches [LibraryFilter.isUnder]
+ * exactly and can use an index. Duration and date rules are plain comparisons.
+ *
+ * Extensions go through `LIKE '%.ext'`, which only folds ASCII case. Extensions with
+ * other characters can't be pushed down without dropping rows, so they are left to
+ * [Compiled.residual], a path predicate applied while the cursor is read.
+ */
+object LibraryFilterQuery {
+
+    /**
+     * @property selection SQL to AND into every library query, or null for none
+     * @property selectionArgs Arguments for the `?` placeholders in [selection], in order
+     * @property residual Predicate on the file path for rules SQL can't express, or null
+     */
+    data class Compiled(
+        val selection: String?,
+        val selectionArgs: List<String>,
+        val residual: ((String) -> Boolean)?
+    )
+
+    val NONE = Compiled(selection = null, selectionArgs = emptyList(), residual = null)
+
+    private const val DATA = MediaStore.Audio.Media.DATA
+
+    fun compile(filter: LibraryFilter): Compiled {
+        if (filter.isEmpty) return NONE
+        val clauses = mutableListOf<String>()
+        val args = mutableListOf<String>()
+
+        if (filter.minDurationMs > 0) {
+            clauses += "${MediaStore.Audio.Media.DURATION} >= CAST(? AS INTEGER)"
+            args += filter.minDurationMs.toString()
+        }
+        filter.addedAfter?.let {
+            clauses += "${MediaStore.Audio.Media.DATE_ADDED} >= CAST(? AS INTEGER)"
+            args += it.toString()
+        }
+        filter.addedBefore?.let {
+            clauses += "${MediaStore.Audio.Media.DATE_ADDED} < CAST(? AS INTEGER)"
+            args += it.toString()
+        }
+        if (filter.includedFolders.isNotEmpty()) {
+            clauses += filter.includedFolders.joinToString(" OR ") { folder ->
+                args += folderBounds(folder)
+                "($DATA >= ? AND $DATA < ?)"
+            }
+        }
+        filter.excludedFolders.forEach { folder ->
+            clauses += "NOT ($DATA >= ? AND $DATA < ?)"
+            args += folderBounds(folder)
+        }
+
+        var residual: ((String) -> Boolean)? = null
+        val extensions = filter.normalizedExtensions
+        if (extensions.isNotEmpty()) {
+            if (extensions.all { ext -> ext.all { it.code < 0x80 } }) {
+                clauses += extensions.joinToString(" OR ") { ext ->
+                    args += "%." + escapeLike(ext)
+                    "$DATA LIKE ? ESCAPE '\\'"
+                }
+            } else {
+                residual = { path -> LibraryFilter.extensionOf(path) in extensions }
+            }
+        }
+
+        return Compiled(
+            selection = clauses.takeIf { it.isNotEmpty() }?.joinToString(" AND ") { "($it)" },
+            selectionArgs = args,
+            residual = residual
+        )
+    }
+
+    /**
+     * Lower (inclusive) and upper (exclusive) `_data` bounds of the paths under [folder].
+     */
+    private fun folderBounds(folder: String): List<String> {
+        val base = LibraryFilter.normalizeFolder(folder)
+        return listOf("$base/", "${base}0")
+    }
+
+    private fun escapeLike(value: String): String =
+        value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")
+}
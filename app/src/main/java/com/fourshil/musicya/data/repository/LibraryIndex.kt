@@ -0,0 +1,112 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Song
+import java.util.Locale
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Secondary hash indexes over the cached song list.
+ *
+ * Built once per library load and patched with each [LibraryDelta], so album, artist
+ * and folder lookups cost O(k log k) in the number of matching songs rather than a
+ * filter over the whole library. Results keep library order via the id → position map.
+ *
+ * Reads and patches may come from different threads, so access is guarded by a
+ * read/write lock; lookups only take the read side.
+ */
+class LibraryIndex {
+
+    private val lock = ReentrantReadWriteLock()
+    private val songsById = HashMap<Long, Song>()
+    private val positions = HashMap<Long, Int>()
+    private val byAlbum = HashMap<Long, MutableSet<Long>>()
+    private val byArtist = HashMap<String, MutableSet<Long>>()
+    private val byFolder = HashMap<String, MutableSet<Long>>()
+
+    val size: Int get() = lock.read { songsById.size }
+
+    /**
+     * Replace the index contents with [songs], in library order.
+     */
+    fun rebuild(songs: List<Song>) = lock.write {
+        songsById.clear()
+        positions.clear()
+        byAlbum.clear()
+        byArtist.clear()
+        byFolder.clear()
+        songs.forEachIndexed { position, song ->
+            addLocked(song)
+            positions[song.id] = position
+        }
+    }
+
+    /**
+     * Apply a patch. [ordered] is the full song list after the patch, used to refresh positions.
+     */
+    fun patch(removedIds: Collection<Long>, upserted: List<Song>, ordered: List<Song>) = lock.write {
+        removedIds.forEach { removeLocked(it) }
+        upserted.forEach { song ->
+            removeLocked(song.id)
+            addLocked(song)
+        }
+        // Merging shifts positions; only rewrite entries that actually moved
+        ordered.forEachIndexed { position, song ->
+            if (positions[song.id] != position) positions[song.id] = position
+        }
+    }
+
+    /**
+     * Position of [songId] in the library list, or -1 if it isn't indexed.
+     */
+    fun positionOf(songId: Long): Int = lock.read { positions[songId] ?: -1 }
+
+    fun songById(songId: Long): Song? = lock.read { songsById[songId] }
+
+    fun songsByAlbum(albumId: Long): List<Song> = lock.read { resolveLocked(byAlbum[albumId]) }
+
+    fun songsByArtist(artistName: String): List<Song> = lock.read {
+        resolveLocked(byArtist[normalizeArtist(artistName)])
+    }
+
+    fun songsByFolder(folderPath: String): List<Song> = lock.read { resolveLocked(byFolder[folderPath]) }
+
+    /**
+     * Songs for [songIds], preserving the order of [songIds] and skipping unknown IDs.
+     */
+    fun songsByIds(songIds: List<Long>): List<Song> = lock.read { songIds.mapNotNull { songsById[it] } }
+
+    private fun resolveLocked(ids: Set<Long>?): List<Song> {
+        if (ids.isNullOrEmpty()) return emptyList()
+        return ids.mapNotNull { songsById[it] }.sortedBy { positions[it.id] ?: Int.MAX_VALUE }
+    }
+
+    private fun addLocked(song: Song) {
+        songsById[song.id] = song
+        byAlbum.getOrPut(song.albumId) { HashSet() }.add(song.id)
+        byArtist.getOrPut(normalizeArtist(song.artist)) { HashSet() }.add(song.id)
+        byFolder.getOrPut(folderOf(song.path)) { HashSet() }.add(song.id)
+    }
+
+    private fun removeLocked(songId: Long) {
+        val song = songsById.remove(songId) ?: return
+        positions.remove(songId)
+        byAlbum.removeFrom(song.albumId, songId)
+        byArtist.removeFrom(normalizeArtist(song.artist), songId)
+        byFolder.removeFrom(folderOf(song.path), songId)
+    }
+
+    private fun <K> HashMap<K, MutableSet<Long>>.removeFrom(key: K, songId: Long) {
+        val ids = this[key] ?: return
+        ids.remove(songId)
+        if (ids.isEmpty()) remove(key)
+    }
+
+    companion object {
+        /**
+         * Artist lookups are case-insensitive, matching the old `equals(ignoreCase = true)` filter.
+         */
+        fun normalizeArtist(artist: String): String = artist.trim().lowercase(Locale.ROOT)
+    }
+}
@@ -0,0 +1,273 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.Context
+import android.os.Build
+import android.provider.MediaStore
+import android.util.Log
+import com.fourshil.musicya.data.db.LibraryDao
+import com.fourshil.musicya.data.db.LibrarySong
+import com.fourshil.musicya.data.db.LibrarySyncState
+import com.fourshil.musicya.data.model.SongSortOrder
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "LibraryIndexSync"
+
+/**
+ * Rows changed by a sync.
+ *
+ * @property upserts Rows that were inserted or updated in the index
+ * @property removedIds IDs that were dropped from the index
+ * @property fullRebuild True if the whole index was replaced, so a patch isn't meaningful
+ */
+data class LibraryDelta(
+    val upserts: List<LibrarySong> = emptyList(),
+    val removedIds: List<Long> = emptyList(),
+    val fullRebuild: Boolean = false
+) {
+    val isEmpty: Boolean get() = upserts.isEmpty() && removedIds.isEmpty() && !fullRebuild
+
+    companion object {
+        val NONE = LibraryDelta()
+    }
+}
+
+/**
+ * Keeps the `library_songs` table in step with MediaStore by applying deltas.
+ *
+ * ## Change detection
+ * - API 30+: rows with `GENERATION_MODIFIED` above the stored generation. A MediaStore
+ *   version change (e.g. database rebuilt) invalidates generations and forces a rebuild.
+ * - Older APIs: rows with `DATE_MODIFIED` above the stored watermark.
+ *
+ * Neither mechanism reports deletions, and files copied with an old mtime slip past the
+ * watermark, so every sync also diffs the cheap ID-only projection against the index.
+ *
+ * ## Volumes
+ * Each MediaStore volume (primary storage, SD cards, USB drives) has its own
+ * [LibrarySyncState], and volumes are synced concurrently, at most
+ * [VOLUME_PARALLELISM] at a time. The very first sync reads all volumes through one
+ * title-ordered cursor instead, so its chunks can be shown as they arrive.
+ *
+ * Rows of a volume that gets unmounted stay in the index but are reported as removed,
+ * and [indexedSongs] stops returning them. When the volume comes back its cached rows
+ * are reported as upserts before that volume's own delta is applied on top.
+ */
+@Singleton
+class LibraryIndexSync @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val scanner: MediaStoreScanner,
+    private val libraryDao: LibraryDao
+) {
+
+    private val syncMutex = Mutex()
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val volumeDispatcher = Dispatchers.IO.limitedParallelism(VOLUME_PARALLELISM)
+
+    // Volumes whose rows the last sync reported; null until the first sync in this process
+    @Volatile private var visibleVolumes: Set<String>? = null
+
+    /**
+     * Indexed songs on the visible (mounted) volumes, in library order.
+     */
+    suspend fun indexedSongs(): List<LibrarySong> = libraryDao.getSongsOnVolumes(currentVolumes())
+
+    suspend fun indexedSongIds(): List<Long> = libraryDao.getSongIdsOnVolumes(currentVolumes())
+
+    /**
+     * Volumes whose indexed rows are part of the library: those the last sync reported,
+     * or the mounted ones before the first sync.
+     */
+    fun currentVolumes(): Set<String> = visibleVolumes ?: scanner.mountedVolumes()
+
+    /**
+     * Bring the index up to date with MediaStore.
+     * @param onScanChunk Called with each chunk of rows while a first sync streams them in
+     *   title order; not called for incremental syncs. The index is only written once the
+     *   scan completes.
+     * @return What changed in the visible part of the index, or null if the sync failed
+     *   (e.g. with a SecurityException before the audio permission is granted)
+     */
+    suspend fun sync(
+        onScanChunk: suspend (List<LibrarySong>) -> Unit = {}
+    ): LibraryDelta? = withContext(Dispatchers.IO) {
+        syncMutex.withLock {
+            try {
+                syncLocked(onScanChunk)
+            } catch (e: Exception) {
+                Log.e(TAG, "sync: Failed, keeping existing index", e)
+                null
+            }
+        }
+    }
+
+    /**
+     * Re-read only the given MediaStore rows, e.g. the IDs named by a change notification.
+     * Rows that no longer exist (or no longer pass the music filter) are removed from the index.
+     * Falls back to a full delta sync if the set of mounted volumes changed.
+     * @return What changed in the index
+     */
+    suspend fun syncIds(ids: Set<Long>): LibraryDelta = withContext(Dispatchers.IO) {
+        if (ids.isEmpty()) return@withContext LibraryDelta.NONE
+        syncMutex.withLock {
+            try {
+                // An unmount can name rows that are merely unavailable; let the volume diff handle it
+                if (visibleVolumes != scanner.mountedVolumes()) return@withLock syncLocked {}
+                val rows = scanner.queryRowsByIds(ids)
+                val found = rows.mapTo(HashSet()) { it.id }
+                val removed = ids.filter { it !in found }
+                libraryDao.applyRows(upserts = rows, removedIds = removed, syncedAt = System.currentTimeMillis())
+                LibraryDelta(upserts = rows, removedIds = removed)
+            } catch (e: Exception) {
+                Log.e(TAG, "syncIds: Failed, keeping existing index", e)
+                LibraryDelta.NONE
+            }
+        }
+    }
+
+    private suspend fun syncLocked(onScanChunk: suspend (List<LibrarySong>) -> Unit): LibraryDelta {
+        val mounted = scanner.mountedVolumes()
+        val states = libraryDao.getAllSyncStates().associateBy { it.volumeName }
+
+        if (mounted.none { it in states }) {
+            val delta = rebuildAll(mounted, onScanChunk)
+            visibleVolumes = mounted
+            return delta
+        }
+
+        // Volumes that went away since the last sync drop out; ones that came back are restored from the index
+        val previous = visibleVolumes ?: mounted
+        val unmounted = previous - mounted
+        val remounted = (mounted - previous).filter { it in states }
+        val dropped = if (unmounted.isEmpty()) emptyList() else libraryDao.getSongIdsOnVolumes(unmounted)
+        val restored = if (remounted.isEmpty()) emptyList() else libraryDao.getSongsOnVolumes(remounted)
+
+        val deltas = coroutineScope {
+            mounted.map { volume -> async(volumeDispatcher) { syncVolume(volume, states[volume]) } }.awaitAll()
+        }
+        visibleVolumes = mounted
+        if (unmounted.isNotEmpty() || remounted.isNotEmpty()) {
+            Log.d(TAG, "sync: Volumes unmounted=$unmounted remounted=$remounted")
+        }
+
+        // Later entries win: a volume's fresh delta overrides its restored cache rows
+        val upserts = LinkedHashMap<Long, LibrarySong>()
+        restored.forEach { upserts[it.id] = it }
+        deltas.forEach { delta -> delta.upserts.forEach { upserts[it.id] = it } }
+        val removed = LinkedHashSet<Long>(dropped)
+        deltas.forEach { removed.addAll(it.removedIds) }
+        return LibraryDelta(upserts = upserts.values.toList(), removedIds = removed.toList())
+    }
+
+    /**
+     * First sync: read every mounted volume through one title-ordered cursor.
+     */
+    private suspend fun rebuildAll(
+        volumes: Set<String>,
+        onScanChunk: suspend (List<LibrarySong>) -> Unit
+    ): LibraryDelta {
+        // Read versions before the scan so changes made while it runs are picked up next time
+        val versions = volumes.associateWith { versionOf(it) }
+        val rows = ArrayList<LibrarySong>()
+        scanner.streamRows(SongPageQuery.build(SongSortOrder.TITLE, null).sortOrder).collect { chunk ->
+            rows.addAll(chunk)
+            onScanChunk(chunk)
+        }
+        val byVolume = rows.groupBy { it.volumeName }
+        libraryDao.replaceAll(rows, volumes.map { volume ->
+            newState(volume, versions.getValue(volume), byVolume[volume].orEmpty())
+        })
+        Log.d(TAG, "sync: Full rebuild with ${rows.size} songs on ${volumes.size} volumes")
+        return LibraryDelta(upserts = rows, fullRebuild = true)
+    }
+
+    /**
+     * Bring one volume up to date: rebuild it if it's new or its MediaStore version
+     * changed, otherwise apply the rows changed since its stored generation or watermark.
+     */
+    private suspend fun syncVolume(volume: String, previous: LibrarySyncState?): LibraryDelta {
+        val useGeneration = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+        val (version, generation) = versionOf(volume)
+
+        if (previous == null || (useGeneration && previous.mediaStoreVersion != version)) {
+            val rows = ArrayList<LibrarySong>()
+            scanner.streamRows(volumeName = volume).collect { rows.addAll(it) }
+            val oldIds = libraryDao.getSongIdsOnVolumes(listOf(volume))
+            libraryDao.replaceVolume(rows, newState(volume, version to generation, rows))
+            val newIds = rows.mapTo(HashSet()) { it.id }
+            Log.d(TAG, "sync: Rebuilt volume $volume with ${rows.size} songs")
+            return LibraryDelta(upserts = rows, removedIds = oldIds.filter { it !in newIds })
+        }
+
+        val currentIds = scanner.queryAllIds(volume) ?: return LibraryDelta.NONE
+        val indexedIds = libraryDao.getSongIdsOnVolumes(listOf(volume)).toHashSet()
+
+        val changed = if (useGeneration) {
+            if (generation == previous.generation) emptyList() else scanner.queryRows(
+                "${MediaStore.MediaColumns.GENERATION_MODIFIED} > ?",
+                arrayOf(previous.generation.toString()),
+                volumeName = volume
+            )
+        } else {
+            scanner.queryRows(
+                "${MediaStore.Audio.Media.DATE_MODIFIED} > ?",
+                arrayOf(previous.dateModifiedWatermark.toString()),
+                volumeName = volume
+            )
+        }
+        val changedIds = changed.mapTo(HashSet()) { it.id }
+        val missed = currentIds.filter { it !in indexedIds && it !in changedIds }
+        val upserts = changed + scanner.queryRowsByIds(missed)
+        val removed = indexedIds.filter { it !in currentIds }
+
+        if (upserts.isEmpty() && removed.isEmpty() && generation == previous.generation) {
+            return LibraryDelta.NONE
+        }
+
+        libraryDao.applyDelta(
+            upserts = upserts,
+            removedIds = removed,
+            state = previous.copy(
+                mediaStoreVersion = version,
+                generation = generation,
+                dateModifiedWatermark = maxOf(
+                    previous.dateModifiedWatermark,
+                    upserts.maxOfOrNull { it.dateModified } ?: 0L
+                ),
+                lastSyncedAt = System.currentTimeMillis()
+            )
+        )
+        Log.d(TAG, "sync: $volume applied ${upserts.size} upserts, ${removed.size} removals")
+        return LibraryDelta(upserts = upserts, removedIds = removed)
+    }
+
+    /**
+     * MediaStore version and generation of [volume]; (null, 0) before API 30.
+     */
+    private fun versionOf(volume: String): Pair<String?, Long> {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return null to 0L
+        return MediaStore.getVersion(context, volume) to MediaStore.getGeneration(context, volume)
+    }
+
+    private fun newState(volume: String, version: Pair<String?, Long>, rows: List<LibrarySong>) = LibrarySyncState(
+        volumeName = volume,
+        mediaStoreVersion = version.first,
+        generation = version.second,
+        dateModifiedWatermark = rows.maxOfOrNull { it.dateModified } ?: 0L
+    )
+
+    companion object {
+        /** Volumes synced at once; each holds a cursor and a binder thread in MediaProvider. */
+        const val VOLUME_PARALLELISM = 2
+    }
+}
@@ -0,0 +1,229 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Album
+import com.fourshil.musicya.data.model.Artist
+import com.fourshil.musicya.data.model.Song
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * A page of ranked matches.
+ *
+ * @property items The best matches, best first
+ * @property total Number of matches, including those past [items]
+ */
+data class SearchResults<T>(val items: List<T>, val total: Int) {
+    companion object {
+        private val EMPTY = SearchResults<Nothing>(emptyList(), 0)
+
+        @Suppress("UNCHECKED_CAST")
+        fun <T> empty(): SearchResults<T> = EMPTY as SearchResults<T>
+    }
+}
+
+/**
+ * Every song of a list matching a query, kept so that a longer query containing this one
+ * can be answered by filtering them ([LibrarySearchIndex.narrowSongs]) instead of
+ * searching the library again.
+ *
+ * @property query The folded query
+ * @property total Number of matches, exact
+ */
+class SongMatches internal constructor(
+    val query: String,
+    internal val source: List<Song>,
+    internal val generation: Int,
+    internal val slots: IntArray
+) {
+    val total: Int get() = slots.size
+}
+
+/**
+ * [TrigramIndex]es over the library for substring search.
+ *
+ * Songs are indexed by folded title, artist, album and folder name (in that field
+ * order, which is also the ranking order). The song index follows a song list: [searchSongs]
+ * rebuilds it when handed a list it wasn't built from, and [patch] keeps it in step with
+ * library patches by tombstoning replaced slots and appending new ones. Album and artist
+ * indexes are small and simply rebuilt when their list changes.
+ *
+ * [fuzzySongs] and [fuzzyArtists] look words up in [FuzzyIndex]es instead, allowing
+ * typos. Those are built on first use for each list and never patched: a patch hands out
+ * a new list, and the next fuzzy search rebuilds.
+ *
+ * Reads and patches may come from different threads, so access is guarded by a
+ * read/write lock.
+ */
+class LibrarySearchIndex(private val metadataPool: MetadataPool) {
+
+    private val lock = ReentrantReadWriteLock()
+
+    private var songIndex = TrigramIndex(SONG_FIELDS)
+    private var songSource: List<Song>? = null
+    private val songSlots = ArrayList<Song?>()
+    private val slotsById = HashMap<Long, Int>()
+    /** Bumped whenever song slots change, which invalidates older [SongMatches]. */
+    private var generation = 0
+
+    private var albumIndex: Pair<List<Album>, TrigramIndex>? = null
+    private var artistIndex: Pair<List<Artist>, TrigramIndex>? = null
+    private var fuzzySongIndex: Pair<List<Song>, FuzzyIndex>? = null
+    private var fuzzyArtistIndex: Pair<List<Artist>, FuzzyIndex>? = null
+
+    /**
+     * Songs of [songs] matching [query], which must be non-blank.
+     */
+    fun searchSongs(songs: List<Song>, query: String, limit: Int): SearchResults<Song> {
+        val folded = MetadataPool.fold(query)
+        lock.read {
+            if (songSource === songs) return resolve(songIndex.search(folded, limit))
+        }
+        return lock.write {
+            if (songSource !== songs) rebuildLocked(songs)
+            resolve(songIndex.search(folded, limit))
+        }
+    }
+
+    /**
+     * Every song of [songs] matching [query], which must be non-blank. Slower than
+     * [searchSongs] for common queries, but exact, and the result can be narrowed.
+     */
+    fun matchSongs(songs: List<Song>, query: String): SongMatches {
+        val folded = MetadataPool.fold(query)
+        lock.read {
+            if (songSource === songs) return SongMatches(folded, songs, generation, songIndex.matches(folded))
+        }
+        return lock.write {
+            if (songSource !== songs) rebuildLocked(songs)
+            SongMatches(folded, songs, generation, songIndex.matches(folded))
+        }
+    }
+
+    /**
+     * The songs of [previous] that match [query], or null if [previous] can't answer it:
+     * [query] doesn't contain its query, or it was matched against another song list.
+     */
+    fun narrowSongs(songs: List<Song>, query: String, previous: SongMatches): SongMatches? {
+        val folded = MetadataPool.fold(query)
+        if (previous.source !== songs || !folded.contains(previous.query)) return null
+        return lock.read {
+            if (songSource !== songs || generation != previous.generation) null
+            else SongMatches(folded, songs, generation, songIndex.filter(previous.slots, folded))
+        }
+    }
+
+    /**
+     * The best [limit] of [matches], in [searchSongs] order. Empty if the index has moved
+     * on to another song list since, in which case a new snapshot is on its way.
+     */
+    fun rankSongs(matches: SongMatches, limit: Int): List<Song> = lock.read {
+        if (generation != matches.generation) emptyList()
+        else songIndex.rank(matches.slots, matches.query, limit).mapNotNull { songSlots[it] }
+    }
+
+    fun searchAlbums(albums: List<Album>, query: String, limit: Int): SearchResults<Album> {
+        val folded = MetadataPool.fold(query)
+        val index = lock.write {
+            albumIndex?.takeIf { it.first === albums }?.second
+                ?: TrigramIndex(2).also { index ->
+                    albums.forEach { index.add(arrayOf(metadataPool.searchKey(it.name), metadataPool.searchKey(it.artist))) }
+                    albumIndex = albums to index
+                }
+        }
+        // Album and artist indexes are never modified once built
+        val hits = index.search(folded, limit)
+        return SearchResults(hits.slots.map { albums[it] }, hits.total)
+    }
+
+    fun searchArtists(artists: List<Artist>, query: String, limit: Int): SearchResults<Artist> {
+        val folded = MetadataPool.fold(query)
+        val index = lock.write {
+            artistIndex?.takeIf { it.first === artists }?.second
+                ?: TrigramIndex(1).also { index ->
+                    artists.forEach { index.add(arrayOf(metadataPool.searchKey(it.name))) }
+                    artistIndex = artists to index
+                }
+        }
+        val hits = index.search(folded, limit)
+        return SearchResults(hits.slots.map { artists[it] }, hits.total)
+    }
+
+    /**
+     * Songs of [songs] whose title, artist and album words match every word of [query],
+     * allowing typos, best first.
+     * @param playCount Plays of a song, which lift it among equally good matches
+     */
+    fun fuzzySongs(songs: List<Song>, query: String, limit: Int, playCount: (Song) -> Int): List<Song> {
+        val index = lock.write {
+            fuzzySongIndex?.takeIf { it.first === songs }?.second
+                ?: FuzzyIndex(songs.map { song ->
+                    arrayOf(MetadataPool.fold(song.title), metadataPool.searchKey(song.artist), metadataPool.searchKey(song.album))
+                }).also { fuzzySongIndex = songs to it }
+        }
+        return index.search(MetadataPool.fold(query), limit) { playCount(songs[it]) }.map { songs[it] }
+    }
+
+    fun fuzzyArtists(artists: List<Artist>, query: String, limit: Int, playCount: (Artist) -> Int): List<Artist> {
+        val index = lock.write {
+            fuzzyArtistIndex?.takeIf { it.first === artists }?.second
+                ?: FuzzyIndex(artists.map { arrayOf(metadataPool.searchKey(it.name)) }).also { fuzzyArtistIndex = artists to it }
+        }
+        return index.search(MetadataPool.fold(query), limit) { playCount(artists[it]) }.map { artists[it] }
+    }
+
+    /**
+     * Apply a library patch, if the index was built from the list being patched.
+     * [ordered] is the full song list after the patch.
+     */
+    fun patch(previous: List<Song>, removedIds: Collection<Long>, upserted: List<Song>, ordered: List<Song>) = lock.write {
+        if (songSource !== previous) return@write
+        removedIds.forEach { removeLocked(it) }
+        upserted.forEach { song ->
+            removeLocked(song.id)
+            slotsById[song.id] = songIndex.add(fieldsOf(song))
+            songSlots.add(song)
+        }
+        songSource = ordered
+        generation++
+        // Tombstones slow down every search; start over once they dominate
+        if (songIndex.deadCount > songIndex.slotCount / 2) rebuildLocked(ordered)
+    }
+
+    private fun rebuildLocked(songs: List<Song>) {
+        songIndex = TrigramIndex(SONG_FIELDS)
+        songSlots.clear()
+        slotsById.clear()
+        songSlots.ensureCapacity(songs.size)
+        songs.forEach { song ->
+            slotsById[song.id] = songIndex.add(fieldsOf(song))
+            songSlots.add(song)
+        }
+        songSource = songs
+        generation++
+    }
+
+    private fun removeLocked(songId: Long) {
+        val slot = slotsById.remove(songId) ?: return
+        songIndex.remove(slot)
+        songSlots[slot] = null
+    }
+
+    private fun resolve(hits: TrigramIndex.Hits): SearchResults<Song> =
+        SearchResults(hits.slots.mapNotNull { songSlots[it] }, hits.total)
+
+    private fun fieldsOf(song: Song): Array<String> {
+        val folder = metadataPool.folder(song.path)
+        return arrayOf(
+            MetadataPool.fold(song.title),
+            metadataPool.searchKey(song.artist),
+            metadataPool.searchKey(song.album),
+            // Only the folder's own name; parent directories would match everything under them
+            metadataPool.searchKey(folder.substring(folder.lastIndexOf('/') + 1))
+        )
+    }
+
+    private companion object {
+        const val SONG_FIELDS = 4
+    }
+}
@@ -0,0 +1,36 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Album
+import com.fourshil.musicya.data.model.Artist
+import com.fourshil.musicya.data.model.Folder
+import com.fourshil.musicya.data.model.Song
+
+/**
+ * Immutable view of the library shared by every screen.
+ *
+ * A new snapshot (with a higher [version]) is published whenever the library is loaded
+ * or patched; existing snapshots are never mutated, so holders can keep using one
+ * safely while a newer one is being built.
+ *
+ * @property version Monotonically increasing snapshot number
+ * @property songs All songs in library order. While a first scan streams in, an unloaded
+ *   snapshot holds the rows read so far, already in library order.
+ * @property folders Folders derived from [songs]
+ * @property albums Albums derived from [songs]; see [LibraryAggregates]
+ * @property artists Artists derived from [songs]
+ * @property orderings Sort permutations of [songs]; empty until the snapshot is loaded
+ * @property isLoaded False until the first load completes, or after the cache was cleared
+ */
+data class LibrarySnapshot(
+    val version: Long,
+    val songs: List<Song>,
+    val folders: List<Folder>,
+    val isLoaded: Boolean,
+    val albums: List<Album> = emptyList(),
+    val artists: List<Artist> = emptyList(),
+    val orderings: SongOrderings = SongOrderings.EMPTY
+) {
+    companion object {
+        val EMPTY = LibrarySnapshot(version = 0, songs = emptyList(), folders = emptyList(), isLoaded = false)
+    }
+}
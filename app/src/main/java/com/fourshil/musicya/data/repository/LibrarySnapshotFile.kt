@@ -0,0 +1,237 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.ContentUris
+import android.provider.MediaStore
+import com.fourshil.musicya.data.db.LibrarySyncState
+import com.fourshil.musicya.data.model.Song
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+
+/**
+ * Identifies the library index a snapshot file was written from. A file whose stamp
+ * doesn't match the current index is stale and ignored.
+ *
+ * Every mounted volume's sync state is kept, so a sync of any volume, or mounting or
+ * removing one, also invalidates it.
+ *
+ * @property volumes Sync states of the mounted volumes, sorted by volume name
+ */
+data class SnapshotStamp(
+    val volumes: List<LibrarySyncState>,
+    val rowCount: Int
+) {
+    companion object {
+        /**
+         * Stamp for the index rows of the volumes in [states].
+         */
+        fun of(states: List<LibrarySyncState>, rowCount: Int) = SnapshotStamp(states.sortedBy { it.volumeName }, rowCount)
+    }
+}
+
+/**
+ * Binary library snapshot: fixed-width columns plus a deduplicated string table,
+ * read back through a memory map so a cold start can show songs before any query runs.
+ *
+ * ```
+ * header    64 bytes: magic, format version, row count, string count, volume count,
+ *                     string data offset
+ * volumes   name ref, version ref, generation, watermark, last sync  (32 bytes each)
+ * columns   id, albumId, duration, size, dateAdded   (rowCount x 8 bytes each)
+ *           title, artist, album, folder, fileName   (rowCount x 4-byte string refs)
+ *           year                                     (rowCount x 4 bytes)
+ * strings   offset index (stringCount + 1 ints), then UTF-8 data
+ * ```
+ *
+ * Everything is big-endian. [map] only reads the header and stamp and checks the file
+ * size, so opening costs the same whatever the library size; string refs are checked
+ * as rows are read ([MappedSongList]).
+ */
+internal object LibrarySnapshotFile {
+
+    private const val MAGIC = 0x4D4C5331 // "MLS1"
+    const val FORMAT_VERSION = 3
+    private const val HEADER_SIZE = 64
+    private const val VOLUME_SIZE = 32
+    private const val LONG_COLUMNS = 5
+    private const val INT_COLUMNS = 6
+    private const val NO_STRING = -1
+
+    /**
+     * Encode [songs] (in library order) with [stamp] and write them to [file].
+     */
+    fun write(file: File, songs: List<Song>, stamp: SnapshotStamp) {
+        val rows = songs.size
+        val pool = LinkedHashMap<String, Int>()
+        fun ref(value: String) = pool.getOrPut(value) { pool.size }
+
+        val volumeRefs = stamp.volumes.map { ref(it.volumeName) to (it.mediaStoreVersion?.let { v -> ref(v) } ?: NO_STRING) }
+        val intColumns = Array(INT_COLUMNS) { IntArray(rows) }
+        songs.forEachIndexed { row, song ->
+            val separator = song.path.lastIndexOf('/')
+            intColumns[0][row] = ref(song.title)
+            intColumns[1][row] = ref(song.artist)
+            intColumns[2][row] = ref(song.album)
+            intColumns[3][row] = ref(if (separator > 0) song.path.substring(0, separator) else "")
+            intColumns[4][row] = ref(if (separator > 0) song.path.substring(separator + 1) else song.path)
+            intColumns[5][row] = song.year
+        }
+        val encoded = pool.keys.map { it.toByteArray(Charsets.UTF_8) }
+
+        val columnsStart = columnsStart(stamp.volumes.size)
+        val stringIndexOffset = columnsStart + rows.toLong() * (LONG_COLUMNS * 8 + INT_COLUMNS * 4)
+        val stringDataOffset = stringIndexOffset + (encoded.size + 1) * 4L
+        val totalSize = stringDataOffset + encoded.sumOf { it.size.toLong() }
+        if (totalSize > Int.MAX_VALUE) throw IOException("Snapshot too large: $totalSize bytes")
+
+        val buffer = ByteBuffer.allocate(totalSize.toInt()).order(ByteOrder.BIG_ENDIAN)
+        buffer.putInt(MAGIC)
+        buffer.putInt(FORMAT_VERSION)
+        buffer.putInt(rows)
+        buffer.putInt(encoded.size)
+        buffer.putInt(stamp.volumes.size)
+        buffer.putInt(0) // reserved
+        buffer.putLong(stringDataOffset)
+        buffer.position(HEADER_SIZE)
+        stamp.volumes.forEachIndexed { i, volume ->
+            buffer.putInt(volumeRefs[i].first)
+            buffer.putInt(volumeRefs[i].second)
+            buffer.putLong(volume.generation)
+            buffer.putLong(volume.dateModifiedWatermark)
+            buffer.putLong(volume.lastSyncedAt)
+        }
+        songs.forEach { buffer.putLong(it.id) }
+        songs.forEach { buffer.putLong(it.albumId) }
+        songs.forEach { buffer.putLong(it.duration) }
+        songs.forEach { buffer.putLong(it.size) }
+        songs.forEach { buffer.putLong(it.dateAdded) }
+        intColumns.forEach { column -> column.forEach { buffer.putInt(it) } }
+        var offset = 0
+        encoded.forEach { bytes ->
+            buffer.putInt(offset)
+            offset += bytes.size
+        }
+        buffer.putInt(offset)
+        encoded.forEach { buffer.put(it) }
+
+        // Write to a temp file and rename, so readers never see a half-written snapshot
+        val temp = File(file.parentFile, "${file.name}.tmp")
+        temp.writeBytes(buffer.array())
+        if (!temp.renameTo(file)) {
+            temp.delete()
+            throw IOException("Could not replace ${file.name}")
+        }
+    }
+
+    /**
+     * Map [file] read-only and validate it against [expected].
+     * @return The mapped songs, or null if the file is missing, corrupt or stale
+     */
+    fun map(file: File, expected: SnapshotStamp): MappedSongList? {
+        if (!file.exists() || file.length() < HEADER_SIZE) return null
+        val buffer = RandomAccessFile(file, "r").use { raf ->
+            raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+        }.order(ByteOrder.BIG_ENDIAN)
+        val size = buffer.capacity().toLong()
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) return null
+        val rows = buffer.getInt(8)
+        val strings = buffer.getInt(12)
+        val volumes = buffer.getInt(16)
+        if (rows < 0 || strings < 0 || volumes < 0) return null
+        val columnsStart = columnsStart(volumes)
+        val stringIndexOffset = columnsStart + rows.toLong() * (LONG_COLUMNS * 8 + INT_COLUMNS * 4)
+        val stringDataOffset = buffer.getLong(24)
+        if (stringDataOffset != stringIndexOffset + (strings + 1) * 4L || stringDataOffset > size) return null
+        // The last string offset is the length of the string data, which runs to the end of the file
+        if (stringDataOffset + buffer.getInt(stringDataOffset.toInt() - 4) != size) return null
+
+        val mapped = MappedSongList(buffer, rows, strings, columnsStart.toInt(), stringIndexOffset.toInt(), stringDataOffset.toInt())
+        val states = List(volumes) { i ->
+            val at = HEADER_SIZE + i * VOLUME_SIZE
+            val versionRef = buffer.getInt(at + 4)
+            LibrarySyncState(
+                volumeName = mapped.stringOrNull(buffer.getInt(at)) ?: return null,
+                mediaStoreVersion = if (versionRef == NO_STRING) null else mapped.stringOrNull(versionRef) ?: return null,
+                generation = buffer.getLong(at + 8),
+                dateModifiedWatermark = buffer.getLong(at + 16),
+                lastSyncedAt = buffer.getLong(at + 24)
+            )
+        }
+        return if (SnapshotStamp(states, rows) == expected) mapped else null
+    }
+
+    private fun columnsStart(volumes: Int): Long = HEADER_SIZE + volumes.toLong() * VOLUME_SIZE
+}
+
+/**
+ * Read-only [List] view over a mapped snapshot. Each `get` builds a [Song] from the
+ * columns; decoded strings are cached per string-table entry, so repeated artists
+ * and albums share one instance.
+ *
+ * [LibrarySnapshotFile.map] has only checked that the columns fit in the file, so string
+ * refs and offsets are checked here as they're read. One that points anywhere else reads
+ * as an empty string rather than failing: these rows are only shown until the library
+ * load replaces them, and that load writes a fresh snapshot.
+ */
+internal class MappedSongList(
+    private val buffer: ByteBuffer,
+    private val rows: Int,
+    private val strings: Int,
+    private val columnsStart: Int,
+    private val stringIndexOffset: Int,
+    private val stringDataOffset: Int
+) : AbstractList<Song>() {
+
+    private val decoded = arrayOfNulls<String>(strings)
+    private val stringDataSize = buffer.capacity() - stringDataOffset
+
+    override val size: Int get() = rows
+
+    override fun get(index: Int): Song {
+        if (index !in 0 until rows) throw IndexOutOfBoundsException("Row $index of $rows")
+        val id = longAt(0, index)
+        val folder = string(intAt(3, index))
+        val fileName = string(intAt(4, index))
+        return Song(
+            id = id,
+            title = string(intAt(0, index)),
+            artist = string(intAt(1, index)),
+            album = string(intAt(2, index)),
+            albumId = longAt(1, index),
+            duration = longAt(2, index),
+            uri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id),
+            path = if (folder.isEmpty()) fileName else "$folder/$fileName",
+            dateAdded = longAt(4, index),
+            size = longAt(3, index),
+            year = intAt(5, index)
+        )
+    }
+
+    // Column layout must match LibrarySnapshotFile.write: five long columns, then six int
+    // columns of which the first five are string refs
+    private fun longAt(column: Int, row: Int): Long =
+        buffer.getLong(columnsStart + (column * rows + row) * 8)
+
+    private fun intAt(column: Int, row: Int): Int =
+        buffer.getInt(columnsStart + 5 * rows * 8 + (column * rows + row) * 4)
+
+    private fun string(ref: Int): String = stringOrNull(ref) ?: ""
+
+    /**
+     * String-table entry [ref], or null if the ref or its offsets are out of bounds.
+     */
+    fun stringOrNull(ref: Int): String? {
+        if (ref !in 0 until strings) return null
+        decoded[ref]?.let { return it }
+        val start = buffer.getInt(stringIndexOffset + ref * 4)
+        val end = buffer.getInt(stringIndexOffset + (ref + 1) * 4)
+        if (start < 0 || end < start || end > stringDataSize) return null
+        val bytes = ByteArray(end - start)
+        buffer.duplicate().apply { position(stringDataOffset + start) }.get(bytes)
+        return String(bytes, Charsets.UTF_8).also { decoded[ref] = it }
+    }
+}
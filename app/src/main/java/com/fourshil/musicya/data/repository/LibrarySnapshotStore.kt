@@ -0,0 +1,79 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.Context
+import android.util.Log
+import com.fourshil.musicya.data.db.LibraryDao
+import com.fourshil.musicya.data.model.Song
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.File
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "LibrarySnapshotStore"
+
+/**
+ * Persists the last loaded library as a [LibrarySnapshotFile] so the next cold start
+ * can show songs straight from a memory map, before the index is read or synced.
+ *
+ * Each file is stamped with the sync state and row count of the mounted volumes. [read] only returns
+ * songs while that stamp still matches the index; a stale, corrupt or unreadable file
+ * is deleted and the caller falls back to a normal load.
+ */
+@Singleton
+class LibrarySnapshotStore @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val libraryDao: LibraryDao,
+    private val scanner: MediaStoreScanner
+) {
+
+    private val file: File get() = File(context.noBackupFilesDir, FILE_NAME)
+
+    /**
+     * Map the persisted snapshot if it still matches the library index.
+     * @return Songs in library order, or null if there's nothing trustworthy on disk
+     */
+    suspend fun read(): List<Song>? {
+        val target = file
+        if (!target.exists()) return null
+        return try {
+            val songs = currentStamp()?.let { LibrarySnapshotFile.map(target, it) }
+            if (songs == null) {
+                Log.d(TAG, "read: Discarding stale or corrupt snapshot")
+                target.delete()
+            }
+            songs
+        } catch (e: Exception) {
+            Log.e(TAG, "read: Error mapping snapshot", e)
+            target.delete()
+            null
+        }
+    }
+
+    /**
+     * Persist [songs], which must mirror the current contents of the library index.
+     */
+    suspend fun write(songs: List<Song>) {
+        try {
+            val stamp = currentStamp() ?: return
+            // The index moved on since these songs were published; the next write will catch up
+            if (stamp.rowCount != songs.size) return
+            LibrarySnapshotFile.write(file, songs, stamp)
+        } catch (e: Exception) {
+            Log.e(TAG, "write: Error writing snapshot", e)
+        }
+    }
+
+    /**
+     * Stamp of the index as it stands for the mounted volumes, or null before the first sync.
+     */
+    private suspend fun currentStamp(): SnapshotStamp? {
+        val volumes = scanner.mountedVolumes()
+        val states = libraryDao.getAllSyncStates().filter { it.volumeName in volumes }
+        if (states.isEmpty()) return null
+        return SnapshotStamp.of(states, libraryDao.getSongCountOnVolumes(volumes))
+    }
+
+    companion object {
+        private const val FILE_NAME = "library.snapshot"
+    }
+}
@@ -0,0 +1,135 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.database.ContentObserver
+import android.net.Uri
+import android.provider.MediaStore
+import androidx.core.content.ContextCompat
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.launch
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * A debounced batch of MediaStore audio notifications.
+ *
+ * @property ids MediaStore IDs named by the notifications
+ * @property unresolved True if any notification didn't name a row (e.g. a bulk scan),
+ *   in which case the caller has to fall back to a delta sync
+ */
+data class MediaStoreChange(
+    val ids: Set<Long>,
+    val unresolved: Boolean
+)
+
+/**
+ * Observes [MediaStore.Audio.Media.EXTERNAL_CONTENT_URI] and batches notifications.
+ *
+ * The audio URI of every mounted volume is observed as well, and volume mount/unmount
+ * broadcasts are reported as unresolved changes so the caller re-syncs which volumes
+ * are visible. Volumes mounted later are observed from their mount broadcast on.
+ *
+ * MediaStore fires one notification per row while a download or scan is in progress,
+ * so notifications are collected until [QUIET_PERIOD_MS] passes without a new one
+ * (capped at [MAX_BATCH_WAIT_MS]) and then emitted as a single [MediaStoreChange].
+ * On API 30+ the per-URI overload delivers every affected row in one callback.
+ */
+@Singleton
+class MediaStoreObserver @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val scanner: MediaStoreScanner
+) {
+
+    /**
+     * Cold flow of change batches. The observer is registered while the flow is collected.
+     */
+    fun changes(): Flow<MediaStoreChange> = channelFlow {
+        val pending = Channel<Uri>(Channel.UNLIMITED)
+        val observer = object : ContentObserver(null) {
+            override fun onChange(selfChange: Boolean, uris: Collection<Uri>, flags: Int) {
+                uris.forEach { onChange(selfChange, it) }
+            }
+
+            override fun onChange(selfChange: Boolean, uri: Uri?) {
+                pending.trySend(uri ?: MediaStore.Audio.Media.EXTERNAL_CONTENT_URI)
+            }
+        }
+        val observed = HashSet<Uri>()
+        fun observeVolumes() {
+            val uris = listOf(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI) +
+                scanner.mountedVolumes().map { MediaStore.Audio.Media.getContentUri(it) }
+            synchronized(observed) {
+                uris.filter { observed.add(it) }.forEach {
+                    context.contentResolver.registerContentObserver(it, true, observer)
+                }
+            }
+        }
+        observeVolumes()
+
+        val volumeReceiver = object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                observeVolumes()
+                // No row to name: forces a delta sync, which notices the volume change
+                pending.trySend(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI)
+            }
+        }
+        ContextCompat.registerReceiver(
+            context,
+            volumeReceiver,
+            IntentFilter().apply {
+                addAction(Intent.ACTION_MEDIA_MOUNTED)
+                addAction(Intent.ACTION_MEDIA_UNMOUNTED)
+                addAction(Intent.ACTION_MEDIA_EJECT)
+                addAction(Intent.ACTION_MEDIA_REMOVED)
+                addAction(Intent.ACTION_MEDIA_BAD_REMOVAL)
+                addDataScheme("file")
+            },
+            ContextCompat.RECEIVER_NOT_EXPORTED
+        )
+
+        launch {
+            while (true) {
+                val ids = HashSet<Long>()
+                var unresolved = false
+                fun add(uri: Uri) {
+                    val id = uri.lastPathSegment?.toLongOrNull()
+                    if (id != null) ids.add(id) else unresolved = true
+                }
+
+                add(pending.receive())
+                val deadline = System.currentTimeMillis() + MAX_BATCH_WAIT_MS
+                // Drain until the stream goes quiet, rather than racing a timeout against receive()
+                while (System.currentTimeMillis() < deadline) {
+                    delay(QUIET_PERIOD_MS)
+                    var drained = false
+                    while (true) {
+                        val next = pending.tryReceive().getOrNull() ?: break
+                        add(next)
+                        drained = true
+                    }
+                    if (!drained) break
+                }
+                send(MediaStoreChange(ids, unresolved))
+            }
+        }
+
+        awaitClose {
+            context.unregisterReceiver(volumeReceiver)
+            context.contentResolver.unregisterContentObserver(observer)
+            pending.close()
+        }
+    }
+
+    companion object {
+        const val QUIET_PERIOD_MS = 500L
+        const val MAX_BATCH_WAIT_MS = 3_000L
+    }
+}
@@ -0,0 +1,294 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.ContentResolver
+import android.content.Context
+import android.database.Cursor
+import android.os.Build
+import android.os.Bundle
+import android.provider.MediaStore
+import android.util.Log
+import com.fourshil.musicya.data.db.LibraryDao
+import com.fourshil.musicya.data.db.LibrarySong
+import com.fourshil.musicya.data.model.LibraryFilter
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "MediaStoreScanner"
+
+/**
+ * Thin wrapper around the MediaStore audio cursor.
+ *
+ * Knows the projection and row mapping used by the library index, and nothing else.
+ * Every query is restricted to [MUSIC_SELECTION]; callers add their own delta predicates.
+ * Errors are logged and surface as empty results, matching [MusicRepository].
+ *
+ * Queries take an optional volume name. Without one they go to the `external` view,
+ * which on API 29+ spans every mounted external volume.
+ *
+ * The active [LibraryFilter] is compiled by [LibraryFilterQuery] and ANDed into every
+ * selection; its residual predicate, if any, runs on each row's path as the cursor is
+ * read, before the row is mapped.
+ */
+@Singleton
+class MediaStoreScanner @Inject constructor(
+    @ApplicationContext private val context: Context
+) {
+
+    @Volatile private var filter = LibraryFilter.NONE
+    @Volatile private var compiledFilter = LibraryFilterQuery.NONE
+
+    /**
+     * Apply [filter] to every query from now on.
+     * @return True if it differs from the previous filter, meaning the index needs a sync
+     */
+    fun setFilter(filter: LibraryFilter): Boolean {
+        if (filter == this.filter) return false
+        compiledFilter = LibraryFilterQuery.compile(filter)
+        this.filter = filter
+        return true
+    }
+
+    /**
+     * MediaStore volumes currently mounted: the primary storage plus any SD cards or
+     * USB drives on API 29+, or just `external` before that.
+     */
+    fun mountedVolumes(): Set<String> {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return setOf(MediaStore.VOLUME_EXTERNAL)
+        return try {
+            MediaStore.getExternalVolumeNames(context).ifEmpty { setOf(MediaStore.VOLUME_EXTERNAL) }
+        } catch (e: Exception) {
+            Log.e(TAG, "mountedVolumes: Error listing volumes", e)
+            setOf(MediaStore.VOLUME_EXTERNAL)
+        }
+    }
+
+    /**
+     * Query audio rows matching [selection] (ANDed with [MUSIC_SELECTION] and the filter).
+     *
+     * @param sortOrder SQL ORDER BY clause, or null for provider order
+     * @param limit maximum number of rows, or null for all of them. With a residual
+     *   filter the limit is applied while reading instead, so rejected rows don't
+     *   shorten the result
+     * @param volumeName Volume to query, or null for all external volumes
+     */
+    fun queryRows(
+        selection: String? = null,
+        selectionArgs: Array<String>? = null,
+        sortOrder: String? = null,
+        limit: Int? = null,
+        volumeName: String? = null
+    ): List<LibrarySong> {
+        val rows = mutableListOf<LibrarySong>()
+        val compiled = compiledFilter
+        val fullSelection = selectionWith(compiled, selection)
+        val fullArgs = argsWith(compiled, selectionArgs)
+        val sqlLimit = if (compiled.residual == null) limit else null
+        try {
+            val cursor = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                val queryArgs = Bundle().apply {
+                    putString(ContentResolver.QUERY_ARG_SQL_SELECTION, fullSelection)
+                    putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, fullArgs)
+                    sortOrder?.let { putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, it) }
+                    sqlLimit?.let { putInt(ContentResolver.QUERY_ARG_LIMIT, it) }
+                }
+                context.contentResolver.query(
+                    contentUri(volumeName),
+                    PROJECTION,
+                    queryArgs,
+                    null
+                )
+            } else {
+                // Pre-Q providers pass the sort order straight into SQL, so LIMIT rides along on it
+                val legacySortOrder = when {
+                    sqlLimit == null -> sortOrder
+                    sortOrder == null -> "${MediaStore.Audio.Media._ID} ASC LIMIT $sqlLimit"
+                    else -> "$sortOrder LIMIT $sqlLimit"
+                }
+                context.contentResolver.query(
+                    contentUri(volumeName),
+                    PROJECTION,
+                    fullSelection,
+                    fullArgs,
+                    legacySortOrder
+                )
+            }
+            cursor?.use {
+                val columns = Columns(it)
+                while ((limit == null || rows.size < limit) && it.moveToNext()) {
+                    columns.readAccepted(it, compiled.residual)?.let { row -> rows.add(row) }
+                }
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "queryRows: Error querying MediaStore", e)
+        }
+        return rows
+    }
+
+    /**
+     * Stream all music rows in [sortOrder] as they are read off the cursor.
+     *
+     * Emits disjoint chunks: the first [firstChunk] rows as soon as they are read, then
+     * chunks that double in size, so a large library reaches the UI in O(log n) emissions
+     * without waiting for the cursor to be exhausted. Unlike [queryRows], errors are
+     * thrown so a partial scan is never mistaken for the whole library.
+     */
+    fun streamRows(
+        sortOrder: String? = null,
+        firstChunk: Int = FIRST_CHUNK,
+        volumeName: String? = null
+    ): Flow<List<LibrarySong>> = flow {
+        val compiled = compiledFilter
+        val cursor = context.contentResolver.query(
+            contentUri(volumeName),
+            PROJECTION,
+            selectionWith(compiled, null),
+            argsWith(compiled, null),
+            sortOrder
+        ) ?: throw IllegalStateException("MediaStore returned no cursor")
+        cursor.use {
+            val columns = Columns(it)
+            var chunkSize = firstChunk
+            var chunk = ArrayList<LibrarySong>(chunkSize)
+            while (it.moveToNext()) {
+                chunk.add(columns.readAccepted(it, compiled.residual) ?: continue)
+                if (chunk.size == chunkSize) {
+                    emit(chunk)
+                    chunkSize *= 2
+                    chunk = ArrayList(chunkSize)
+                }
+            }
+            if (chunk.isNotEmpty()) emit(chunk)
+        }
+    }.flowOn(Dispatchers.IO)
+
+    /**
+     * Query audio rows by ID, chunked to stay under SQLite's bind variable limit.
+     */
+    fun queryRowsByIds(ids: Collection<Long>): List<LibrarySong> {
+        if (ids.isEmpty()) return emptyList()
+        return ids.chunked(LibraryDao.MAX_BIND_ARGS).flatMap { chunk ->
+            val placeholders = chunk.joinToString(",") { "?" }
+            queryRows(
+                "${MediaStore.Audio.Media._ID} IN ($placeholders)",
+                chunk.map { it.toString() }.toTypedArray()
+            )
+        }
+    }
+
+    /**
+     * Query only the IDs of all music rows. Cheap enough to run on every sync for delete detection.
+     * @return IDs, or null if the query failed (so callers don't mistake an error for an empty library)
+     */
+    fun queryAllIds(volumeName: String? = null): Set<Long>? {
+        val compiled = compiledFilter
+        val residual = compiled.residual
+        // The residual needs the path; without one the ID-only projection is enough
+        val projection = if (residual == null) arrayOf(MediaStore.Audio.Media._ID)
+            else arrayOf(MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATA)
+        return try {
+            context.contentResolver.query(
+                contentUri(volumeName),
+                projection,
+                selectionWith(compiled, null),
+                argsWith(compiled, null),
+                null
+            )?.use { cursor ->
+                val ids = HashSet<Long>(cursor.count * 2)
+                val idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
+                val dataCol = cursor.getColumnIndex(MediaStore.Audio.Media.DATA)
+                while (cursor.moveToNext()) {
+                    if (residual != null && !residual(cursor.getString(dataCol) ?: "")) continue
+                    ids.add(cursor.getLong(idCol))
+                }
+                ids
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "queryAllIds: Error querying MediaStore", e)
+            null
+        }
+    }
+
+    private fun selectionWith(compiled: LibraryFilterQuery.Compiled, selection: String?): String =
+        listOfNotNull(MUSIC_SELECTION, compiled.selection, selection).joinToString(" AND ") { "($it)" }
+
+    private fun argsWith(compiled: LibraryFilterQuery.Compiled, selectionArgs: Array<String>?): Array<String>? {
+        if (compiled.selectionArgs.isEmpty()) return selectionArgs
+        return (compiled.selectionArgs + selectionArgs.orEmpty()).toTypedArray()
+    }
+
+    private fun contentUri(volumeName: String?) =
+        if (volumeName == null) MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
+        else MediaStore.Audio.Media.getContentUri(volumeName)
+
+    /**
+     * Resolved column indices for [PROJECTION], looked up once per cursor.
+     */
+    private class Columns(cursor: Cursor) {
+        private val id = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
+        private val title = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE)
+        private val artist = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST)
+        private val album = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM)
+        private val albumId = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID)
+        private val duration = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION)
+        private val data = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA)
+        private val dateAdded = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED)
+        private val dateModified = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_MODIFIED)
+        private val size = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.SIZE)
+        private val year = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.YEAR)
+        // Only projected on API 29+ and 30+ respectively
+        private val volume = cursor.getColumnIndex(MediaStore.MediaColumns.VOLUME_NAME)
+        private val genre = cursor.getColumnIndex(MediaStore.Audio.AudioColumns.GENRE)
+
+        /**
+         * Map the current row, or return null if [residual] rejects its path.
+         */
+        fun readAccepted(cursor: Cursor, residual: ((String) -> Boolean)?): LibrarySong? {
+            if (residual != null && !residual(cursor.getString(data) ?: "")) return null
+            return read(cursor)
+        }
+
+        fun read(cursor: Cursor) = LibrarySong(
+            id = cursor.getLong(id),
+            title = cursor.getString(title) ?: "Unknown",
+            artist = cursor.getString(artist) ?: "Unknown Artist",
+            album = cursor.getString(album) ?: "Unknown Album",
+            albumId = cursor.getLong(albumId),
+            duration = cursor.getLong(duration),
+            path = cursor.getString(data) ?: "",
+            dateAdded = cursor.getLong(dateAdded),
+            dateModified = cursor.getLong(dateModified),
+            size = cursor.getLong(size),
+            year = cursor.getInt(year),
+            genre = (if (genre >= 0) cursor.getString(genre) else null) ?: "",
+            volumeName = (if (volume >= 0) cursor.getString(volume) else null) ?: MediaStore.VOLUME_EXTERNAL
+        )
+    }
+
+    companion object {
+        const val MUSIC_SELECTION = "${MediaStore.Audio.Media.IS_MUSIC} != 0"
+
+        /** Rows in the first [streamRows] chunk; roughly one screen plus scroll-ahead. */
+        const val FIRST_CHUNK = 100
+
+        private val PROJECTION = listOfNotNull(
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.DATE_ADDED,
+            MediaStore.Audio.Media.DATE_MODIFIED,
+            MediaStore.Audio.Media.SIZE,
+            MediaStore.Audio.Media.YEAR,
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) MediaStore.MediaColumns.VOLUME_NAME else null,
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) MediaStore.Audio.AudioColumns.GENRE else null
+        ).toTypedArray()
+    }
+}
@@ -0,0 +1,91 @@
+package com.fourshil.musicya.data.repository
+
+import java.text.CollationKey
+import java.text.Collator
+import java.text.Normalizer
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Scan-time pool for repeated metadata strings (artists, albums, folders).
+ *
+ * Every cursor row hands out its own String instances, so a 12-track album holds 12
+ * copies of its album and artist names. [intern] maps equal values to one canonical
+ * instance, and [entry] keeps normalized forms computed once per distinct value:
+ * lowercase, diacritic-folded (for search) and a [CollationKey] (for sort).
+ *
+ * Distinct metadata values are bounded by library size, so entries are never evicted.
+ * Safe to use from multiple threads.
+ */
+@Singleton
+class MetadataPool @Inject constructor() {
+
+    /**
+     * A distinct metadata value with its normalized forms.
+     *
+     * @property value The canonical instance
+     * @property lowercase [value] lowercased in the root locale
+     * @property folded [lowercase] with diacritics stripped; what search matches against
+     */
+    class Entry internal constructor(val value: String, private val collator: Collator) {
+        val lowercase: String = value.lowercase(Locale.ROOT)
+        val folded: String = foldLowercase(lowercase)
+
+        @Volatile private var key: CollationKey? = null
+
+        /**
+         * Locale-aware sort key, computed on first use since not every value gets sorted.
+         */
+        val collationKey: CollationKey
+            get() = key ?: synchronized(collator) { collator.getCollationKey(value) }.also { key = it }
+    }
+
+    // Collator instances aren't thread-safe; every use goes through synchronized(collator)
+    private val collator: Collator = Collator.getInstance().apply { strength = Collator.SECONDARY }
+    private val entries = ConcurrentHashMap<String, Entry>()
+
+    val size: Int get() = entries.size
+
+    fun entry(value: String): Entry = entries[value] ?: entries.computeIfAbsent(value) { Entry(it, collator) }
+
+    /**
+     * The canonical instance equal to [value].
+     */
+    fun intern(value: String): String = entry(value).value
+
+    /**
+     * Interned parent folder of [path]; see [folderOf].
+     */
+    fun folder(path: String): String = intern(folderOf(path))
+
+    /**
+     * Cached diacritic-folded form of [value], for matching against [fold]ed queries.
+     */
+    fun searchKey(value: String): String = entry(value).folded
+
+    fun collationKey(value: String): CollationKey = entry(value).collationKey
+
+    /**
+     * Sort key for a high-cardinality value such as a title, computed with the pool's
+     * collator but without adding an entry for [value].
+     */
+    fun unpooledCollationKey(value: String): CollationKey = synchronized(collator) { collator.getCollationKey(value) }
+
+    companion object {
+        private val COMBINING_MARKS = Regex("\\p{Mn}+")
+
+        /**
+         * Lowercase and strip diacritics, e.g. "Beyoncé" -> "beyonce". Use for one-off
+         * values such as a search query or a title; pooled values should use [searchKey].
+         */
+        fun fold(value: String): String = foldLowercase(value.lowercase(Locale.ROOT))
+
+        private fun foldLowercase(lower: String): String {
+            // Plain ASCII has nothing to decompose
+            if (lower.all { it.code < 0x80 }) return lower
+            return COMBINING_MARKS.replace(Normalizer.normalize(lower, Normalizer.Form.NFD), "")
+        }
+    }
+}
@@ -1,16 +1,47 @@
 package com.fourshil.musicya.data.repository
 
-import android.content.ContentResolver
+import android.content.ContentProviderOperation
 import android.content.ContentUris
 import android.content.Context
-import android.os.Bundle
+import android.content.IntentSender
+import android.net.Uri
+import android.os.Build
 import android.provider.MediaStore
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.map
+import com.fourshil.musicya.data.SettingsPreferences
+import com.fourshil.musicya.data.db.LibraryDao
+import com.fourshil.musicya.data.db.LibrarySearchHit
+import com.fourshil.musicya.data.db.LibrarySong
 import com.fourshil.musicya.data.model.Album
 import com.fourshil.musicya.data.model.Artist
 import com.fourshil.musicya.data.model.Folder
 import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.model.SongSortOrder
 import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.transformWhile
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import android.util.Log
 import javax.inject.Inject
@@ -18,20 +49,61 @@ import javax.inject.Singleton
 
 private const val TAG = "MusicRepository"
 
+/** Deletes sent to MediaStore per `applyBatch` call. */
+private const val DELETE_BATCH_SIZE = 100
+
+/** Rows per page of full-text search results. */
+private const val FULL_TEXT_PAGE_SIZE = 50
+
+/** Quiet period before the library snapshot file is rewritten. */
+private const val SNAPSHOT_WRITE_DELAY_MS = 2_000L
+
 /**
  * Repository for accessing music files from the device's MediaStore.
  * 
  * Provides a clean abstraction over Android's MediaStore API for querying
  * songs, albums, artists, and folders. Implements caching to minimize
- * redundant queries and supports pagination for large libraries.
+ * redundant queries and supports keyset pagination for large libraries.
  *
  * ## Thread Safety
  * All public methods are suspend functions that run on [Dispatchers.IO].
- * Safe to call from any coroutine context.
+ * Safe to call from any coroutine context. Library loads are single-flight: concurrent
+ * callers share one in-flight load and receive the same immutable [LibrarySnapshot].
+ *
+ * ## Library Index
+ * Songs are served from the persistent `library_songs` table rather than a raw
+ * MediaStore cursor. [LibraryIndexSync] applies only the rows that changed since the
+ * last sync, so a cold start reads the local index instead of rescanning the device.
+ * Every mounted MediaStore volume (internal storage, SD cards, USB drives) is indexed;
+ * songs on an unmounted volume drop out of the snapshot and return from the index when
+ * it's mounted again.
  *
  * ## Caching
- * Songs are cached after the first load. Call [clearCache] to force a refresh.
- * Other collections (albums, artists, folders) are derived from the songs cache.
+ * The loaded library is published as a versioned [LibrarySnapshot] on [library].
+ * Once loaded, a [MediaStoreObserver] feeds debounced change batches back into the
+ * index, and a patched snapshot is published rather than reloading. Each patch is
+ * also described on [libraryChanges].
+ * [clearCache] still forces a full reload; [refresh] applies a delta sync instead.
+ * Albums, artists and folders are derived from the songs and published in the same snapshot,
+ * along with [SongOrderings] holding a sort permutation per [SongSortOrder].
+ * Album, artist, folder and ID lookups go through a [LibraryIndex] built alongside it,
+ * and nested folder browsing through a [FolderTree] patched the same way.
+ * Substring search goes through a [LibrarySearchIndex], built on first search and then
+ * patched alongside. Word and phrase search over every indexed field, lyrics included,
+ * runs in SQLite against the `library_search` FTS4 table that [LibraryDao] keeps in step
+ * with the index, so it pages through any number of matches without loading them.
+ *
+ * ## Cold Start
+ * Each loaded or patched snapshot is also written (debounced) to a [LibrarySnapshotStore].
+ * On the next launch the songs are mapped straight from that file and published as an
+ * unloaded snapshot before the index is read, so the first page renders without a query.
+ * The file is only used while it matches the index; otherwise the load proceeds as usual.
+ *
+ * ## Library Filter
+ * The folder, duration, extension and date rules from [SettingsPreferences.libraryFilter]
+ * are pushed into the scanner's MediaStore selections, so excluded rows never reach the
+ * index. Changing the filter runs a delta sync, which drops newly excluded rows and picks
+ * up newly included ones.
  *
  * ## Error Handling
  * All MediaStore queries are wrapped in try-catch. On error, empty lists are
@@ -39,364 +111,688 @@ private const val TAG = "MusicRepository"
  * or corrupted media databases.
  *
  * @property context Application context for ContentResolver access
+ * @property libraryDao Persistent library index
+ * @property indexSync Delta sync between MediaStore and the library index
+ * @property mediaStoreObserver Source of MediaStore change notifications
+ * @property scanner MediaStore cursor access for paged queries
+ * @property metadataPool Interned artist/album/folder strings and their normalized forms
+ * @property snapshotStore Persisted binary copy of the last loaded library
+ * @property settings Source of the user's [com.fourshil.musicya.data.model.LibraryFilter]
  */
 @Singleton
 class MusicRepository @Inject constructor(
-    @ApplicationContext private val context: Context
+    @ApplicationContext private val context: Context,
+    private val libraryDao: LibraryDao,
+    private val indexSync: LibraryIndexSync,
+    private val mediaStoreObserver: MediaStoreObserver,
+    private val scanner: MediaStoreScanner,
+    private val metadataPool: MetadataPool,
+    private val snapshotStore: LibrarySnapshotStore,
+    private val settings: SettingsPreferences
 ) : IMusicRepository {
     
-    private var cachedSongs: List<Song>? = null
-    private var cachedFolders: List<Folder>? = null
+    @Volatile private var indexSynced = false
+    
+    private val libraryIndex = LibraryIndex()
+    private val folderTree = FolderTree()
+    private val searchIndex = LibrarySearchIndex(metadataPool)
+    
+    private val repositoryScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val cacheLock = Any()
+    private var observerJob: Job? = null
+    private var filterJob: Job? = null
+    private var snapshotWriteJob: Job? = null
+    private var inFlightLoad: Deferred<LibrarySnapshot>? = null
+    // Deltas that arrived while a load was in flight; guarded by cacheLock
+    private val pendingDeltas = ArrayList<LibraryDelta>()
+    
+    private val _library = MutableStateFlow(LibrarySnapshot.EMPTY)
+    override val library: StateFlow<LibrarySnapshot> = _library.asStateFlow()
+    
+    private val _libraryChanges = MutableSharedFlow<LibraryChange>(extraBufferCapacity = 16)
+    override val libraryChanges: SharedFlow<LibraryChange> = _libraryChanges.asSharedFlow()
     
     /**
      * Clear the song cache to force refresh on next load.
+     * The current snapshot stays visible to observers until the reload replaces it.
      */
     override fun clearCache() {
-        cachedSongs = null
-        cachedFolders = null
+        synchronized(cacheLock) {
+            _library.value = _library.value.copy(isLoaded = false)
+            indexSynced = false
+        }
     }
 
-    override suspend fun getAllSongs(): List<Song> = withContext(Dispatchers.IO) {
-        if (cachedSongs != null) return@withContext cachedSongs!!
-
-        val songs = mutableListOf<Song>()
-        
-        val projection = arrayOf(
-            MediaStore.Audio.Media._ID,
-            MediaStore.Audio.Media.TITLE,
-            MediaStore.Audio.Media.ARTIST,
-            MediaStore.Audio.Media.ALBUM,
-            MediaStore.Audio.Media.ALBUM_ID,
-            MediaStore.Audio.Media.DURATION,
-            MediaStore.Audio.Media.DATA,
-            MediaStore.Audio.Media.DATE_ADDED,
-            MediaStore.Audio.Media.SIZE
-        )
-        
-        // Only filter for IS_MUSIC, no duration filter
-        val selection = "${MediaStore.Audio.Media.IS_MUSIC} != 0"
-        val sortOrder = "${MediaStore.Audio.Media.TITLE} ASC"
-        
-
-        
-        Log.d(TAG, "getAllSongs: Querying MediaStore...")
-        try {
-            context.contentResolver.query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                selection,
-                null,
-                sortOrder
-            )?.use { cursor ->
-                val idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
-                val titleCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE)
-                val artistCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST)
-                val albumCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM)
-                val albumIdCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID)
-                val durationCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION)
-                val dataCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA)
-                val dateAddedCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED)
-                val sizeCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.SIZE)
-                
-                while (cursor.moveToNext()) {
-                    val id = cursor.getLong(idCol)
-                    songs.add(
-                        Song(
-                            id = id,
-                            title = cursor.getString(titleCol) ?: "Unknown",
-                            artist = cursor.getString(artistCol) ?: "Unknown Artist",
-                            album = cursor.getString(albumCol) ?: "Unknown Album",
-                            albumId = cursor.getLong(albumIdCol),
-                            duration = cursor.getLong(durationCol),
-                            uri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id),
-                            path = cursor.getString(dataCol) ?: "",
-                            dateAdded = cursor.getLong(dateAddedCol),
-                            size = cursor.getLong(sizeCol)
-                        )
-                    )
+    override suspend fun getAllSongs(): List<Song> = loadLibrary().songs
+    
+    /**
+     * Load the library once and share it. Concurrent callers on a cold cache all await
+     * the same in-flight load, which runs in the repository's scope so it survives
+     * cancellation of whichever caller started it.
+     */
+    override suspend fun loadLibrary(): LibrarySnapshot {
+        _library.value.let { if (it.isLoaded) return it }
+        val load = synchronized(cacheLock) {
+            inFlightLoad ?: repositoryScope.async { loadSnapshot() }.also { inFlightLoad = it }
+        }
+        return load.await()
+    }
+    
+    private suspend fun loadSnapshot(): LibrarySnapshot {
+        var queued = emptyList<LibraryChange>()
+        val snapshot = try {
+            if (!indexSynced && _library.value.songs.isEmpty()) publishPersisted()
+            if (!indexSynced) scanner.setFilter(settings.libraryFilter.first())
+            ensureIndexSynced()
+            // Deltas queued so far are already in the index read below
+            synchronized(cacheLock) { pendingDeltas.clear() }
+            val songs = indexSync.indexedSongs().map { it.toSong(metadataPool) }
+            Log.d(TAG, "loadSnapshot: Loaded ${songs.size} songs from library index")
+            
+            libraryIndex.rebuild(songs)
+            folderTree.rebuild(songs)
+            val (albums, artists) = LibraryAggregates.build(songs)
+            val snapshot = synchronized(cacheLock) {
+                LibrarySnapshot(
+                    version = _library.value.version + 1,
+                    songs = songs,
+                    folders = folderTree.foldersWithSongs(),
+                    isLoaded = true,
+                    albums = albums,
+                    artists = artists,
+                    orderings = SongOrderings(songs, metadataPool::collationKey, metadataPool::unpooledCollationKey)
+                ).also {
+                    _library.value = it
+                    // Later deltas may postdate the index read; patch them in, in arrival order
+                    queued = pendingDeltas.mapNotNull(::patchSnapshot)
+                    pendingDeltas.clear()
                 }
-                Log.d(TAG, "getAllSongs: Found ${songs.size} songs")
             }
-        } catch (e: Exception) {
-            Log.e(TAG, "getAllSongs: Error querying MediaStore", e)
+            startObserving()
+            observeFilter()
+            scheduleSnapshotWrite()
+            snapshot
+        } finally {
+            synchronized(cacheLock) { inFlightLoad = null }
         }
-        
-        cachedSongs = songs
-        songs
+        // Published once inFlightLoad is clear, so a full reload they ask for starts a new load
+        queued.forEach { publishChange(it) }
+        return _library.value.takeIf { it.isLoaded } ?: snapshot
     }
     
-    override suspend fun getAllAlbums(): List<Album> = withContext(Dispatchers.IO) {
-        val albums = mutableListOf<Album>()
-        
-        val projection = arrayOf(
-            MediaStore.Audio.Albums._ID,
-            MediaStore.Audio.Albums.ALBUM,
-            MediaStore.Audio.Albums.ARTIST,
-            MediaStore.Audio.Albums.NUMBER_OF_SONGS,
-            MediaStore.Audio.Albums.FIRST_YEAR
-        )
-        
-        try {
-            context.contentResolver.query(
-                MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
-                projection,
-                null,
-                null,
-                "${MediaStore.Audio.Albums.ALBUM} ASC"
-            )?.use { cursor ->
-                val idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums._ID)
-                val nameCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums.ALBUM)
-                val artistCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums.ARTIST)
-                val countCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums.NUMBER_OF_SONGS)
-                val yearCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums.FIRST_YEAR)
-                
-                while (cursor.moveToNext()) {
-                    albums.add(
-                        Album(
-                            id = cursor.getLong(idCol),
-                            name = cursor.getString(nameCol) ?: "Unknown Album",
-                            artist = cursor.getString(artistCol) ?: "Unknown Artist",
-                            songCount = cursor.getInt(countCol),
-                            year = cursor.getInt(yearCol)
-                        )
-                    )
-                }
+    /**
+     * Publish the persisted snapshot, if it's still valid, as an unloaded snapshot.
+     * Folders, albums and artists stay empty until the real load since building them
+     * would touch every row.
+     */
+    private suspend fun publishPersisted() {
+        val songs = snapshotStore.read() ?: return
+        Log.d(TAG, "publishPersisted: Mapped ${songs.size} songs from snapshot file")
+        synchronized(cacheLock) {
+            val current = _library.value
+            if (current.isLoaded || current.songs.isNotEmpty()) return
+            _library.value = LibrarySnapshot(
+                version = current.version + 1,
+                songs = songs,
+                folders = emptyList(),
+                isLoaded = false
+            )
+        }
+    }
+    
+    /**
+     * Persist the current snapshot once the library has been quiet for
+     * [SNAPSHOT_WRITE_DELAY_MS], so bursts of patches cost a single write.
+     */
+    private fun scheduleSnapshotWrite() {
+        synchronized(cacheLock) {
+            snapshotWriteJob?.cancel()
+            snapshotWriteJob = repositoryScope.launch {
+                delay(SNAPSHOT_WRITE_DELAY_MS)
+                val snapshot = _library.value
+                if (snapshot.isLoaded) snapshotStore.write(snapshot.songs)
             }
-        } catch (e: Exception) {
-            e.printStackTrace()
         }
-        
-        albums
     }
     
-    override suspend fun getAllArtists(): List<Artist> = withContext(Dispatchers.IO) {
-        val artists = mutableListOf<Artist>()
-        
-        val projection = arrayOf(
-            MediaStore.Audio.Artists._ID,
-            MediaStore.Audio.Artists.ARTIST,
-            MediaStore.Audio.Artists.NUMBER_OF_TRACKS,
-            MediaStore.Audio.Artists.NUMBER_OF_ALBUMS
-        )
-        
-        try {
-            context.contentResolver.query(
-                MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI,
-                projection,
-                null,
-                null,
-                "${MediaStore.Audio.Artists.ARTIST} ASC"
-            )?.use { cursor ->
-                val idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Artists._ID)
-                val nameCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Artists.ARTIST)
-                val trackCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Artists.NUMBER_OF_TRACKS)
-                val albumCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Artists.NUMBER_OF_ALBUMS)
-                
-                while (cursor.moveToNext()) {
-                    artists.add(
-                        Artist(
-                            id = cursor.getLong(idCol),
-                            name = cursor.getString(nameCol) ?: "Unknown Artist",
-                            songCount = cursor.getInt(trackCol),
-                            albumCount = cursor.getInt(albumCol)
-                        )
-                    )
+    /**
+     * Apply pending MediaStore changes to the library index once per cache lifetime.
+     * A sync that fails (no audio permission yet, say) is retried by the next load or
+     * [refresh].
+     */
+    private suspend fun ensureIndexSynced() {
+        if (indexSynced) return
+        // Only stream partial snapshots into an empty library; a reload keeps the old list visible
+        val showProgress = _library.value.songs.isEmpty()
+        if (showProgress) folderTree.rebuild(emptyList())
+        val scanned = ArrayList<Song>()
+        indexSync.sync { chunk ->
+            if (!showProgress) return@sync
+            val songs = chunk.map { it.toSong(metadataPool) }
+            scanned.addAll(songs)
+            folderTree.add(songs)
+            publishPartial(ArrayList(scanned))
+        } ?: return
+        indexSynced = true
+    }
+    
+    /**
+     * Publish a not-yet-loaded snapshot holding the rows scanned so far, in library order.
+     * [folderTree] must already contain them.
+     */
+    private fun publishPartial(songs: List<Song>) {
+        val (albums, artists) = LibraryAggregates.build(songs)
+        synchronized(cacheLock) {
+            val current = _library.value
+            if (current.isLoaded) return
+            _library.value = LibrarySnapshot(
+                version = current.version + 1,
+                songs = songs,
+                folders = folderTree.foldersWithSongs(),
+                isLoaded = false,
+                albums = albums,
+                artists = artists
+            )
+        }
+    }
+    
+    /**
+     * Stream the library while it loads: partial song lists as a first-time scan reads
+     * the cursor (first ~100 rows, then geometrically larger), ending with the complete
+     * songs of the loaded snapshot. Completes after that final emission.
+     */
+    override fun scanLibrary(): Flow<List<Song>> = channelFlow {
+        val load = async { loadLibrary() }
+        library
+            .transformWhile { snapshot ->
+                if (snapshot.isLoaded || snapshot.songs.isNotEmpty()) emit(snapshot.songs)
+                !snapshot.isLoaded
+            }
+            .collect { send(it) }
+        load.await()
+    }
+    
+    /**
+     * Sync the index with MediaStore and patch the snapshot with what changed.
+     *
+     * While nothing is indexed, e.g. because the first load ran before the audio
+     * permission was granted, the library is reloaded instead, so the first scan streams
+     * partial snapshots like any first load rather than showing nothing until it ends.
+     */
+    override suspend fun refresh() = withContext(Dispatchers.IO) {
+        // A load in flight may be the one that ran without permission; let it finish first
+        loadLibrary()
+        if (!indexSynced || _library.value.songs.isEmpty()) {
+            clearCache()
+            loadLibrary()
+            return@withContext
+        }
+        indexSync.sync()?.let { applyDelta(it) }
+    }
+    
+    /**
+     * Start patching the cache from MediaStore notifications. Runs for the app's lifetime.
+     */
+    private fun startObserving() {
+        synchronized(cacheLock) {
+            if (observerJob != null) return
+            observerJob = repositoryScope.launch {
+                mediaStoreObserver.changes().collect { change ->
+                    val delta = if (change.unresolved) {
+                        indexSync.sync() ?: LibraryDelta.NONE
+                    } else {
+                        indexSync.syncIds(change.ids)
+                    }
+                    applyDelta(delta)
                 }
             }
-        } catch (e: Exception) {
-            e.printStackTrace()
         }
-        
-        artists
     }
     
-    override suspend fun getFolders(): List<Folder> = withContext(Dispatchers.IO) {
-        // Use cached folders if available
-        cachedFolders?.let { return@withContext it }
-        
-        val songs = getAllSongs()
-        // Use string manipulation instead of File objects for efficiency
-        val folders = songs.groupBy { song ->
-            val path = song.path
-            val lastSeparator = path.lastIndexOf('/')
-            if (lastSeparator > 0) path.substring(0, lastSeparator) else ""
+    /**
+     * Re-sync the index whenever the library filter changes. Runs for the app's lifetime.
+     */
+    private fun observeFilter() {
+        synchronized(cacheLock) {
+            if (filterJob != null) return
+            filterJob = repositoryScope.launch {
+                settings.libraryFilter.distinctUntilChanged().collect { filter ->
+                    if (scanner.setFilter(filter)) {
+                        Log.d(TAG, "observeFilter: Library filter changed, syncing")
+                        refresh()
+                    }
+                }
+            }
         }
-            .filter { it.key.isNotEmpty() }
-            .map { (path, songsInFolder) ->
-                val folderName = path.substringAfterLast('/')
-                Folder(
-                    path = path,
-                    name = folderName,
-                    songCount = songsInFolder.size
-                )
+    }
+    
+    /**
+     * Patch the snapshot with [delta]. While a load is in flight the delta is queued and
+     * applied once that load publishes, since the load may have read the index before it.
+     */
+    private suspend fun applyDelta(delta: LibraryDelta) {
+        if (delta.isEmpty) return
+        val change = synchronized(cacheLock) {
+            if (!_library.value.isLoaded) {
+                // With no load in flight, the next one reads the index anyway
+                if (inFlightLoad != null) pendingDeltas += delta
+                return
             }
-            .sortedBy { it.name }
+            patchSnapshot(delta)
+        } ?: return
+        publishChange(change)
+    }
+    
+    private suspend fun publishChange(change: LibraryChange) {
+        Log.d(TAG, "publishChange: ${change.upserted.size} upserted, ${change.removedIds.size} removed")
+        _libraryChanges.emit(change)
+        if (change.isFullReload) {
+            repositoryScope.launch { loadLibrary() }
+        } else {
+            scheduleSnapshotWrite()
+        }
+    }
+    
+    /**
+     * Publish a patched snapshot built from [delta] instead of reloading.
+     * Must be called with [cacheLock] held.
+     * @return The change to publish, or null if nothing was loaded yet
+     */
+    private fun patchSnapshot(delta: LibraryDelta): LibraryChange? {
+        val current = _library.value
+        if (!current.isLoaded) return null
+        if (delta.fullRebuild) {
+            _library.value = current.copy(isLoaded = false)
+            return LibraryChange.FULL_RELOAD
+        }
+        
+        val upserted = delta.upserts.map { it.toSong(metadataPool) }.sortedWith(SONG_ORDER)
+        val upsertedIds = upserted.mapTo(HashSet()) { it.id }
+        val touchedIds = HashSet<Long>(delta.removedIds)
+        touchedIds.addAll(upsertedIds)
+        val previous = current.songs.filter { it.id in touchedIds }
+        val patched = mergeSorted(current.songs.filter { it.id !in touchedIds }, upserted)
+        libraryIndex.patch(delta.removedIds, upserted, patched)
+        folderTree.patch(removed = previous, added = upserted)
+        searchIndex.patch(current.songs, delta.removedIds, upserted, patched)
+        
+        val affected = previous + upserted
+        val affectedAlbumIds = affected.mapTo(HashSet()) { it.albumId }
+        val affectedArtists = affected.mapTo(HashSet()) { it.artist }
+        _library.value = LibrarySnapshot(
+            version = current.version + 1,
+            songs = patched,
+            folders = folderTree.foldersWithSongs(),
+            isLoaded = true,
+            albums = LibraryAggregates.rebuildAlbums(current.albums, affectedAlbumIds, libraryIndex::songsByAlbum),
+            artists = LibraryAggregates.rebuildArtists(current.artists, affectedArtists, libraryIndex::songsByArtist),
+            orderings = current.orderings.patch(patched, touchedIds, upsertedIds)
+        )
         
-        cachedFolders = folders
-        folders
+        return LibraryChange(
+            upserted = upserted,
+            removedIds = delta.removedIds.toSet(),
+            affectedFolders = affected.mapTo(HashSet()) { metadataPool.folder(it.path) },
+            affectedAlbumIds = affectedAlbumIds,
+            affectedArtists = affectedArtists
+        )
+    }
+    
+    /**
+     * Albums derived from the loaded songs, so counts and durations match the songs tab.
+     */
+    override suspend fun getAllAlbums(): List<Album> = loadLibrary().albums
+    
+    override suspend fun getAllArtists(): List<Artist> = loadLibrary().artists
+    
+    override suspend fun getFolders(): List<Folder> = loadLibrary().folders
+    
+    /**
+     * Folder lookups don't wait for a load: the folder tree fills in with the partial
+     * snapshots of a first scan, so observe [library] to follow it.
+     */
+    override suspend fun getFolder(folderPath: String): Folder? = withContext(Dispatchers.IO) {
+        folderTree.folder(folderPath)
+    }
+    
+    override suspend fun getSubfolders(folderPath: String?): List<Folder> = withContext(Dispatchers.IO) {
+        folderTree.children(folderPath)
+    }
+    
+    override suspend fun getFolderArt(folderPath: String, limit: Int): List<Uri> = withContext(Dispatchers.IO) {
+        folderTree.subtreeFolderPaths(folderPath)
+            .asSequence()
+            .flatMap { libraryIndex.songsByFolder(it) }
+            .map { it.albumArtUri }
+            .distinct()
+            .take(limit)
+            .toList()
+    }
+    
+    /**
+     * Every song under [folderPath], recursively: folder by folder in depth-first order,
+     * each folder's songs in library order. Served from the folder tree and library
+     * index without touching MediaStore.
+     */
+    override suspend fun getSongsInFolderTree(folderPath: String): List<Song> = withContext(Dispatchers.IO) {
+        loadLibrary()
+        folderTree.subtreeFolderPaths(folderPath).flatMap { libraryIndex.songsByFolder(it) }
     }
     
     override suspend fun getSongsByAlbum(albumId: Long): List<Song> = withContext(Dispatchers.IO) {
-        getAllSongs().filter { it.albumId == albumId }
+        loadLibrary()
+        libraryIndex.songsByAlbum(albumId)
     }
     
     override suspend fun getSongsByArtist(artistName: String): List<Song> = withContext(Dispatchers.IO) {
-        getAllSongs().filter { it.artist.equals(artistName, ignoreCase = true) }
+        loadLibrary()
+        libraryIndex.songsByArtist(artistName)
     }
     
     override suspend fun getSongsByFolder(folderPath: String): List<Song> = withContext(Dispatchers.IO) {
-        getAllSongs().filter { song ->
-            val path = song.path
-            val lastSeparator = path.lastIndexOf('/')
-            val songFolder = if (lastSeparator > 0) path.substring(0, lastSeparator) else ""
-            songFolder == folderPath
-        }
+        loadLibrary()
+        libraryIndex.songsByFolder(folderPath)
     }
     
     override suspend fun getSongsByIds(songIds: List<Long>): List<Song> = withContext(Dispatchers.IO) {
-        val allSongs = getAllSongs().associateBy { it.id }
-        songIds.mapNotNull { allSongs[it] }
+        loadLibrary()
+        libraryIndex.songsByIds(songIds)
     }
+    
+    /**
+     * MediaStore volumes whose indexed songs make up the library; a change arrives with
+     * a new [library] snapshot.
+     */
+    fun libraryVolumes(): Set<String> = indexSync.currentVolumes()
 
     /**
-     * Paged query for songs using efficient LIMIT/OFFSET on Android Q+.
-     * Falls back to cursor position on older versions.
+     * One keyset page of songs in [sortOrder], from [snapshot]'s ordering.
+     *
+     * Once the snapshot is loaded, pages are sliced from its sort permutation
+     * ([SongOrderings.page]). Before that they come straight from MediaStore, seeking
+     * past [key] with `(sort value, _id)` comparisons instead of an OFFSET, so page cost
+     * doesn't grow with scroll depth; see [SongPageQuery] for the generated SQL.
+     * A null key loads the first page.
+     *
+     * The two sources collate differently, so keys from one don't fit the other: pass
+     * the same snapshot for every page of a walk, and start over with the new one when
+     * [library] changes.
      */
-    suspend fun getSongsPaged(offset: Int, limit: Int): List<Song> = withContext(Dispatchers.IO) {
-        val songs = mutableListOf<Song>()
-        
-        val projection = arrayOf(
-            MediaStore.Audio.Media._ID,
-            MediaStore.Audio.Media.TITLE,
-            MediaStore.Audio.Media.ARTIST,
-            MediaStore.Audio.Media.ALBUM,
-            MediaStore.Audio.Media.ALBUM_ID,
-            MediaStore.Audio.Media.DURATION,
-            MediaStore.Audio.Media.DATA,
-            MediaStore.Audio.Media.DATE_ADDED,
-            MediaStore.Audio.Media.SIZE
+    suspend fun getSongsPage(
+        snapshot: LibrarySnapshot,
+        sortOrder: SongSortOrder,
+        key: SongPageKey?,
+        limit: Int
+    ): List<Song> = withContext(Dispatchers.IO) {
+        if (snapshot.isLoaded) {
+            return@withContext snapshot.orderings.page(sortOrder, key, limit)
+        }
+        val query = SongPageQuery.build(sortOrder, key)
+        val rows = scanner.queryRows(
+            selection = query.selection,
+            selectionArgs = query.selectionArgs.toTypedArray(),
+            sortOrder = query.sortOrder,
+            limit = limit
         )
-        
-        val selection = "${MediaStore.Audio.Media.IS_MUSIC} != 0"
-        val sortOrder = "${MediaStore.Audio.Media.TITLE} ASC"
-
-        Log.d(TAG, "getSongsPaged: offset=$offset, limit=$limit")
-        try {
-            val cursor = if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
-                // Use efficient Bundle-based query with LIMIT/OFFSET on Android Q+
-                val queryArgs = Bundle().apply {
-                    putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection)
-                    putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder)
-                    putInt(ContentResolver.QUERY_ARG_LIMIT, limit)
-                    putInt(ContentResolver.QUERY_ARG_OFFSET, offset)
-                }
-                context.contentResolver.query(
-                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    projection,
-                    queryArgs,
-                    null
-                )
-            } else {
-                // Legacy: Use LIMIT in sort order string (works on most devices)
-                val legacySortOrder = "$sortOrder LIMIT $limit OFFSET $offset"
-                context.contentResolver.query(
-                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    projection,
-                    selection,
-                    null,
-                    legacySortOrder
-                )
-            }
-            
-            cursor?.use {
-                val idCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
-                val titleCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE)
-                val artistCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST)
-                val albumCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM)
-                val albumIdCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID)
-                val durationCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION)
-                val dataCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA)
-                val dateAddedCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED)
-                val sizeCol = it.getColumnIndexOrThrow(MediaStore.Audio.Media.SIZE)
-                
-                while (it.moveToNext()) {
-                    val id = it.getLong(idCol)
-                    songs.add(
-                        Song(
-                            id = id,
-                            title = it.getString(titleCol) ?: "Unknown",
-                            artist = it.getString(artistCol) ?: "Unknown Artist",
-                            album = it.getString(albumCol) ?: "Unknown Album",
-                            albumId = it.getLong(albumIdCol),
-                            duration = it.getLong(durationCol),
-                            uri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id),
-                            path = it.getString(dataCol) ?: "",
-                            dateAdded = it.getLong(dateAddedCol),
-                            size = it.getLong(sizeCol)
-                        )
-                    )
-                }
-            }
-            Log.d(TAG, "getSongsPaged: Returning ${songs.size} songs")
-        } catch (e: Exception) {
-            Log.e(TAG, "getSongsPaged: Error", e)
+        Log.d(TAG, "getSongsPage: $sortOrder key=$key returned ${rows.size} songs")
+        val songs = rows.map { it.toSong(metadataPool) }
+        if (query.reversed) songs.asReversed() else songs
+    }
+    
+    /**
+     * Songs of [snapshot] whose title, artist, album or folder name contains [query],
+     * ignoring case and diacritics, ranked by match position and field.
+     * The index is built on the first search of a song list, so call off the main thread.
+     */
+    fun searchSongs(snapshot: LibrarySnapshot, query: String, limit: Int): SearchResults<Song> =
+        if (query.isBlank()) SearchResults.empty() else searchIndex.searchSongs(snapshot.songs, query, limit)
+    
+    /**
+     * Every song of [snapshot] matching [query] as [searchSongs] does, counted exactly.
+     * A longer query can then be answered with [narrowSongs].
+     */
+    fun matchSongs(snapshot: LibrarySnapshot, query: String): SongMatches =
+        searchIndex.matchSongs(snapshot.songs, query)
+    
+    /**
+     * The songs of [previous] matching [query], when [query] contains its query and the
+     * snapshot hasn't changed since; null otherwise. Costs time in [previous]'s size
+     * rather than the library's.
+     */
+    fun narrowSongs(snapshot: LibrarySnapshot, query: String, previous: SongMatches): SongMatches? =
+        searchIndex.narrowSongs(snapshot.songs, query, previous)
+    
+    fun rankSongs(matches: SongMatches, limit: Int): List<Song> = searchIndex.rankSongs(matches, limit)
+    
+    fun searchAlbums(snapshot: LibrarySnapshot, query: String, limit: Int): SearchResults<Album> =
+        if (query.isBlank()) SearchResults.empty() else searchIndex.searchAlbums(snapshot.albums, query, limit)
+    
+    fun searchArtists(snapshot: LibrarySnapshot, query: String, limit: Int): SearchResults<Artist> =
+        if (query.isBlank()) SearchResults.empty() else searchIndex.searchArtists(snapshot.artists, query, limit)
+    
+    /**
+     * Songs of [snapshot] whose title, artist and album words match [query] allowing
+     * typos ("beatels", "bjrok"), ranked by match quality and then by [playCounts]
+     * (song ID to plays); see [FuzzyIndex]. For when [searchSongs] finds too little.
+     * The index is built on the first fuzzy search of a song list, so call off the main thread.
+     */
+    fun fuzzySearchSongs(snapshot: LibrarySnapshot, query: String, limit: Int, playCounts: Map<Long, Int>): List<Song> =
+        if (query.isBlank()) emptyList() else searchIndex.fuzzySongs(snapshot.songs, query, limit) { playCounts[it.id] ?: 0 }
+    
+    /**
+     * Artists of [snapshot] matching [query] allowing typos, ranked by match quality and
+     * then by [artistPlays] (artist name to plays; see [artistPlayCounts]).
+     */
+    fun fuzzySearchArtists(snapshot: LibrarySnapshot, query: String, limit: Int, artistPlays: Map<String, Int>): List<Artist> =
+        if (query.isBlank()) emptyList() else searchIndex.fuzzyArtists(snapshot.artists, query, limit) { artistPlays[it.name] ?: 0 }
+    
+    /**
+     * [playCounts] (song ID to plays) summed per artist of the loaded library's songs.
+     * Costs a lookup per played song, so derive it when the counts or the library
+     * change rather than per search.
+     */
+    fun artistPlayCounts(playCounts: Map<Long, Int>): Map<String, Int> {
+        val artistPlays = HashMap<String, Int>()
+        libraryIndex.songsByIds(playCounts.keys.toList()).forEach { song ->
+            artistPlays.merge(song.artist, playCounts.getValue(song.id)) { a, b -> a + b }
         }
-        
-        songs
+        return artistPlays
+    }
+    
+    /**
+     * Songs matching [query] by word prefix or quoted phrase in their title, artist,
+     * album, folder name, genre or indexed lyrics (see [FullTextQuery]), paged from the
+     * FTS4 table in library order with a highlighted snippet each. Pages are reloaded when
+     * the index changes.
+     */
+    fun searchFullText(query: String, pageSize: Int = FULL_TEXT_PAGE_SIZE): Flow<PagingData<SongMatch>> {
+        val match = FullTextQuery.build(query) ?: return flowOf(PagingData.empty())
+        return Pager(
+            config = PagingConfig(pageSize = pageSize, enablePlaceholders = false),
+            pagingSourceFactory = { libraryDao.searchSongs(match, indexSync.currentVolumes()) }
+        ).flow.map { page -> page.map { it.toMatch() } }
+    }
+    
+    /**
+     * The first [limit] [searchFullText] matches, re-emitted when the index changes.
+     */
+    fun observeFullText(query: String, limit: Int): Flow<List<SongMatch>> {
+        val match = FullTextQuery.build(query) ?: return flowOf(emptyList())
+        return libraryDao.observeSearch(match, indexSync.currentVolumes(), limit)
+            .map { hits -> hits.map { it.toMatch() } }
+    }
+    
+    /**
+     * Number of [searchFullText] matches, re-emitted when the index changes.
+     */
+    fun observeFullTextCount(query: String): Flow<Int> {
+        val match = FullTextQuery.build(query) ?: return flowOf(0)
+        return libraryDao.observeSearchCount(match, indexSync.currentVolumes())
     }
     
+    private fun LibrarySearchHit.toMatch() = SongMatch(song.toSong(metadataPool), snippet)
+    
     /**
      * Get all song IDs efficiently (for Select All functionality).
      */
     override suspend fun getAllSongIds(): List<Long> = withContext(Dispatchers.IO) {
-        val ids = mutableListOf<Long>()
-        val projection = arrayOf(MediaStore.Audio.Media._ID)
-        val selection = "${MediaStore.Audio.Media.IS_MUSIC} != 0"
+        _library.value.let { if (it.isLoaded) return@withContext it.songs.map { song -> song.id } }
+        ensureIndexSynced()
+        indexSync.indexedSongIds()
+    }
+    
+    /**
+     * Delete songs directly through batched [ContentProviderOperation]s.
+     *
+     * Deletes go to MediaStore in chunks of [DELETE_BATCH_SIZE] per `applyBatch` call
+     * rather than one binder round trip per song. If a batch is rejected (e.g. a file the
+     * app doesn't own on API 29), that chunk falls back to per-song deletes so the rest
+     * still go through. Only the deleted IDs are removed from the index and snapshot.
+     *
+     * On API 30+ files owned by other apps need user consent; use [createDeleteRequest].
+     * @return Number of songs deleted
+     */
+    override suspend fun deleteSongs(
+        songIds: List<Long>,
+        onProgress: (DeleteProgress) -> Unit
+    ): Int = withContext(Dispatchers.IO) {
+        val deletedIds = mutableListOf<Long>()
+        var processed = 0
+        
+        for (chunk in songIds.chunked(DELETE_BATCH_SIZE)) {
+            deletedIds += deleteBatch(chunk)
+            processed += chunk.size
+            onProgress(DeleteProgress(processed = processed, deleted = deletedIds.size, total = songIds.size))
+        }
         
-        try {
-            context.contentResolver.query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                selection,
-                null,
-                null
-            )?.use { cursor ->
-                val idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
-                while (cursor.moveToNext()) {
-                    ids.add(cursor.getLong(idCol))
+        removeDeletedSongs(deletedIds)
+        deletedIds.size
+    }
+    
+    private fun deleteBatch(songIds: List<Long>): List<Long> {
+        val operations = songIds.mapTo(ArrayList()) { songId ->
+            ContentProviderOperation.newDelete(
+                ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, songId)
+            ).build()
+        }
+        return try {
+            val results = context.contentResolver.applyBatch(MediaStore.AUTHORITY, operations)
+            songIds.filterIndexed { i, _ -> (results.getOrNull(i)?.count ?: 0) > 0 }
+        } catch (e: Exception) {
+            Log.w(TAG, "deleteBatch: Batch of ${songIds.size} rejected, deleting one by one", e)
+            songIds.filter { songId ->
+                try {
+                    val uri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, songId)
+                    context.contentResolver.delete(uri, null, null) > 0
+                } catch (e: Exception) {
+                    Log.e(TAG, "Error deleting song $songId", e)
+                    false
                 }
             }
-        } catch (e: Exception) {
-            android.util.Log.e("MusicRepository", "Error getting song IDs", e)
         }
-        
-        ids
     }
     
     /**
-     * Delete songs from the device storage.
-     * @return Number of songs successfully deleted
+     * API 30+: one system confirmation dialog that deletes all [songIds] when accepted.
+     * Launch the returned sender from the UI, then call [onDeleteRequestCompleted].
+     * @return The request, or null below API 30 or if it couldn't be created
      */
-    override suspend fun deleteSongs(songIds: List<Long>): Int = withContext(Dispatchers.IO) {
-        var deletedCount = 0
-        
-        for (songId in songIds) {
-            try {
-                val uri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, songId)
-                val deleted = context.contentResolver.delete(uri, null, null)
-                if (deleted > 0) {
-                    deletedCount++
-                }
-            } catch (e: Exception) {
-                android.util.Log.e("MusicRepository", "Error deleting song $songId", e)
-            }
+    override fun createDeleteRequest(songIds: List<Long>): IntentSender? {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R || songIds.isEmpty()) return null
+        return try {
+            val uris = songIds.map { ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, it) }
+            MediaStore.createDeleteRequest(context.contentResolver, uris).intentSender
+        } catch (e: Exception) {
+            Log.e(TAG, "createDeleteRequest: Error", e)
+            null
         }
-        
-        // Clear cache after deletion
-        if (deletedCount > 0) {
-            clearCache()
+    }
+    
+    /**
+     * Reconcile after a [createDeleteRequest] was accepted: IDs that no longer exist in
+     * MediaStore are removed from the index and snapshot.
+     * @return Number of songs that were deleted
+     */
+    override suspend fun onDeleteRequestCompleted(songIds: List<Long>): Int = withContext(Dispatchers.IO) {
+        val remaining = scanner.queryRowsByIds(songIds).mapTo(HashSet()) { it.id }
+        val deletedIds = songIds.filter { it !in remaining }
+        removeDeletedSongs(deletedIds)
+        deletedIds.size
+    }
+    
+    private suspend fun removeDeletedSongs(deletedIds: List<Long>) {
+        if (deletedIds.isEmpty()) return
+        libraryDao.deleteSongs(deletedIds)
+        applyDelta(LibraryDelta(removedIds = deletedIds))
+    }
+}
+
+/**
+ * Order of the cached song list; mirrors the library index's `title COLLATE NOCASE, id`,
+ * so songs patched in land where a reload from the index would put them.
+ */
+private val SONG_ORDER = compareBy<Song, String>(NOCASE_ORDER) { it.title }.thenBy { it.id }
+
+/**
+ * SQLite's NOCASE collation: only A-Z fold to lowercase, then strings compare by code
+ * point, as SQLite compares UTF-8 bytes. [String.CASE_INSENSITIVE_ORDER] also folds
+ * non-ASCII letters ("É" sorts with "é" rather than after "z") and compares UTF-16
+ * units, so it disagrees with the index on accented and supplementary characters.
+ */
+internal val NOCASE_ORDER = Comparator<String> { a, b ->
+    val length = minOf(a.length, b.length)
+    for (i in 0 until length) {
+        val x = asciiLowercase(a[i])
+        val y = asciiLowercase(b[i])
+        if (x != y) {
+            // Surrogates encode code points above every other UTF-16 unit
+            val xSurrogate = x.isSurrogate()
+            return@Comparator if (xSurrogate == y.isSurrogate()) x - y else if (xSurrogate) 1 else -1
         }
-        
-        deletedCount
     }
+    a.length - b.length
 }
+
+private fun asciiLowercase(c: Char) = if (c in 'A'..'Z') c + ('a' - 'A') else c
+
+/**
+ * Parent folder of a song path, or "" for paths without a directory.
+ */
+internal fun folderOf(path: String): String {
+    val lastSeparator = path.lastIndexOf('/')
+    return if (lastSeparator > 0) path.substring(0, lastSeparator) else ""
+}
+
+/**
+ * Merge two lists already sorted by [SONG_ORDER].
+ */
+private fun mergeSorted(a: List<Song>, b: List<Song>): List<Song> {
+    if (b.isEmpty()) return a
+    val merged = ArrayList<Song>(a.size + b.size)
+    var i = 0
+    var j = 0
+    while (i < a.size && j < b.size) {
+        merged.add(if (SONG_ORDER.compare(a[i], b[j]) <= 0) a[i++] else b[j++])
+    }
+    while (i < a.size) merged.add(a[i++])
+    while (j < b.size) merged.add(b[j++])
+    return merged
+}
+
+/**
+ * Map an index row to the UI model. The content URI is derived from the MediaStore ID;
+ * artist and album names are interned through [pool] so repeated values share one instance.
+ */
+internal fun LibrarySong.toSong(pool: MetadataPool): Song = Song(
+    id = id,
+    title = title,
+    artist = pool.intern(artist),
+    album = pool.intern(album),
+    albumId = albumId,
+    duration = duration,
+    uri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id),
+    path = path,
+    dateAdded = dateAdded,
+    size = size,
+    year = year
+)
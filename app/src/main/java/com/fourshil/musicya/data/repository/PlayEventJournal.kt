@@ -0,0 +1,156 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.Context
+import android.util.Log
+import com.fourshil.musicya.data.db.MusicDao
+import com.fourshil.musicya.data.db.PlayEvent
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.File
+import java.io.IOException
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "PlayEventJournal"
+
+/**
+ * Write-behind buffer for plays, so skipping through a queue doesn't cost a database
+ * transaction per track.
+ *
+ * [record] appends the play to a [PlayJournalFile] and an in-memory buffer, which is
+ * written to the database with [MusicDao.recordPlays] in one transaction once it holds
+ * [FLUSH_SIZE] plays, [FLUSH_DELAY_MS] after its first play, or on [flush]. The journal
+ * is then rewritten to hold only plays recorded since. Plays still in the journal when
+ * the process dies are replayed on the next start, so none are lost; recording ignores
+ * plays it already has, so a crash between the commit and the rewrite counts nothing
+ * twice.
+ *
+ * After a successful write, old raw plays and daily rollups are compacted
+ * ([MusicDao.compactPlayStats]) if that hasn't happened for [COMPACT_INTERVAL_MS].
+ *
+ * All state is confined to one thread of [Dispatchers.IO], so callers never block and
+ * plays keep their order.
+ */
+@Singleton
+class PlayEventJournal @Inject constructor(
+    @ApplicationContext context: Context,
+    private val musicDao: MusicDao
+) {
+
+    private val journal = PlayJournalFile(File(context.noBackupFilesDir, FILE_NAME))
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO.limitedParallelism(1))
+
+    private val buffer = ArrayList<PlayEvent>()
+    private val flushLock = Mutex()
+    private var flushTimer: Job? = null
+    private var lastCompactedAt = 0L
+
+    init {
+        scope.launch { recover() }
+    }
+
+    /**
+     * Record a finished play.
+     */
+    fun record(event: PlayEvent) {
+        scope.launch {
+            try {
+                journal.append(event)
+            } catch (e: IOException) {
+                Log.e(TAG, "record: Error appending to journal", e)
+            }
+            buffer += event
+            if (buffer.size >= FLUSH_SIZE) {
+                flushTimer?.cancel()
+                flushTimer = null
+                flushBuffer()
+            } else if (flushTimer == null) {
+                flushTimer = scope.launch {
+                    delay(FLUSH_DELAY_MS)
+                    flushTimer = null
+                    flushBuffer()
+                }
+            }
+        }
+    }
+
+    /**
+     * Write buffered plays to the database now, e.g. because playback is stopping.
+     * Returns at once; the write outlives the caller.
+     */
+    fun flush() {
+        scope.launch {
+            flushTimer?.cancel()
+            flushTimer = null
+            flushBuffer()
+        }
+    }
+
+    private suspend fun flushBuffer() = flushLock.withLock {
+        if (buffer.isEmpty()) return@withLock
+        val batch = ArrayList(buffer)
+        buffer.clear()
+        try {
+            musicDao.recordPlays(batch)
+        } catch (e: Exception) {
+            Log.e(TAG, "flush: Error writing ${batch.size} plays", e)
+            // Still in the journal; the next flush retries them
+            buffer.addAll(0, batch)
+            return@withLock
+        }
+        // Plays recorded while the batch was being written are all the journal still needs
+        try {
+            journal.rewrite(buffer)
+        } catch (e: IOException) {
+            Log.e(TAG, "flush: Error rewriting journal", e)
+        }
+        compactIfDue()
+    }
+
+    private suspend fun compactIfDue() {
+        val now = System.currentTimeMillis()
+        if (now - lastCompactedAt < COMPACT_INTERVAL_MS) return
+        try {
+            musicDao.compactPlayStats(now)
+            lastCompactedAt = now
+        } catch (e: Exception) {
+            Log.e(TAG, "compact: Error compacting play stats", e)
+        }
+    }
+
+    private suspend fun recover() {
+        val pending = try {
+            journal.readAll()
+        } catch (e: IOException) {
+            Log.e(TAG, "recover: Error reading journal", e)
+            emptyList()
+        }
+        if (pending.isEmpty()) return
+        Log.d(TAG, "recover: Replaying ${pending.size} plays")
+        buffer.addAll(0, pending)
+        // In the current format, in case the file is from an older version
+        try {
+            journal.rewrite(buffer)
+        } catch (e: IOException) {
+            Log.e(TAG, "recover: Error rewriting journal", e)
+        }
+        flushBuffer()
+    }
+
+    companion object {
+        const val FLUSH_SIZE = 32
+        const val FLUSH_DELAY_MS = 60_000L
+        const val COMPACT_INTERVAL_MS = 86_400_000L
+        private const val FILE_NAME = "play_events.journal"
+    }
+}
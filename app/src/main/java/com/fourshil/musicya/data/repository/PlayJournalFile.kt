@@ -0,0 +1,124 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.db.PlayEvent
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+
+/**
+ * Append-only file of [PlayEvent]s that haven't reached the database yet.
+ *
+ * ```
+ * header   8 bytes: magic, format version
+ * records  32 bytes each: song ID, play time, listened ms, completion (float),
+ *          flags (bit 0: skipped)
+ * ```
+ *
+ * Everything is big-endian. Version 1 files, with 16-byte records of song ID and play
+ * time only, are still read; the first append starts them over, so callers rewrite what
+ * they read before appending. Each [append] is one unbuffered write, so a record is with
+ * the OS as soon as the call returns and survives the process being killed. A record
+ * torn by a crash mid-write is dropped by [readAll] and cut off before the next append.
+ * A file with another magic or an unknown version is treated as empty. Not thread-safe.
+ */
+class PlayJournalFile(private val file: File) {
+
+    private var output: FileOutputStream? = null
+
+    /**
+     * Every complete record in the file, oldest first.
+     */
+    fun readAll(): List<PlayEvent> {
+        if (!file.exists()) return emptyList()
+        val bytes = ByteBuffer.wrap(file.readBytes())
+        if (bytes.remaining() < HEADER_SIZE || bytes.getInt(0) != MAGIC) return emptyList()
+        bytes.position(HEADER_SIZE)
+        return when (bytes.getInt(4)) {
+            VERSION_1 -> List(bytes.remaining() / RECORD_SIZE_1) { PlayEvent(songId = bytes.getLong(), playedAt = bytes.getLong()) }
+            VERSION -> List(bytes.remaining() / RECORD_SIZE) { read(bytes) }
+            else -> emptyList()
+        }
+    }
+
+    @Throws(IOException::class)
+    fun append(event: PlayEvent) {
+        val out = output ?: open()
+        out.write(put(ByteBuffer.allocate(RECORD_SIZE), event).array())
+    }
+
+    /**
+     * Replace the file's records with [events], atomically.
+     */
+    @Throws(IOException::class)
+    fun rewrite(events: List<PlayEvent>) {
+        close()
+        val temp = File(file.path + ".tmp")
+        val buffer = ByteBuffer.allocate(HEADER_SIZE + events.size * RECORD_SIZE)
+        buffer.putInt(MAGIC).putInt(VERSION)
+        events.forEach { put(buffer, it) }
+        FileOutputStream(temp).use {
+            it.write(buffer.array())
+            it.fd.sync()
+        }
+        if (!temp.renameTo(file)) throw IOException("Could not replace $file")
+    }
+
+    fun close() {
+        try {
+            output?.close()
+        } catch (e: IOException) {
+            // Every record was already written through
+        }
+        output = null
+    }
+
+    /**
+     * Open for appending after the last complete record, starting the file over if it
+     * doesn't have a valid header.
+     */
+    private fun open(): FileOutputStream {
+        val valid = file.exists() && RandomAccessFile(file, "r").use { raf ->
+            val header = ByteArray(HEADER_SIZE)
+            raf.length() >= HEADER_SIZE && raf.read(header) == HEADER_SIZE && hasHeader(ByteBuffer.wrap(header))
+        }
+        val out = FileOutputStream(file, valid)
+        if (valid) {
+            val records = (out.channel.size() - HEADER_SIZE) / RECORD_SIZE
+            out.channel.truncate(HEADER_SIZE + records * RECORD_SIZE)
+        } else {
+            out.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array())
+        }
+        output = out
+        return out
+    }
+
+    private fun put(buffer: ByteBuffer, event: PlayEvent): ByteBuffer = buffer
+        .putLong(event.songId)
+        .putLong(event.playedAt)
+        .putLong(event.listenedMs)
+        .putFloat(event.completion)
+        .putInt(if (event.skipped) FLAG_SKIPPED else 0)
+
+    private fun read(bytes: ByteBuffer) = PlayEvent(
+        songId = bytes.getLong(),
+        playedAt = bytes.getLong(),
+        listenedMs = bytes.getLong(),
+        completion = bytes.getFloat(),
+        skipped = bytes.getInt() and FLAG_SKIPPED != 0
+    )
+
+    private fun hasHeader(bytes: ByteBuffer) =
+        bytes.remaining() >= HEADER_SIZE && bytes.getInt(0) == MAGIC && bytes.getInt(4) == VERSION
+
+    private companion object {
+        const val MAGIC = 0x504A524E // "PJRN"
+        const val VERSION = 2
+        const val VERSION_1 = 1
+        const val HEADER_SIZE = 8
+        const val RECORD_SIZE = 32
+        const val RECORD_SIZE_1 = 16
+        const val FLAG_SKIPPED = 1
+    }
+}
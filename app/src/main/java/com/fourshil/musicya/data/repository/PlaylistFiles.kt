@@ -0,0 +1,194 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Song
+import java.io.BufferedWriter
+import java.io.Closeable
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.Reader
+
+/**
+ * An entry read from or written to a playlist file.
+ *
+ * @property location Path or URL as written in the file
+ * @property title From `#EXTINF` or `TitleN`, if the file has one
+ * @property artist Text before " - " in the title, if any
+ * @property durationMs Null if unknown
+ */
+data class PlaylistEntry(
+    val location: String,
+    val title: String? = null,
+    val artist: String? = null,
+    val durationMs: Long? = null
+) {
+    companion object {
+        fun of(song: Song) = PlaylistEntry(song.path, song.title, song.artist, song.duration)
+
+        /** Entry for [location] with a display name such as "Artist - Title". */
+        fun of(location: String, display: String?, durationMs: Long?): PlaylistEntry {
+            val name = display?.trim()?.takeIf { it.isNotEmpty() }
+            val split = name?.indexOf(" - ") ?: -1
+            return if (split > 0) {
+                PlaylistEntry(location, name!!.substring(split + 3).trim(), name.substring(0, split).trim(), durationMs)
+            } else {
+                PlaylistEntry(location, name, null, durationMs)
+            }
+        }
+    }
+}
+
+enum class PlaylistFormat(val extension: String, val mimeType: String) {
+    M3U("m3u", "audio/x-mpegurl"),
+    M3U8("m3u8", "audio/x-mpegurl"),
+    PLS("pls", "audio/x-scpls");
+
+    companion object {
+        fun fromFileName(name: String): PlaylistFormat? {
+            val extension = name.substringAfterLast('.', "")
+            return entries.firstOrNull { it.extension.equals(extension, ignoreCase = true) }
+        }
+    }
+}
+
+/**
+ * Streaming reader for M3U, M3U8 and PLS playlists.
+ *
+ * Entries are produced lazily as the text is read, so memory stays at one [BUFFER_SIZE]
+ * buffer and one line however long the playlist is. Lines longer than [MAX_LINE] are
+ * skipped rather than buffered. Files are decoded as UTF-8 by the caller, which is what
+ * M3U8 requires and what current players write for plain M3U too.
+ *
+ * M3U takes `#EXTINF:<seconds>,<Artist - Title>` for the location on the next line and
+ * ignores other comments. PLS entries are the numbered `FileN`, `TitleN` and `LengthN`
+ * keys; an entry is complete once a key with another number turns up, so files that list
+ * every `FileN` before any `TitleN` import without titles.
+ */
+object PlaylistFiles {
+    const val BUFFER_SIZE = 8192
+    const val MAX_LINE = 4096
+
+    fun entries(reader: Reader, format: PlaylistFormat): Sequence<PlaylistEntry> = when (format) {
+        PlaylistFormat.M3U, PlaylistFormat.M3U8 -> m3uEntries(reader)
+        PlaylistFormat.PLS -> plsEntries(reader)
+    }
+
+    private fun m3uEntries(reader: Reader) = sequence {
+        var display: String? = null
+        var durationMs: Long? = null
+        for (line in lines(reader)) {
+            when {
+                line.startsWith("#EXTINF:", ignoreCase = true) -> {
+                    val comma = line.indexOf(',')
+                    // Extended players put attributes after the duration: -1 tvg-id="..."
+                    val seconds = line.substring(8, if (comma < 0) line.length else comma).trim().substringBefore(' ')
+                    durationMs = seconds.toDoubleOrNull()?.takeIf { it >= 0 }?.let { (it * 1000).toLong() }
+                    display = if (comma < 0) null else line.substring(comma + 1)
+                }
+                line.startsWith("#") -> Unit
+                else -> {
+                    yield(PlaylistEntry.of(line, display, durationMs))
+                    display = null
+                    durationMs = null
+                }
+            }
+        }
+    }
+
+    private fun plsEntries(reader: Reader) = sequence {
+        var number: String? = null
+        var location: String? = null
+        var display: String? = null
+        var durationMs: Long? = null
+        for (line in lines(reader)) {
+            val equals = line.indexOf('=')
+            if (equals < 0) continue
+            val key = line.substring(0, equals).trim().lowercase()
+            val value = line.substring(equals + 1).trim()
+            val name = key.trimEnd { it.isDigit() }
+            if (name != "file" && name != "title" && name != "length") continue
+            val entryNumber = key.substring(name.length)
+            if (entryNumber != number) {
+                location?.let { yield(PlaylistEntry.of(it, display, durationMs)) }
+                number = entryNumber
+                location = null
+                display = null
+                durationMs = null
+            }
+            when (name) {
+                "file" -> location = value
+                "title" -> display = value
+                else -> durationMs = value.toLongOrNull()?.takeIf { it >= 0 }?.let { it * 1000 }
+            }
+        }
+        location?.let { yield(PlaylistEntry.of(it, display, durationMs)) }
+    }
+
+    /**
+     * Trimmed, non-empty lines of [reader], split on \n, \r or \r\n, without a leading
+     * byte order mark.
+     */
+    private fun lines(reader: Reader) = sequence {
+        val buffer = CharArray(BUFFER_SIZE)
+        val line = StringBuilder()
+        var overflow = false
+        var first = true
+        while (true) {
+            val count = reader.read(buffer)
+            if (count < 0) break
+            for (i in 0 until count) {
+                val c = buffer[i]
+                if (c == '\n' || c == '\r') {
+                    val text = line.trim()
+                    if (!overflow && text.isNotEmpty()) yield(text.toString())
+                    line.setLength(0)
+                    overflow = false
+                } else if (first && c == '\uFEFF') {
+                    // Byte order mark; skipped
+                } else if (line.length < MAX_LINE) {
+                    line.append(c)
+                } else {
+                    overflow = true
+                }
+                first = false
+            }
+        }
+        val text = line.trim()
+        if (!overflow && text.isNotEmpty()) yield(text.toString())
+    }
+}
+
+/**
+ * Streaming writer for M3U, M3U8 and PLS playlists, in UTF-8. Locations are written as
+ * absolute paths. Closing the writer finishes the file and closes [output].
+ */
+class PlaylistWriter(output: OutputStream, private val format: PlaylistFormat) : Closeable {
+
+    private val writer = BufferedWriter(OutputStreamWriter(output, Charsets.UTF_8), PlaylistFiles.BUFFER_SIZE)
+    private var count = 0
+
+    init {
+        writer.write(if (format == PlaylistFormat.PLS) "[playlist]\n" else "#EXTM3U\n")
+    }
+
+    fun write(entry: PlaylistEntry) {
+        count++
+        val display = listOfNotNull(entry.artist, entry.title).joinToString(" - ") { oneLine(it) }
+        val seconds = entry.durationMs?.let { it / 1000 } ?: -1
+        if (format == PlaylistFormat.PLS) {
+            writer.write("File$count=${oneLine(entry.location)}\n")
+            if (display.isNotEmpty()) writer.write("Title$count=$display\n")
+            writer.write("Length$count=$seconds\n")
+        } else {
+            writer.write("#EXTINF:$seconds,$display\n")
+            writer.write("${oneLine(entry.location)}\n")
+        }
+    }
+
+    override fun close() {
+        // PLS readers accept the count after the entries, so it needn't be known up front
+        if (format == PlaylistFormat.PLS) writer.write("NumberOfEntries=$count\nVersion=2\n")
+        writer.close()
+    }
+
+    private fun oneLine(text: String) = text.replace('\n', ' ').replace('\r', ' ')
+}
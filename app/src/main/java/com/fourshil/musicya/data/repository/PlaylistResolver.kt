@@ -0,0 +1,103 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Song
+import java.net.URI
+import java.util.Locale
+
+/**
+ * Finds the library songs that playlist file entries refer to.
+ *
+ * An entry is tried, in order, as:
+ * 1. an absolute path, or a path relative to the playlist's own folder;
+ * 2. its last folder and file name, for playlists written on another device or OS
+ *    (`C:\Music\Artist\song.mp3`), then its file name alone;
+ * 3. its artist and title, folded like search queries ([MetadataPool.fold]).
+ *
+ * Paths compare case-insensitively, as on shared storage. A key that fits several
+ * songs resolves to none of them rather than to an arbitrary one. Building takes one
+ * pass over the library; each entry then costs a few hash lookups.
+ */
+class PlaylistResolver(songs: List<Song>) {
+
+    private val byPath = HashMap<String, Long>(songs.size * 2)
+    private val byTail = HashMap<String, Long>(songs.size * 2)
+    private val byName = HashMap<String, Long>(songs.size * 2)
+    private val byTags = HashMap<String, Long>(songs.size * 2)
+
+    init {
+        songs.forEach { song ->
+            val path = song.path.lowercase(Locale.ROOT)
+            add(byPath, path, song.id)
+            add(byTail, tail(path), song.id)
+            add(byName, path.substringAfterLast('/'), song.id)
+            add(byTags, tagKey(song.artist, song.title), song.id)
+        }
+    }
+
+    /**
+     * @param baseDir Folder holding the playlist file, for relative entries, if known
+     * @return The song's ID, or null if no single song matches
+     */
+    fun resolve(entry: PlaylistEntry, baseDir: String? = null): Long? {
+        val path = localPath(entry.location)
+        if (path != null) {
+            val absolute = when {
+                path.startsWith("/") -> normalize(path)
+                baseDir != null -> normalize(baseDir.lowercase(Locale.ROOT) + "/" + path)
+                else -> null
+            }
+            absolute?.let { found(byPath, it) }?.let { return it }
+            found(byTail, tail(path))?.let { return it }
+            found(byName, path.substringAfterLast('/'))?.let { return it }
+        }
+        if (entry.artist != null && entry.title != null) return found(byTags, tagKey(entry.artist, entry.title))
+        return null
+    }
+
+    private fun found(map: Map<String, Long>, key: String): Long? = map[key]?.takeIf { it != AMBIGUOUS }
+
+    private fun add(map: HashMap<String, Long>, key: String, songId: Long) {
+        val existing = map.putIfAbsent(key, songId)
+        if (existing != null && existing != songId) map[key] = AMBIGUOUS
+    }
+
+    private companion object {
+        const val AMBIGUOUS = Long.MIN_VALUE
+
+        /**
+         * [location] as a lowercase path with forward slashes, or null for a URL that isn't
+         * a file. File URLs that don't parse (unescaped spaces, say) are taken as written.
+         */
+        fun localPath(location: String): String? {
+            val path = when {
+                location.startsWith("file:", ignoreCase = true) -> runCatching { URI(location).path }.getOrNull()
+                    ?: location.substringAfter("://", location.substringAfter(':'))
+                location.contains("://") -> return null
+                else -> location
+            }
+            return path.replace('\\', '/').lowercase(Locale.ROOT)
+        }
+
+        /** Resolve "." and ".." segments and repeated slashes. */
+        fun normalize(path: String): String {
+            val segments = ArrayList<String>()
+            for (segment in path.split('/')) {
+                when (segment) {
+                    "", "." -> Unit
+                    ".." -> if (segments.isNotEmpty()) segments.removeAt(segments.lastIndex)
+                    else -> segments += segment
+                }
+            }
+            return segments.joinToString("/", prefix = "/")
+        }
+
+        /** Last folder and file name of a lowercase path. */
+        fun tail(path: String): String {
+            val name = path.lastIndexOf('/')
+            if (name <= 0) return path.removePrefix("/")
+            return path.substring(path.lastIndexOf('/', name - 1) + 1)
+        }
+
+        fun tagKey(artist: String, title: String) = MetadataPool.fold(artist.trim()) + '\u0000' + MetadataPool.fold(title.trim())
+    }
+}
@@ -0,0 +1,181 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.Context
+import android.net.Uri
+import android.os.Build
+import android.os.Environment
+import android.os.storage.StorageManager
+import android.provider.DocumentsContract
+import android.provider.OpenableColumns
+import android.util.Log
+import com.fourshil.musicya.data.db.MusicDao
+import com.fourshil.musicya.data.db.Playlist
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.withContext
+import java.io.IOException
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "PlaylistTransfer"
+
+/**
+ * Progress or outcome of a playlist import.
+ *
+ * @property playlistId Null until the import is done and the playlist exists
+ * @property entries Entries read from the file so far
+ * @property matched Entries found in the library
+ */
+data class PlaylistImport(
+    val playlistId: Long?,
+    val name: String,
+    val entries: Int,
+    val matched: Int,
+    val done: Boolean
+)
+
+/**
+ * Imports playlist files picked through the Storage Access Framework as new playlists,
+ * and exports playlists back out, in any [PlaylistFormat].
+ *
+ * Both directions stream. An import parses and resolves ([PlaylistResolver]) the whole
+ * file first, reporting progress every [CHUNK_SIZE] entries, and only then creates the
+ * playlist with its songs in one transaction, so an unreadable file, revoked access or
+ * cancellation leaves no empty or partial playlist behind. An export reads the
+ * playlist's songs a chunk at a time as it writes them.
+ */
+@Singleton
+class PlaylistTransfer @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val repository: MusicRepository,
+    private val musicDao: MusicDao
+) {
+
+    /**
+     * Import the playlist file at [uri] as a new playlist named after the file.
+     * @return The finished import, or null if the file couldn't be read
+     */
+    suspend fun importPlaylist(uri: Uri, onProgress: (PlaylistImport) -> Unit = {}): PlaylistImport? =
+        withContext(Dispatchers.IO) {
+            try {
+                val fileName = displayName(uri) ?: "Imported playlist"
+                val format = PlaylistFormat.fromFileName(fileName)
+                    ?: if (context.contentResolver.getType(uri)?.contains("scpls") == true) PlaylistFormat.PLS else PlaylistFormat.M3U
+                val resolver = PlaylistResolver(repository.getAllSongs())
+                val input = context.contentResolver.openInputStream(uri) ?: return@withContext null
+                val name = fileName.substringBeforeLast('.')
+                input.bufferedReader(Charsets.UTF_8).use { reader ->
+                    importEntries(musicDao, name, PlaylistFiles.entries(reader, format), resolver, baseDir(uri), onProgress)
+                }
+            } catch (e: IOException) {
+                Log.e(TAG, "Error importing $uri", e)
+                null
+            } catch (e: SecurityException) {
+                Log.e(TAG, "No access to $uri", e)
+                null
+            }
+        }
+
+    /**
+     * Write the songs of [playlistId] to [uri], in the format its file name asks for
+     * (M3U8 if it doesn't say). Songs no longer in the library are left out.
+     * @return Songs written, or null if the file couldn't be written
+     */
+    suspend fun exportPlaylist(playlistId: Long, uri: Uri): Int? = withContext(Dispatchers.IO) {
+        try {
+            val format = displayName(uri)?.let { PlaylistFormat.fromFileName(it) } ?: PlaylistFormat.M3U8
+            val songIds = musicDao.getPlaylistSongIdsSync(playlistId)
+            val output = context.contentResolver.openOutputStream(uri, "wt") ?: return@withContext null
+            var written = 0
+            PlaylistWriter(output, format).use { writer ->
+                for (chunk in songIds.chunked(CHUNK_SIZE)) {
+                    ensureActive()
+                    repository.getSongsByIds(chunk).forEach {
+                        writer.write(PlaylistEntry.of(it))
+                        written++
+                    }
+                }
+            }
+            written
+        } catch (e: IOException) {
+            Log.e(TAG, "Error exporting playlist $playlistId to $uri", e)
+            null
+        } catch (e: SecurityException) {
+            Log.e(TAG, "No access to $uri", e)
+            null
+        }
+    }
+
+    private fun displayName(uri: Uri): String? =
+        context.contentResolver.query(uri, arrayOf(OpenableColumns.DISPLAY_NAME), null, null, null)?.use { cursor ->
+            if (cursor.moveToFirst()) cursor.getString(0) else null
+        } ?: uri.lastPathSegment?.substringAfterLast('/')
+
+    /**
+     * Folder of a file picked from shared storage, for resolving relative entries. Other
+     * providers don't expose paths, so their relative entries resolve by file name.
+     */
+    private fun baseDir(uri: Uri): String? {
+        if (uri.authority != EXTERNAL_STORAGE_AUTHORITY || !DocumentsContract.isDocumentUri(context, uri)) return null
+        // Document IDs look like "primary:Music/mix.m3u" or "1A2B-3C4D:mix.m3u"
+        val id = DocumentsContract.getDocumentId(uri)
+        val root = volumeRoot(id.substringBefore(':')) ?: return null
+        val folder = id.substringAfter(':', "").substringBeforeLast('/', "")
+        return if (folder.isEmpty()) root else "$root/$folder"
+    }
+
+    /**
+     * Mount point of a shared storage volume: "primary" is the current user's own
+     * storage (/storage/emulated/<user>), others are removable volumes named by UUID.
+     */
+    private fun volumeRoot(volume: String): String? {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            val storage = context.getSystemService(StorageManager::class.java)
+            val match = if (volume == "primary") {
+                storage.primaryStorageVolume
+            } else {
+                storage.storageVolumes.firstOrNull { it.uuid.equals(volume, ignoreCase = true) }
+            }
+            return match?.directory?.path
+        }
+        @Suppress("DEPRECATION")
+        return if (volume == "primary") Environment.getExternalStorageDirectory().path else "/storage/$volume"
+    }
+
+    companion object {
+        /** Entries per progress report and cancellation check. */
+        const val CHUNK_SIZE = 500
+
+        private const val EXTERNAL_STORAGE_AUTHORITY = "com.android.externalstorage.documents"
+
+        /**
+         * Resolve [entries], then create a playlist named [name] holding the songs found.
+         * Only the resolved IDs are kept while reading, a few bytes per entry. Room binds
+         * each inserted row on its own, so the single insert stays clear of SQLite's bind
+         * variable limit however long the playlist is.
+         */
+        suspend fun importEntries(
+            musicDao: MusicDao,
+            name: String,
+            entries: Sequence<PlaylistEntry>,
+            resolver: PlaylistResolver,
+            baseDir: String?,
+            onProgress: (PlaylistImport) -> Unit
+        ): PlaylistImport = withContext(Dispatchers.IO) {
+            val songIds = ArrayList<Long>()
+            var read = 0
+            for (entry in entries) {
+                read++
+                resolver.resolve(entry, baseDir)?.let { songIds += it }
+                if (read % CHUNK_SIZE == 0) {
+                    ensureActive()
+                    onProgress(PlaylistImport(null, name, read, songIds.size, done = false))
+                }
+            }
+            ensureActive()
+            val playlistId = musicDao.createPlaylistWithSongs(Playlist(name = name), songIds)
+            PlaylistImport(playlistId, name, read, songIds.size, done = true).also(onProgress)
+        }
+    }
+}
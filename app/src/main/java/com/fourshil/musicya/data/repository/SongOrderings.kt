@@ -0,0 +1,237 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.model.SongSortOrder
+import java.text.CollationKey
+
+/**
+ * Sort permutations of a snapshot's songs, one [IntArray] of song positions per
+ * [SongSortOrder], so screens and paging read a sorted view instead of sorting again.
+ *
+ * Text orders compare locale [CollationKey]s; numeric orders compare the raw values. Ties
+ * break on the song ID in the ordering's direction, as in [SongSortOrder]. Artist and album
+ * keys come from [collationKey] (normally [MetadataPool.collationKey]), which caches them
+ * per distinct value. Titles are nearly all distinct, so pooling them would keep a key per
+ * title alive forever; their keys come from [titleKey] and are cached here instead, one per
+ * song position, and carried across patches with the permutations.
+ *
+ * A permutation is built on first use and then carried across patches by [patch], which
+ * remaps the surviving positions and binary-searches the new songs into place instead
+ * of sorting again. Instances are immutable apart from that lazy build, which is
+ * synchronized.
+ *
+ * @property songs The snapshot's songs, in library order; permutations index into this list
+ */
+class SongOrderings(
+    val songs: List<Song>,
+    private val collationKey: (String) -> CollationKey,
+    private val titleKey: (String) -> CollationKey
+) {
+    private val permutations = arrayOfNulls<IntArray>(SongSortOrder.entries.size)
+
+    // Filled on first use; racing fills compute equal keys, so they need no lock
+    private val titleKeys = arrayOfNulls<CollationKey>(songs.size)
+
+    /**
+     * Positions in [songs] in [order]. Built on first call; don't modify the result.
+     */
+    fun permutation(order: SongSortOrder): IntArray = synchronized(permutations) {
+        permutations[order.ordinal] ?: build(order).also { permutations[order.ordinal] = it }
+    }
+
+    /**
+     * [songs] in [order], as a read-only view over the permutation.
+     */
+    fun sorted(order: SongSortOrder): List<Song> {
+        val permutation = permutation(order)
+        return object : AbstractList<Song>() {
+            override val size: Int get() = permutation.size
+            override fun get(index: Int): Song = songs[permutation[index]]
+        }
+    }
+
+    /**
+     * One page of [sorted] songs next to [key], in display order, following the same
+     * [SongPageKey.Mode] rules as [SongPageQuery]. A null key returns the first page.
+     * A key whose song was removed still works, since it's located by value.
+     */
+    fun page(order: SongSortOrder, key: SongPageKey?, limit: Int): List<Song> {
+        if (songs.isEmpty()) return emptyList()
+        val view = sorted(order)
+        if (key == null) return view.subList(0, minOf(limit, view.size)).toList()
+        val permutation = permutation(order)
+        val comparison = keyComparison(order, key)
+        return when (key.mode) {
+            SongPageKey.Mode.AFTER -> {
+                val start = boundary(permutation) { comparison(it) > 0 }
+                view.subList(start, minOf(start + limit, view.size)).toList()
+            }
+            SongPageKey.Mode.FROM -> {
+                val start = boundary(permutation) { comparison(it) >= 0 }
+                view.subList(start, minOf(start + limit, view.size)).toList()
+            }
+            SongPageKey.Mode.BEFORE -> {
+                val end = boundary(permutation) { comparison(it) >= 0 }
+                view.subList(maxOf(0, end - limit), end).toList()
+            }
+        }
+    }
+
+    /**
+     * Orderings for [patched], the song list after a patch, reusing every permutation
+     * already built here.
+     *
+     * @param touchedIds IDs removed or replaced by the patch; their old positions are dropped
+     * @param upsertedIds IDs whose rows in [patched] are new or replaced
+     */
+    fun patch(patched: List<Song>, touchedIds: Set<Long>, upsertedIds: Set<Long>): SongOrderings {
+        val next = SongOrderings(patched, collationKey, titleKey)
+        val built = synchronized(permutations) { permutations.copyOf() }
+        if (built.all { it == null }) return next
+
+        // Kept songs keep their relative order in the merged list, so one walk maps old to new positions
+        val remap = IntArray(songs.size) { -1 }
+        val inserted = ArrayList<Int>()
+        var old = 0
+        patched.forEachIndexed { position, song ->
+            if (song.id in upsertedIds) {
+                inserted += position
+                return@forEachIndexed
+            }
+            while (songs[old].id in touchedIds) old++
+            remap[old++] = position
+        }
+
+        for (position in songs.indices) {
+            val mapped = remap[position]
+            if (mapped >= 0) next.titleKeys[mapped] = titleKeys[position]
+        }
+        for (order in SongSortOrder.entries) {
+            val previous = built[order.ordinal] ?: continue
+            next.permutations[order.ordinal] = next.merge(order, previous, remap, inserted)
+        }
+        return next
+    }
+
+    /**
+     * [previous] mapped through [remap] with the songs at [inserted] positions added in order.
+     */
+    private fun merge(order: SongSortOrder, previous: IntArray, remap: IntArray, inserted: List<Int>): IntArray {
+        var kept = 0
+        val survivors = IntArray(previous.size)
+        for (position in previous) {
+            val mapped = remap[position]
+            if (mapped >= 0) survivors[kept++] = mapped
+        }
+        if (inserted.isEmpty()) return survivors.copyOf(kept)
+
+        val comparator = comparator(order)
+        val additions = inserted.sortedWith(comparator)
+        val result = IntArray(kept + additions.size)
+        var from = 0
+        var to = 0
+        for (addition in additions) {
+            // First survivor that sorts after the addition, searched from where the last one went
+            var low = from
+            var high = kept
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (comparator.compare(survivors[mid], addition) < 0) low = mid + 1 else high = mid
+            }
+            System.arraycopy(survivors, from, result, to, low - from)
+            to += low - from
+            from = low
+            result[to++] = addition
+        }
+        System.arraycopy(survivors, from, result, to, kept - from)
+        return result
+    }
+
+    private fun build(order: SongSortOrder): IntArray =
+        songs.indices.sortedWith(comparator(order)).toIntArray()
+
+    /**
+     * Compares positions in [songs]. Text keys are resolved at most once per position,
+     * so a sort does one cache lookup per song rather than per comparison.
+     */
+    private fun comparator(order: SongSortOrder): Comparator<Int> {
+        val direction = if (order.descending) -1 else 1
+        if (order.isNumeric) {
+            val values = LongArray(songs.size) { numericValue(order, songs[it]) }
+            return Comparator { a, b ->
+                val primary = values[a].compareTo(values[b])
+                direction * (if (primary != 0) primary else songs[a].id.compareTo(songs[b].id))
+            }
+        }
+        if (order == SongSortOrder.TITLE) {
+            return Comparator { a, b ->
+                val primary = titleKeyAt(a).compareTo(titleKeyAt(b))
+                direction * (if (primary != 0) primary else songs[a].id.compareTo(songs[b].id))
+            }
+        }
+        val keys = arrayOfNulls<CollationKey>(songs.size)
+        fun keyAt(position: Int) = keys[position] ?: collationKey(order.keyOf(songs[position])).also { keys[position] = it }
+        return Comparator { a, b ->
+            val primary = keyAt(a).compareTo(keyAt(b))
+            direction * (if (primary != 0) primary else songs[a].id.compareTo(songs[b].id))
+        }
+    }
+
+    /**
+     * Compares the song at a position with [key], in display order.
+     */
+    private fun keyComparison(order: SongSortOrder, key: SongPageKey): (Int) -> Int {
+        val direction = if (order.descending) -1 else 1
+        if (order.isNumeric) {
+            val value = key.sortValue.toLongOrNull() ?: 0L
+            return { position ->
+                val song = songs[position]
+                val primary = numericValue(order, song).compareTo(value)
+                direction * (if (primary != 0) primary else song.id.compareTo(key.id))
+            }
+        }
+        if (order == SongSortOrder.TITLE) {
+            val value = titleKey(key.sortValue)
+            return { position ->
+                val primary = titleKeyAt(position).compareTo(value)
+                direction * (if (primary != 0) primary else songs[position].id.compareTo(key.id))
+            }
+        }
+        val value = collationKey(key.sortValue)
+        return { position ->
+            val song = songs[position]
+            val primary = collationKey(order.keyOf(song)).compareTo(value)
+            direction * (if (primary != 0) primary else song.id.compareTo(key.id))
+        }
+    }
+
+    private fun titleKeyAt(position: Int): CollationKey =
+        titleKeys[position] ?: titleKey(songs[position].title).also { titleKeys[position] = it }
+
+    /**
+     * Index of the first entry of [permutation] for which [isAtOrPast] holds (which is
+     * monotonic along the permutation), or its size if none does.
+     */
+    private inline fun boundary(permutation: IntArray, isAtOrPast: (Int) -> Boolean): Int {
+        var low = 0
+        var high = permutation.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (isAtOrPast(permutation[mid])) high = mid else low = mid + 1
+        }
+        return low
+    }
+
+    private fun numericValue(order: SongSortOrder, song: Song): Long = when (order) {
+        SongSortOrder.DATE_ADDED -> song.dateAdded
+        SongSortOrder.DURATION -> song.duration
+        SongSortOrder.SIZE -> song.size
+        else -> throw IllegalArgumentException("$order is not numeric")
+    }
+
+    companion object {
+        private val NO_KEYS: (String) -> CollationKey = { throw IllegalStateException("No songs to compare") }
+
+        val EMPTY = SongOrderings(emptyList(), NO_KEYS, NO_KEYS)
+    }
+}
@@ -0,0 +1,82 @@
+package com.fourshil.musicya.data.repository
+
+import android.provider.MediaStore
+import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.model.SongSortOrder
+
+/**
+ * Boundary of a keyset page: the sort value and ID of the row next to the page.
+ *
+ * [Mode.AFTER] and [Mode.BEFORE] are exclusive and used for append/prepend.
+ * [Mode.FROM] is inclusive and used as a refresh key, so a refresh restarts at
+ * the same row instead of at an offset that may have shifted.
+ */
+data class SongPageKey(
+    val sortValue: String,
+    val id: Long,
+    val mode: Mode
+) {
+    enum class Mode { AFTER, BEFORE, FROM }
+
+    companion object {
+        fun after(song: Song, order: SongSortOrder) = SongPageKey(order.keyOf(song), song.id, Mode.AFTER)
+        fun before(song: Song, order: SongSortOrder) = SongPageKey(order.keyOf(song), song.id, Mode.BEFORE)
+        fun from(song: Song, order: SongSortOrder) = SongPageKey(order.keyOf(song), song.id, Mode.FROM)
+    }
+}
+
+/**
+ * Builds keyset (seek) queries over the MediaStore audio table.
+ *
+ * Instead of `LIMIT n OFFSET k`, which makes SQLite produce and discard k rows for
+ * every page, each page starts from `(sortExpr, _id)` of its neighbour:
+ *
+ * ```
+ * WHERE sortExpr > :value OR (sortExpr = :value AND _id > :id)
+ * ORDER BY sortExpr, _id
+ * ```
+ *
+ * Sort expressions apply the same null fallbacks as the row mapping, so a key taken
+ * from a [Song] always matches the row it came from.
+ */
+object SongPageQuery {
+
+    data class Query(
+        val selection: String?,
+        val selectionArgs: List<String>,
+        val sortOrder: String,
+        /** True if rows come back in reverse display order (prepend pages). */
+        val reversed: Boolean
+    )
+
+    fun build(order: SongSortOrder, key: SongPageKey?): Query {
+        val expr = sortExpression(order)
+        val forward = key?.mode != SongPageKey.Mode.BEFORE
+        val ascending = forward != order.descending
+        val direction = if (ascending) "ASC" else "DESC"
+        val sortOrder = "$expr $direction, ${MediaStore.Audio.Media._ID} $direction"
+        if (key == null) {
+            return Query(selection = null, selectionArgs = emptyList(), sortOrder = sortOrder, reversed = false)
+        }
+
+        val cmp = if (ascending) ">" else "<"
+        val idCmp = if (key.mode == SongPageKey.Mode.FROM) "$cmp=" else cmp
+        val param = if (order.isNumeric) "CAST(? AS INTEGER)" else "?"
+        val selection = "($expr $cmp $param OR ($expr = $param AND ${MediaStore.Audio.Media._ID} $idCmp ?))"
+        return Query(
+            selection = selection,
+            selectionArgs = listOf(key.sortValue, key.sortValue, key.id.toString()),
+            sortOrder = sortOrder,
+            reversed = !forward
+        )
+    }
+
+    fun sortExpression(order: SongSortOrder): String = when (order) {
+        SongSortOrder.TITLE -> "IFNULL(${MediaStore.Audio.Media.TITLE}, 'Unknown') COLLATE NOCASE"
+        SongSortOrder.ARTIST -> "IFNULL(${MediaStore.Audio.Media.ARTIST}, 'Unknown Artist') COLLATE NOCASE"
+        SongSortOrder.ALBUM -> "IFNULL(${MediaStore.Audio.Media.ALBUM}, 'Unknown Album') COLLATE NOCASE"
+        SongSortOrder.DATE_ADDED -> "IFNULL(${MediaStore.Audio.Media.DATE_ADDED}, 0)"
+        SongSortOrder.DURATION -> "IFNULL(${MediaStore.Audio.Media.DURATION}, 0)"
+        SongSortOrder.SIZE -> "IFNULL(${MediaStore.Audio.Media.SIZE}, 0)"
+    }
+}
@@ -3,29 +3,54 @@ package com.fourshil.musicya.data.repository
 import androidx.paging.PagingSource
 import androidx.paging.PagingState
 import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.model.SongSortOrder
 
+/**
+ * Keyset-paged songs in [sortOrder].
+ *
+ * Each page is keyed by the row next to it rather than by an offset, so loading page
+ * n costs the same as page 0 and inserts/deletes between loads don't shift or duplicate rows.
+ *
+ * Keys only make sense within one ordering, so a source pages the library snapshot
+ * current when it was created, and every page comes from that snapshot's ordering (or
+ * from MediaStore, if it wasn't loaded yet). Invalidate the source once a new snapshot
+ * is published.
+ */
 class SongsPagingSource(
-    private val repository: MusicRepository
-) : PagingSource<Int, Song>() {
+    private val repository: MusicRepository,
+    private val sortOrder: SongSortOrder = SongSortOrder.TITLE
+) : PagingSource<SongPageKey, Song>() {
 
-    override fun getRefreshKey(state: PagingState<Int, Song>): Int? {
-        return state.anchorPosition?.let { anchorPosition ->
-            val anchorPage = state.closestPageToPosition(anchorPosition)
-            anchorPage?.prevKey?.plus(1) ?: anchorPage?.nextKey?.minus(1)
-        }
+    private val snapshot = repository.library.value
+
+    override fun getRefreshKey(state: PagingState<SongPageKey, Song>): SongPageKey? {
+        val anchorPosition = state.anchorPosition ?: return null
+        // Start the refreshed window a little above the anchor so it stays centred on screen
+        val start = (anchorPosition - state.config.initialLoadSize / 2).coerceAtLeast(0)
+        return state.closestItemToPosition(start)?.let { SongPageKey.from(it, sortOrder) }
     }
 
-    override suspend fun load(params: LoadParams<Int>): LoadResult<Int, Song> {
-        val page = params.key ?: 0
+    override suspend fun load(params: LoadParams<SongPageKey>): LoadResult<SongPageKey, Song> {
+        val key = params.key
         val pageSize = params.loadSize
 
         return try {
-            val songs = repository.getSongsPaged(offset = page * pageSize, limit = pageSize)
-            
+            val songs = repository.getSongsPage(snapshot, sortOrder, key, pageSize)
+            val isPrepend = params is LoadParams.Prepend
+            val reachedEnd = songs.size < pageSize
+
             LoadResult.Page(
                 data = songs,
-                prevKey = if (page == 0) null else page - 1,
-                nextKey = if (songs.isEmpty() || songs.size < pageSize) null else page + 1
+                prevKey = when {
+                    songs.isEmpty() || key == null -> null
+                    isPrepend && reachedEnd -> null
+                    else -> SongPageKey.before(songs.first(), sortOrder)
+                },
+                nextKey = when {
+                    songs.isEmpty() -> null
+                    !isPrepend && reachedEnd -> null
+                    else -> SongPageKey.after(songs.last(), sortOrder)
+                }
             )
         } catch (e: Exception) {
             LoadResult.Error(e)
@@ -0,0 +1,327 @@
+package com.fourshil.musicya.data.repository
+
+/**
+ * Substring search over documents made of up to four text fields, via an inverted index
+ * from character n-grams (trigrams, plus bigrams and single characters for short
+ * queries) to the slots that contain them.
+ *
+ * Fields are expected to be normalized already (see [MetadataPool.fold]); queries must be
+ * normalized the same way. Posting lists are kept per field, as sorted [IntArray]s while
+ * sparse and as bitsets once they cover more than 1/32 of the slots, so the common
+ * n-grams of a large library cost a few KB each and intersect a word at a time.
+ *
+ * A query's candidates in a field are the intersection of its trigrams' postings (or the
+ * single n-gram's postings for queries of up to three characters, which is exact).
+ * Matches rank by where the query starts (start of the field, start of a word, anywhere
+ * else), then by field (lower index first), then by slot. Extra postings for n-grams at
+ * the start of a field or word let ranking stop once it has enough results, without
+ * checking every candidate.
+ *
+ * [matches], [filter] and [rank] work on complete match sets instead: every matching
+ * slot, checked, so that a longer query containing an earlier one can filter the earlier
+ * matches rather than search again. [rank] orders slots exactly as [search] would.
+ *
+ * Documents get increasing slots, so posting lists stay sorted by appending. [remove]
+ * only clears a slot's live bit; callers rebuild once [deadCount] gets large.
+ * Not thread-safe.
+ *
+ * @param fieldCount Number of fields per document, at most four
+ */
+class TrigramIndex(private val fieldCount: Int) {
+
+    init {
+        require(fieldCount in 1..MAX_FIELDS) { "Between 1 and $MAX_FIELDS fields, got $fieldCount" }
+    }
+
+    /**
+     * @property slots Matching slots in rank order, at most the requested limit
+     * @property total Number of matching slots. For queries over three characters this
+     *   counts trigram candidates without checking each one, so it can overcount a field
+     *   that holds every trigram of the query but not the query itself; [slots] are
+     *   always checked.
+     */
+    class Hits(val slots: IntArray, val total: Int) {
+        companion object {
+            val NONE = Hits(IntArray(0), 0)
+        }
+    }
+
+    private val documents = ArrayList<Array<String>?>()
+    private val postings = HashMap<Long, Postings>()
+    private var live = LongArray(1)
+
+    /** Slots ever handed out, live or not. */
+    val slotCount: Int get() = documents.size
+
+    var deadCount = 0
+        private set
+
+    /**
+     * Index a document.
+     * @return Its slot
+     */
+    fun add(fields: Array<String>): Int {
+        require(fields.size == fieldCount) { "Expected $fieldCount fields, got ${fields.size}" }
+        val slot = documents.size
+        documents.add(fields)
+        // Searches read (slot count / 64) + 1 words, one past the last slot's word when
+        // the count is a multiple of 64, so keep that many
+        val words = ((slot + 1) ushr 6) + 1
+        if (words > live.size) live = live.copyOf(maxOf(words, live.size * 2))
+        live[slot ushr 6] = live[slot ushr 6] or (1L shl slot)
+        fields.forEachIndexed { field, text ->
+            for (start in text.indices) {
+                val wordStart = start == 0 || !text[start - 1].isLetterOrDigit()
+                for (length in 1..minOf(GRAM, text.length - start)) {
+                    val key = key(text, start, length, field)
+                    post(key, slot)
+                    if (wordStart) post(key or WORD_START, slot)
+                    if (start == 0) post(key or FIELD_START, slot)
+                }
+            }
+        }
+        return slot
+    }
+
+    /**
+     * Drop [slot] from results. Its postings stay until the next rebuild.
+     */
+    fun remove(slot: Int) {
+        if (documents[slot] == null) return
+        documents[slot] = null
+        live[slot ushr 6] = live[slot ushr 6] and (1L shl slot).inv()
+        deadCount++
+    }
+
+    /**
+     * Slots whose fields contain [query], best first.
+     */
+    fun search(query: String, limit: Int): Hits {
+        if (query.isEmpty() || documents.isEmpty()) return Hits.NONE
+        val words = (documents.size ushr 6) + 1
+        val candidates = arrayOfNulls<LongArray>(fieldCount)
+        val matched = LongArray(words)
+        for (field in 0 until fieldCount) {
+            val bits = candidates(query, field, words) ?: continue
+            for (w in 0 until words) {
+                bits[w] = bits[w] and live[w]
+                matched[w] = matched[w] or bits[w]
+            }
+            candidates[field] = bits
+        }
+        val total = matched.sumOf { java.lang.Long.bitCount(it) }
+        if (total == 0) return Hits.NONE
+        return Hits(rank(query, candidates, words, limit), total)
+    }
+
+    /**
+     * Every live slot whose fields contain [query], in slot order. Unlike [search] this
+     * checks each trigram candidate, so it's exact but costs time in the number of
+     * candidates rather than the limit.
+     */
+    fun matches(query: String): IntArray {
+        if (query.isEmpty() || documents.isEmpty()) return IntArray(0)
+        val words = (documents.size ushr 6) + 1
+        val matched = LongArray(words)
+        for (field in 0 until fieldCount) {
+            val bits = candidates(query, field, words) ?: continue
+            for (w in 0 until words) matched[w] = matched[w] or (bits[w] and live[w])
+        }
+        val result = IntArray(matched.sumOf { java.lang.Long.bitCount(it) })
+        var count = 0
+        for (w in 0 until words) {
+            var pending = matched[w]
+            while (pending != 0L) {
+                val slot = (w shl 6) + java.lang.Long.numberOfTrailingZeros(pending)
+                pending = pending and (pending - 1)
+                if (query.length <= GRAM || documents[slot]!!.any { it.contains(query) }) result[count++] = slot
+            }
+        }
+        return result.copyOf(count)
+    }
+
+    /**
+     * The live slots of [slots] whose fields contain [query], in the same order.
+     */
+    fun filter(slots: IntArray, query: String): IntArray {
+        val result = IntArray(slots.size)
+        var count = 0
+        for (slot in slots) {
+            val fields = documents[slot] ?: continue
+            if (fields.any { it.contains(query) }) result[count++] = slot
+        }
+        return result.copyOf(count)
+    }
+
+    /**
+     * The best [limit] of [slots], which must all contain [query], in [search] order.
+     */
+    fun rank(slots: IntArray, query: String, limit: Int): IntArray {
+        // (position, field) bucket in the high half, slot in the low
+        val keyed = LongArray(slots.size)
+        slots.forEachIndexed { i, slot ->
+            val fields = documents[slot]!!
+            var bucket = Int.MAX_VALUE
+            for (field in 0 until fieldCount) {
+                val text = fields[field]
+                val position = when {
+                    text.startsWith(query) -> 0
+                    occursAtWordStart(text, query) -> 1
+                    text.contains(query) -> 2
+                    else -> continue
+                }
+                bucket = minOf(bucket, position * fieldCount + field)
+            }
+            keyed[i] = (bucket.toLong() shl 32) or slot.toLong()
+        }
+        keyed.sort()
+        return IntArray(minOf(limit, keyed.size)) { keyed[it].toInt() }
+    }
+
+    /**
+     * Bitset of the live and dead slots whose [field] holds every n-gram of [query], or
+     * null if none does.
+     */
+    private fun candidates(query: String, field: Int, words: Int): LongArray? {
+        if (query.length <= GRAM) {
+            return postings[key(query, 0, query.length, field)]?.toBits(words)
+        }
+        val lists = ArrayList<Postings>(query.length - GRAM + 1)
+        for (start in 0..query.length - GRAM) {
+            lists += postings[key(query, start, GRAM, field)] ?: return null
+        }
+        lists.sortBy { it.size }
+        val bits = lists[0].toBits(words)
+        for (i in 1 until lists.size) lists[i].retainIn(bits)
+        return bits
+    }
+
+    /**
+     * The best [limit] matches, walking (position, field) buckets in rank order and each
+     * bucket in slot order, so it stops as soon as it has enough.
+     */
+    private fun rank(query: String, candidates: Array<LongArray?>, words: Int, limit: Int): IntArray {
+        if (limit <= 0) return IntArray(0)
+        val result = IntArray(limit)
+        var count = 0
+        val emitted = LongArray(words)
+        val prefix = minOf(query.length, GRAM)
+        for (position in 0..2) {
+            for (field in 0 until fieldCount) {
+                val inField = candidates[field] ?: continue
+                val bucket = when (position) {
+                    0 -> postings[key(query, 0, prefix, field) or FIELD_START]?.toBits(words)
+                    1 -> postings[key(query, 0, prefix, field) or WORD_START]?.toBits(words)
+                    else -> inField
+                } ?: continue
+                for (w in 0 until words) {
+                    var pending = bucket[w] and inField[w] and emitted[w].inv()
+                    while (pending != 0L) {
+                        val slot = (w shl 6) + java.lang.Long.numberOfTrailingZeros(pending)
+                        pending = pending and (pending - 1)
+                        val text = documents[slot]!![field]
+                        val matches = when (position) {
+                            0 -> text.startsWith(query)
+                            1 -> occursAtWordStart(text, query)
+                            else -> query.length <= GRAM || text.contains(query)
+                        }
+                        if (!matches) continue
+                        emitted[w] = emitted[w] or (1L shl slot)
+                        result[count++] = slot
+                        if (count == limit) return result
+                    }
+                }
+            }
+        }
+        return result.copyOf(count)
+    }
+
+    private fun occursAtWordStart(text: String, query: String): Boolean {
+        var offset = text.indexOf(query)
+        while (offset >= 0) {
+            if (offset == 0 || !text[offset - 1].isLetterOrDigit()) return true
+            offset = text.indexOf(query, offset + 1)
+        }
+        return false
+    }
+
+    private fun post(key: Long, slot: Int) {
+        postings.getOrPut(key) { Postings() }.add(slot, documents.size)
+    }
+
+    /**
+     * Slots holding one n-gram: a sorted [IntArray] until it's denser than 1/32 of the
+     * slots, then a bitset, whichever is smaller.
+     */
+    private class Postings {
+        private var ids: IntArray? = IntArray(4)
+        private var bits: LongArray? = null
+        var size = 0
+            private set
+
+        fun add(slot: Int, slotCount: Int) {
+            bits?.let { dense ->
+                val word = slot ushr 6
+                val grown = if (word < dense.size) dense else dense.copyOf(maxOf(dense.size * 2, word + 1)).also { bits = it }
+                if (grown[word] and (1L shl slot) != 0L) return
+                grown[word] = grown[word] or (1L shl slot)
+                size++
+                return
+            }
+            var sparse = ids!!
+            // A slot can repeat an n-gram within and across a field's words
+            if (size > 0 && sparse[size - 1] == slot) return
+            if (size == sparse.size) sparse = sparse.copyOf(size + (size shr 1) + 1).also { ids = it }
+            sparse[size++] = slot
+            if (size > DENSE_MIN && size.toLong() * 32 > slotCount) {
+                val dense = LongArray((slotCount ushr 6) + 1)
+                for (i in 0 until size) dense[sparse[i] ushr 6] = dense[sparse[i] ushr 6] or (1L shl sparse[i])
+                bits = dense
+                ids = null
+            }
+        }
+
+        fun toBits(words: Int): LongArray {
+            val out = LongArray(words)
+            bits?.let { dense ->
+                System.arraycopy(dense, 0, out, 0, minOf(dense.size, words))
+                return out
+            }
+            val sparse = ids!!
+            for (i in 0 until size) out[sparse[i] ushr 6] = out[sparse[i] ushr 6] or (1L shl sparse[i])
+            return out
+        }
+
+        /** Clear every bit of [target] that isn't in this list. */
+        fun retainIn(target: LongArray) {
+            bits?.let { dense ->
+                for (w in target.indices) target[w] = target[w] and (if (w < dense.size) dense[w] else 0L)
+                return
+            }
+            val sparse = ids!!
+            val kept = LongArray(target.size)
+            for (i in 0 until size) {
+                val word = sparse[i] ushr 6
+                kept[word] = kept[word] or (target[word] and (1L shl sparse[i]))
+            }
+            System.arraycopy(kept, 0, target, 0, target.size)
+        }
+    }
+
+    private companion object {
+        const val MAX_FIELDS = 4
+        const val GRAM = 3
+        const val DENSE_MIN = 64
+
+        // Key layout: the n-gram length followed by its (up to three) 16-bit chars fills at
+        // most 50 bits; then the field in bits 52-53 and the start-of-word / start-of-field tags
+        const val WORD_START = 1L shl 54
+        const val FIELD_START = 1L shl 55
+
+        fun key(text: String, start: Int, length: Int, field: Int): Long {
+            var key = length.toLong()
+            for (i in start until start + length) key = (key shl 16) or text[i].code.toLong()
+            return key or (field.toLong() shl 52)
+        }
+    }
+}
@@ -5,7 +5,11 @@ import androidx.room.Room
 import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
 import com.fourshil.musicya.data.db.AppDatabase
+import com.fourshil.musicya.data.db.LibraryDao
 import com.fourshil.musicya.data.db.MusicDao
+import com.fourshil.musicya.data.db.PlayEvent
+import com.fourshil.musicya.data.db.PlayStats
+import com.fourshil.musicya.data.db.PlaylistOrder
 import com.fourshil.musicya.data.repository.IMusicRepository
 import com.fourshil.musicya.data.repository.MusicRepository
 import dagger.Binds
@@ -49,6 +53,178 @@ object DatabaseModule {
         }
     }
     
+    /**
+     * Migration from version 3 to 4.
+     * v4 added the persistent MediaStore library index and its sync state.
+     */
+    private val MIGRATION_3_4 = object : Migration(3, 4) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL(
+                """
+                CREATE TABLE IF NOT EXISTS `library_songs` (
+                    `id` INTEGER NOT NULL,
+                    `title` TEXT NOT NULL,
+                    `artist` TEXT NOT NULL,
+                    `album` TEXT NOT NULL,
+                    `albumId` INTEGER NOT NULL,
+                    `duration` INTEGER NOT NULL,
+                    `path` TEXT NOT NULL,
+                    `dateAdded` INTEGER NOT NULL,
+                    `dateModified` INTEGER NOT NULL,
+                    `size` INTEGER NOT NULL,
+                    PRIMARY KEY(`id`)
+                )
+                """.trimIndent()
+            )
+            db.execSQL(
+                """
+                CREATE TABLE IF NOT EXISTS `library_sync_state` (
+                    `volumeName` TEXT NOT NULL,
+                    `mediaStoreVersion` TEXT,
+                    `generation` INTEGER NOT NULL,
+                    `dateModifiedWatermark` INTEGER NOT NULL,
+                    `lastSyncedAt` INTEGER NOT NULL,
+                    PRIMARY KEY(`volumeName`)
+                )
+                """.trimIndent()
+            )
+        }
+    }
+    
+    /**
+     * Migration from version 4 to 5.
+     * v5 added the release year to the library index. Existing rows have no year yet,
+     * so the sync state is dropped to make the next sync rebuild the index.
+     */
+    private val MIGRATION_4_5 = object : Migration(4, 5) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `library_songs` ADD COLUMN `year` INTEGER NOT NULL DEFAULT 0")
+            db.execSQL("DELETE FROM `library_sync_state`")
+        }
+    }
+    
+    /**
+     * Migration from version 5 to 6.
+     * v6 tracks the MediaStore volume of each indexed song. Existing rows don't know
+     * their volume, so the index is cleared and rebuilt by the next sync.
+     */
+    private val MIGRATION_5_6 = object : Migration(5, 6) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `library_songs` ADD COLUMN `volumeName` TEXT NOT NULL DEFAULT 'external'")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_library_songs_volumeName` ON `library_songs` (`volumeName`)")
+            db.execSQL("DELETE FROM `library_songs`")
+            db.execSQL("DELETE FROM `library_sync_state`")
+        }
+    }
+    
+    /**
+     * Migration from version 6 to 7.
+     * v7 added the genre to the library index and the `library_search` FTS4 table over
+     * it. Both are filled by a rescan, so the index is cleared as in v6.
+     */
+    private val MIGRATION_6_7 = object : Migration(6, 7) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `library_songs` ADD COLUMN `genre` TEXT NOT NULL DEFAULT ''")
+            db.execSQL(
+                """
+                CREATE VIRTUAL TABLE IF NOT EXISTS `library_search` USING FTS4(
+                    `title` TEXT NOT NULL,
+                    `artist` TEXT NOT NULL,
+                    `album` TEXT NOT NULL,
+                    `folder` TEXT NOT NULL,
+                    `genre` TEXT NOT NULL,
+                    `lyrics` TEXT NOT NULL,
+                    tokenize=unicode61 `remove_diacritics=1`
+                )
+                """.trimIndent()
+            )
+            db.execSQL("DELETE FROM `library_songs`")
+            db.execSQL("DELETE FROM `library_sync_state`")
+        }
+    }
+    
+    /**
+     * Migration from version 7 to 8.
+     * v8 logs each play in `play_events` with daily and weekly rollups, and keeps a
+     * recency-weighted play count per song. Earlier plays only have a lifetime count and
+     * last play time, so their weight is backfilled as if all were played at that time.
+     */
+    private val MIGRATION_7_8 = object : Migration(7, 8) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL(
+                """
+                CREATE TABLE IF NOT EXISTS `play_events` (
+                    `id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                    `songId` INTEGER NOT NULL,
+                    `playedAt` INTEGER NOT NULL,
+                    `listenedMs` INTEGER NOT NULL,
+                    `completion` REAL NOT NULL,
+                    `skipped` INTEGER NOT NULL
+                )
+                """.trimIndent()
+            )
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_play_events_songId_playedAt` ON `play_events` (`songId`, `playedAt`)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_play_events_playedAt` ON `play_events` (`playedAt`)")
+            for ((table, bucket) in listOf("play_daily" to "day", "play_weekly" to "week")) {
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS `$table` (
+                        `songId` INTEGER NOT NULL,
+                        `$bucket` INTEGER NOT NULL,
+                        `plays` INTEGER NOT NULL,
+                        `skips` INTEGER NOT NULL,
+                        `listenedMs` INTEGER NOT NULL,
+                        PRIMARY KEY(`songId`, `$bucket`)
+                    )
+                    """.trimIndent()
+                )
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_${table}_$bucket` ON `$table` (`$bucket`)")
+            }
+            db.execSQL("ALTER TABLE `song_play_history` ADD COLUMN `decayedPlays` REAL NOT NULL DEFAULT 0")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_song_play_history_decayedPlays` ON `song_play_history` (`decayedPlays`)")
+            db.query("SELECT songId, playCount, lastPlayedAt FROM song_play_history WHERE playCount > 0").use { cursor ->
+                while (cursor.moveToNext()) {
+                    val weight = PlayStats.decayWeight(PlayEvent(songId = cursor.getLong(0), playedAt = cursor.getLong(2)))
+                    db.execSQL(
+                        "UPDATE song_play_history SET decayedPlays = ? WHERE songId = ?",
+                        arrayOf<Any>(cursor.getInt(1) * weight, cursor.getLong(0))
+                    )
+                }
+            }
+        }
+    }
+    
+    /**
+     * Migration from version 8 to 9.
+     * v9 spaces playlist sort keys [PlaylistOrder.GAP] apart so songs can be moved or
+     * inserted without renumbering. Before, every batch of added songs was numbered from
+     * 0, so keys collided; existing order is kept with ties broken by time added.
+     */
+    private val MIGRATION_8_9 = object : Migration(8, 9) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("DROP INDEX IF EXISTS `index_playlist_songs_playlistId`")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_playlist_songs_playlistId_sortOrder` ON `playlist_songs` (`playlistId`, `sortOrder`)")
+            // Read everything first; rewriting keys under an open cursor ordered by them
+            // could visit rows twice
+            val rows = ArrayList<LongArray>()
+            db.query("SELECT playlistId, songId FROM playlist_songs ORDER BY playlistId, sortOrder, addedAt, songId").use { cursor ->
+                while (cursor.moveToNext()) rows += longArrayOf(cursor.getLong(0), cursor.getLong(1))
+            }
+            var playlistId = -1L
+            var position = 0
+            for ((playlist, song) in rows) {
+                if (playlist != playlistId) {
+                    playlistId = playlist
+                    position = 0
+                }
+                db.execSQL(
+                    "UPDATE playlist_songs SET sortOrder = ? WHERE playlistId = ? AND songId = ?",
+                    arrayOf<Any>(PlaylistOrder.GAP * ++position, playlist, song)
+                )
+            }
+        }
+    }
+    
     @Provides
     @Singleton
     fun provideAppDatabase(@ApplicationContext context: Context): AppDatabase {
@@ -57,7 +233,7 @@ object DatabaseModule {
             AppDatabase::class.java,
             "lyra_database"
         )
-        .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
+        .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9)
         .build()
     }
     
@@ -66,6 +242,12 @@ object DatabaseModule {
     fun provideMusicDao(database: AppDatabase): MusicDao {
         return database.musicDao()
     }
+    
+    @Provides
+    @Singleton
+    fun provideLibraryDao(database: AppDatabase): LibraryDao {
+        return database.libraryDao()
+    }
 }
 
 /**
@@ -11,7 +11,7 @@ import androidx.media3.session.MediaSession
 import androidx.media3.session.MediaSessionService
 import com.fourshil.musicya.MainActivity
 import com.fourshil.musicya.data.SettingsPreferences
-import com.fourshil.musicya.data.db.MusicDao
+import com.fourshil.musicya.data.repository.PlayEventJournal
 import dagger.hilt.android.AndroidEntryPoint
 import javax.inject.Inject
 import kotlinx.coroutines.CoroutineScope
@@ -28,14 +28,14 @@ import kotlinx.coroutines.launch
  * - Gapless playback
  * - Audio focus handling
  * - Equalizer integration
- * - Play history tracking
+ * - Play history tracking (batched through [PlayEventJournal])
  * - Crossfade support (loaded from settings)
  */
 @AndroidEntryPoint
 class MusicService : MediaSessionService() {
 
     @Inject lateinit var audioEngine: AudioEngine
-    @Inject lateinit var musicDao: MusicDao
+    @Inject lateinit var playEventJournal: PlayEventJournal
     @Inject lateinit var crossfadeManager: CrossfadeManager
     @Inject lateinit var settingsPreferences: SettingsPreferences
 
@@ -43,6 +43,7 @@ class MusicService : MediaSessionService() {
 
     private var mediaSession: MediaSession? = null
     private var player: ExoPlayer? = null
+    private val playTracker = PlayTracker()
 
     override fun onCreate() {
         super.onCreate()
@@ -121,8 +122,22 @@ class MusicService : MediaSessionService() {
                     }
                 }
                 
+                override fun onIsPlayingChanged(isPlaying: Boolean) {
+                    playTracker.setPlaying(isPlaying, System.currentTimeMillis())
+                }
+                
+                override fun onPlaybackStateChanged(playbackState: Int) {
+                    if (playbackState == Player.STATE_READY) playTracker.setDuration(exoPlayer.duration)
+                }
+                
                 // Track song plays and trigger crossfade fade-in
                 override fun onMediaItemTransition(mediaItem: MediaItem?, reason: Int) {
+                    val now = System.currentTimeMillis()
+                    val completed = reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO ||
+                        reason == Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT
+                    // Buffered and journaled; reaches the database in batches
+                    playTracker.end(now, completed)?.let { playEventJournal.record(it) }
+                    
                     if (mediaItem != null) {
                         // Trigger crossfade fade-in on new track
                         try {
@@ -132,16 +147,9 @@ class MusicService : MediaSessionService() {
                         }
                         
                         if (reason != Player.MEDIA_ITEM_TRANSITION_REASON_PLAYLIST_CHANGED) {
-                            val songId = mediaItem.mediaId.toLongOrNull()
-                            if (songId != null) {
-                                serviceScope.launch(Dispatchers.IO) {
-                                    try {
-                                        musicDao.recordPlay(songId)
-                                    } catch (e: Exception) {
-                                        android.util.Log.e("MusicService", "Failed to record play", e)
-                                    }
-                                }
-                            }
+                            mediaItem.mediaId.toLongOrNull()?.let { playTracker.begin(it, now, exoPlayer.isPlaying) }
+                            // Known already when gapless playback prepared the item; otherwise once it's ready
+                            playTracker.setDuration(exoPlayer.duration)
                         }
                     }
                 }
@@ -182,6 +190,8 @@ class MusicService : MediaSessionService() {
     }
 
     override fun onDestroy() {
+        playTracker.end(System.currentTimeMillis(), completed = false)?.let { playEventJournal.record(it) }
+        playEventJournal.flush()
         mediaSession?.run {
             player.release()
             release()
@@ -0,0 +1,75 @@
+package com.fourshil.musicya.player
+
+import com.fourshil.musicya.data.db.PlayEvent
+
+/**
+ * Turns player callbacks into [PlayEvent]s: when the current song started, how long it
+ * actually played (paused time doesn't count), how much of it that covers, and whether
+ * the listener skipped it, i.e. moved on before hearing [SKIP_COMPLETION] of it.
+ *
+ * Times are passed in so the logic doesn't depend on a clock. Not thread-safe; the
+ * player calls back on one thread.
+ */
+class PlayTracker {
+
+    private var songId: Long? = null
+    private var startedAt = 0L
+    private var durationMs = 0L
+    private var listenedMs = 0L
+    /** When playback last resumed, or null while paused. */
+    private var playingSince: Long? = null
+
+    /**
+     * Start tracking [songId], which is playing (or about to) as of [now].
+     * Call [end] for the previous song first.
+     */
+    fun begin(songId: Long, now: Long, isPlaying: Boolean) {
+        this.songId = songId
+        startedAt = now
+        durationMs = 0L
+        listenedMs = 0L
+        playingSince = if (isPlaying) now else null
+    }
+
+    fun setPlaying(isPlaying: Boolean, now: Long) {
+        val since = playingSince
+        if (isPlaying && since == null) {
+            playingSince = now
+        } else if (!isPlaying && since != null) {
+            listenedMs += now - since
+            playingSince = null
+        }
+    }
+
+    /** Duration of the current song once the player knows it. */
+    fun setDuration(durationMs: Long) {
+        if (durationMs > 0) this.durationMs = durationMs
+    }
+
+    /**
+     * Finish the current song.
+     * @param completed Whether it played to its end, rather than being skipped or stopped
+     * @return The play, or null if nothing was being tracked
+     */
+    fun end(now: Long, completed: Boolean): PlayEvent? {
+        val id = songId ?: return null
+        setPlaying(false, now)
+        songId = null
+        val completion = when {
+            completed -> 1f
+            durationMs > 0 -> (listenedMs.toFloat() / durationMs).coerceIn(0f, 1f)
+            else -> 0f
+        }
+        return PlayEvent(
+            songId = id,
+            playedAt = startedAt,
+            listenedMs = listenedMs,
+            completion = completion,
+            skipped = completion < SKIP_COMPLETION
+        )
+    }
+
+    companion object {
+        const val SKIP_COMPLETION = 0.5f
+    }
+}
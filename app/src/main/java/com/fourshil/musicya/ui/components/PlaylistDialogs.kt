@@ -239,3 +239,33 @@ fun DeleteConfirmDialog(
         }
     }
 }
+
+/**
+ * Non-dismissable progress for a batched delete.
+ */
+@Composable
+fun DeleteProgressDialog(
+    processed: Int,
+    total: Int
+) {
+    val contentColor = MaterialTheme.colorScheme.onSurface
+    
+    NeoDialogWrapper(
+        title = "DELETING SONGS",
+        onDismiss = {},
+        contentColor = contentColor
+    ) {
+        Column(verticalArrangement = Arrangement.spacedBy(16.dp)) {
+            LinearProgressIndicator(
+                progress = { if (total == 0) 1f else processed.toFloat() / total },
+                modifier = Modifier.fillMaxWidth(),
+                color = MaterialTheme.colorScheme.error
+            )
+            Text(
+                "$processed of $total",
+                style = MaterialTheme.typography.bodyLarge,
+                color = contentColor
+            )
+        }
+    }
+}
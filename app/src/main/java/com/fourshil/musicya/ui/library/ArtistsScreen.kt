@@ -43,7 +43,6 @@ fun ArtistsScreen(
     onNavigate: (String) -> Unit = {}
 ) {
     val artists by viewModel.artists.collectAsState()
-    val songs by viewModel.songs.collectAsState()
     val isLoading by viewModel.isLoading.collectAsState()
 
     val listState = androidx.compose.foundation.lazy.rememberLazyListState()
@@ -102,10 +101,9 @@ fun ArtistsScreen(
                     key = { it.id },
                     contentType = { "artist_item" }
                 ) { artist ->
-                    val artistSongs = songs.filter { it.artist == artist.name }
                     ArtistListItem(
                         artist = artist,
-                        artUris = artistSongs.map { it.albumArtUri },
+                        artUris = artist.artUris,
                         isScrolling = isScrolling,
                         onClick = { onArtistClick(artist.name) }
                     )
@@ -38,10 +38,17 @@ class FavoritesViewModel @Inject constructor(
     
     private fun loadFavorites() {
         viewModelScope.launch {
-            musicDao.getFavoriteIds().collect { favoriteIds ->
-                _isLoading.value = true
-                val allSongs = musicRepository.getAllSongs()
-                val favorites = allSongs.filter { it.id in favoriteIds }
+            // Single-flight: shares the load with any other screen
+            musicRepository.loadLibrary()
+        }
+        viewModelScope.launch {
+            combine(
+                musicDao.getFavoriteIds(),
+                musicRepository.library.filter { it.isLoaded }
+            ) { favoriteIds, library ->
+                val favoriteIdSet = favoriteIds.toHashSet()
+                library.songs.filter { it.id in favoriteIdSet }
+            }.collect { favorites ->
                 _favoriteSongs.value = favorites
                 _isLoading.value = false
             }
@@ -81,7 +88,7 @@ class FavoritesViewModel @Inject constructor(
     
     fun addToPlaylist(playlistId: Long, songId: Long) {
         viewModelScope.launch {
-            musicDao.addSongToPlaylist(com.fourshil.musicya.data.db.PlaylistSong(playlistId, songId))
+            musicDao.addSongToPlaylist(playlistId, songId)
         }
     }
 }
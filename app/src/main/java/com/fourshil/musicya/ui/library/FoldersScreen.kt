@@ -1,5 +1,6 @@
 package com.fourshil.musicya.ui.library
 
+import androidx.activity.compose.BackHandler
 import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.*
@@ -7,8 +8,10 @@ import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.items
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
+import androidx.compose.material.icons.automirrored.filled.ArrowBack
 import androidx.compose.material.icons.filled.ChevronRight
 import androidx.compose.material.icons.filled.Folder
+import androidx.compose.material.icons.filled.PlayArrow
 import androidx.compose.material3.*
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.collectAsState
@@ -35,10 +38,13 @@ fun FoldersScreen(
     currentRoute: String? = null,
     onNavigate: (String) -> Unit = {}
 ) {
-    val folders by viewModel.folders.collectAsState()
-    val songs by viewModel.songs.collectAsState()
+    val folders by viewModel.subfolders.collectAsState()
+    val currentFolder by viewModel.currentFolder.collectAsState()
     val isLoading by viewModel.isLoading.collectAsState()
 
+    // System back walks up the folder tree before leaving the screen
+    BackHandler(enabled = currentFolder != null) { viewModel.closeFolder() }
+
     val listState = androidx.compose.foundation.lazy.rememberLazyListState()
     val isScrolling by remember { derivedStateOf { listState.isScrollInProgress } }
 
@@ -51,8 +57,20 @@ fun FoldersScreen(
         ),
         verticalArrangement = Arrangement.spacedBy(NeoDimens.SpacingXS)
     ) {
+        currentFolder?.let { folder ->
+            item(key = "header", contentType = "folder_header") {
+                FolderHeader(
+                    folder = folder,
+                    onUp = { viewModel.closeFolder() },
+                    onPlayAll = { viewModel.playFolderTree(folder.path) },
+                    onOpenSongs = { onFolderClick(folder.path) }
+                )
+            }
+        }
+
         when {
-            isLoading -> {
+            // Folders stream in during a first scan; only show the spinner until some arrive
+            isLoading && folders.isEmpty() && currentFolder == null -> {
                 item {
                     Box(
                         modifier = Modifier.fillMaxWidth().height(200.dp),
@@ -63,7 +81,7 @@ fun FoldersScreen(
                 }
             }
             
-            folders.isEmpty() -> {
+            folders.isEmpty() && currentFolder == null -> {
                 item {
                     Box(
                         modifier = Modifier.fillMaxWidth().height(200.dp),
@@ -92,19 +110,22 @@ fun FoldersScreen(
             else -> {
                 items(
                     items = folders,
-                    key = { it.path },
+                    key = { it.folder.path },
                     contentType = { "folder_item" }
-                ) { folder ->
-                    val folderSongs = songs.filter { 
-                        val parent = java.io.File(it.path).parent ?: ""
-                        parent == folder.path 
-                    }
-                    
+                ) { item ->
+                    val folder = item.folder
                     FolderListItem(
                         folder = folder,
-                        artUris = folderSongs.map { it.albumArtUri },
+                        artUris = item.artUris,
                         isScrolling = isScrolling,
-                        onClick = { onFolderClick(folder.path) }
+                        onClick = {
+                            // Drill into nested folders; leaf folders open their songs
+                            if (folder.subfolderCount > 0) {
+                                viewModel.openFolder(folder.path)
+                            } else {
+                                onFolderClick(folder.path)
+                            }
+                        }
                     )
                 }
             }
@@ -173,7 +194,7 @@ private fun FolderListItem(
                     maxLines = 1
                 )
                 Text(
-                    text = "${folder.songCount} songs",
+                    text = folderSummary(folder),
                     style = MaterialTheme.typography.bodySmall,
                     color = MaterialTheme.colorScheme.onSurfaceVariant
                 )
@@ -188,3 +209,58 @@ private fun FolderListItem(
         }
     }
 }
+
+/**
+ * Current folder: name and recursive totals, with up, play-all and open-songs actions.
+ */
+@Composable
+private fun FolderHeader(
+    folder: Folder,
+    onUp: () -> Unit,
+    onPlayAll: () -> Unit,
+    onOpenSongs: () -> Unit
+) {
+    Row(
+        modifier = Modifier
+            .fillMaxWidth()
+            .padding(horizontal = NeoDimens.ScreenPadding, vertical = NeoDimens.SpacingS),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        IconButton(onClick = onUp) {
+            Icon(Icons.AutoMirrored.Filled.ArrowBack, contentDescription = "Up one folder")
+        }
+        Column(
+            modifier = Modifier
+                .weight(1f)
+                .clickable(onClick = onOpenSongs)
+        ) {
+            Text(
+                text = folder.name,
+                style = MaterialTheme.typography.titleMedium,
+                fontWeight = FontWeight.Bold,
+                color = MaterialTheme.colorScheme.onSurface,
+                maxLines = 1
+            )
+            Text(
+                text = "${folderSummary(folder)} • ${formatTotalDuration(folder.totalDuration)}",
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant
+            )
+        }
+        IconButton(onClick = onPlayAll) {
+            Icon(Icons.Default.PlayArrow, contentDescription = "Play all songs in this folder")
+        }
+    }
+}
+
+private fun folderSummary(folder: Folder): String = if (folder.subfolderCount > 0) {
+    "${folder.songCount} songs • ${folder.subfolderCount} folders"
+} else {
+    "${folder.songCount} songs"
+}
+
+private fun formatTotalDuration(ms: Long): String {
+    val totalMinutes = ms / 60_000
+    val hours = totalMinutes / 60
+    return if (hours > 0) "${hours}h ${totalMinutes % 60}m" else "${totalMinutes}m"
+}
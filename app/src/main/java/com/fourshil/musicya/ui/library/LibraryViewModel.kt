@@ -1,26 +1,37 @@
 package com.fourshil.musicya.ui.library
 
+import android.content.IntentSender
+import android.net.Uri
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.fourshil.musicya.data.db.MusicDao
 import com.fourshil.musicya.data.db.Playlist
-import com.fourshil.musicya.data.db.PlaylistSong
 import com.fourshil.musicya.data.model.Album
 import com.fourshil.musicya.data.model.Artist
 import com.fourshil.musicya.data.model.Folder
 import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.repository.DeleteProgress
 import com.fourshil.musicya.data.repository.MusicRepository
 import com.fourshil.musicya.player.PlayerController
 import dagger.hilt.android.lifecycle.HiltViewModel
-import kotlinx.coroutines.async
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asSharedFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.drop
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.mapLatest
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.launch
 import javax.inject.Inject
 
+import androidx.paging.InvalidatingPagingSourceFactory
 import androidx.paging.Pager
 import androidx.paging.PagingConfig
 import androidx.paging.PagingData
@@ -34,24 +45,81 @@ class LibraryViewModel @Inject constructor(
     private val musicDao: MusicDao
 ) : ViewModel() {
 
-    // Paging for UI List (Scalability)
+    // Paging for UI List (Scalability); each source pages one snapshot, so a new snapshot starts a new one
+    private val songsPagingSources = InvalidatingPagingSourceFactory { SongsPagingSource(repository) }
+
     val pagedSongs: Flow<PagingData<Song>> = Pager(
         config = PagingConfig(pageSize = 50, enablePlaceholders = false),
-        pagingSourceFactory = { SongsPagingSource(repository) }
+        pagingSourceFactory = songsPagingSources
     ).flow.cachedIn(viewModelScope)
 
-    // Full list for Player Queue & Logic
-    private val _songs = MutableStateFlow<List<Song>>(emptyList())
-    val songs = _songs.asStateFlow()
+    // Full list for Player Queue & Logic, shared with every other screen via the library snapshot
+    val songs: StateFlow<List<Song>> = repository.library
+        .map { it.songs }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, repository.library.value.songs)
+
+    // Albums and artists are derived from the same snapshot, so all tabs agree
+    val albums: StateFlow<List<Album>> = repository.library
+        .map { it.albums }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, repository.library.value.albums)
 
-    private val _albums = MutableStateFlow<List<Album>>(emptyList())
-    val albums = _albums.asStateFlow()
+    val artists: StateFlow<List<Artist>> = repository.library
+        .map { it.artists }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, repository.library.value.artists)
 
-    private val _artists = MutableStateFlow<List<Artist>>(emptyList())
-    val artists = _artists.asStateFlow()
+    val folders: StateFlow<List<Folder>> = repository.library
+        .map { it.folders }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, repository.library.value.folders)
 
-    private val _folders = MutableStateFlow<List<Folder>>(emptyList())
-    val folders = _folders.asStateFlow()
+    // ============ Folder Browsing ============
+    
+    /**
+     * A subfolder row: the folder with its recursive totals and up to four album art URIs.
+     */
+    data class FolderItem(val folder: Folder, val artUris: List<Uri>)
+    
+    // Folders opened from the top level; empty while browsing the top level itself
+    private val folderStack = MutableStateFlow<List<String>>(emptyList())
+    
+    /**
+     * The folder being browsed, or null at the top level. Follows library patches.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val currentFolder: StateFlow<Folder?> = combine(folderStack, repository.library) { stack, snapshot ->
+        stack.lastOrNull() to snapshot.version
+    }
+        .mapLatest { (path, _) -> path?.let { repository.getFolder(it) } }
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), null)
+    
+    /**
+     * Subfolders of [currentFolder] (or of the top level), recomputed from the folder tree
+     * whenever the library snapshot changes.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val subfolders: StateFlow<List<FolderItem>> = combine(folderStack, repository.library) { stack, snapshot ->
+        stack.lastOrNull() to snapshot.version
+    }
+        .mapLatest { (path, _) ->
+            repository.getSubfolders(path).map { folder ->
+                FolderItem(folder, repository.getFolderArt(folder.path))
+            }
+        }
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
+    
+    fun openFolder(folderPath: String) {
+        folderStack.value = folderStack.value + folderPath
+    }
+    
+    /**
+     * Go up one level.
+     * @return False if already at the top level
+     */
+    fun closeFolder(): Boolean {
+        val stack = folderStack.value
+        if (stack.isEmpty()) return false
+        folderStack.value = stack.dropLast(1)
+        return true
+    }
 
     private val _isLoading = MutableStateFlow(true)
     val isLoading = _isLoading.asStateFlow()
@@ -68,35 +136,48 @@ class LibraryViewModel @Inject constructor(
         playerController.connect()
         // Load full library in background for player queue
         loadLibrary()
+        observeLibraryChanges()
+        invalidatePagesOnNewSnapshot()
     }
 
     fun loadLibrary() {
         viewModelScope.launch {
             _isLoading.value = true
-            
-            // Load all data in parallel for better performance
-            val songsDeferred = async { repository.getAllSongs() }
-            val albumsDeferred = async { repository.getAllAlbums() }
-            val artistsDeferred = async { repository.getAllArtists() }
-            
-            // Await songs first as folders depend on it
-            val allSongs = songsDeferred.await()
-            _songs.value = allSongs
-            
-            // Await other data in parallel
-            _albums.value = albumsDeferred.await()
-            _artists.value = artistsDeferred.await()
-            
-            // Folders are derived from songs (cached in repository)
-            _folders.value = repository.getFolders()
-            
+            // Songs, folders, albums and artists all arrive through the shared snapshot
+            repository.loadLibrary()
             _isLoading.value = false
         }
     }
 
+    /**
+     * Patches arrive with the patched snapshot; only a full reload needs the loading state.
+     */
+    private fun observeLibraryChanges() {
+        viewModelScope.launch {
+            repository.libraryChanges.collect { change ->
+                if (change.isFullReload) loadLibrary()
+            }
+        }
+    }
+
+    /**
+     * Songs pages are keyed by sort values of one snapshot's ordering ([SongsPagingSource]);
+     * once another snapshot is published, later pages must come from a fresh source.
+     */
+    private fun invalidatePagesOnNewSnapshot() {
+        viewModelScope.launch {
+            repository.library
+                .map { it.version to it.isLoaded }
+                .distinctUntilChanged()
+                .drop(1)
+                .collect { songsPagingSources.invalidate() }
+        }
+    }
+
     fun refresh() {
-        repository.clearCache()
-        loadLibrary()
+        viewModelScope.launch {
+            repository.refresh()
+        }
     }
 
     fun playSong(song: Song) {
@@ -104,7 +185,7 @@ class LibraryViewModel @Inject constructor(
     }
 
     fun playSongAt(index: Int) {
-        val allSongs = _songs.value
+        val allSongs = songs.value
         if (index in allSongs.indices) {
             playerController.playSongs(allSongs, index)
         }
@@ -147,6 +228,18 @@ class LibraryViewModel @Inject constructor(
         }
     }
 
+    /**
+     * Play every song under [folderPath], including subfolders.
+     */
+    fun playFolderTree(folderPath: String) {
+        viewModelScope.launch {
+            val folderSongs = repository.getSongsInFolderTree(folderPath)
+            if (folderSongs.isNotEmpty()) {
+                playerController.playSongs(folderSongs)
+            }
+        }
+    }
+
     fun playFolder(folderPath: String) {
         viewModelScope.launch {
             val folderSongs = repository.getSongsByFolder(folderPath)
@@ -198,7 +291,7 @@ class LibraryViewModel @Inject constructor(
     
     fun addToPlaylist(playlistId: Long, songId: Long) {
         viewModelScope.launch {
-            musicDao.addSongToPlaylist(PlaylistSong(playlistId, songId))
+            musicDao.addSongToPlaylist(playlistId, songId)
         }
     }
     
@@ -210,20 +303,53 @@ class LibraryViewModel @Inject constructor(
     
     // ============ Delete Songs ============
     
+    private val _deleteProgress = MutableStateFlow<DeleteProgress?>(null)
+    val deleteProgress = _deleteProgress.asStateFlow()
+    
+    // API 30+ system delete confirmations for the screen to launch
+    private val _deleteRequests = MutableSharedFlow<IntentSender>(extraBufferCapacity = 1)
+    val deleteRequests = _deleteRequests.asSharedFlow()
+    private var pendingDelete: PendingDelete? = null
+    
+    private class PendingDelete(val songIds: List<Long>, val onComplete: (Int) -> Unit)
+    
     /**
      * Delete songs from device storage.
+     * On API 30+ this asks the system for one confirmation covering every song; below
+     * that, songs are deleted in batches with progress on [deleteProgress]. Either way
+     * only the deleted songs are patched out of the library.
      */
     fun deleteSongs(songIds: List<Long>, onComplete: (Int) -> Unit = {}) {
+        if (songIds.isEmpty()) return
+        val request = repository.createDeleteRequest(songIds)
+        if (request != null) {
+            pendingDelete = PendingDelete(songIds, onComplete)
+            _deleteRequests.tryEmit(request)
+            return
+        }
         viewModelScope.launch {
-            val deletedCount = repository.deleteSongs(songIds)
-            if (deletedCount > 0) {
-                // Refresh the library after deletion
-                loadLibrary()
-            }
+            _deleteProgress.value = DeleteProgress(processed = 0, deleted = 0, total = songIds.size)
+            val deletedCount = repository.deleteSongs(songIds) { _deleteProgress.value = it }
+            _deleteProgress.value = null
             onComplete(deletedCount)
         }
     }
     
+    /**
+     * Result of a launched [deleteRequests] confirmation.
+     */
+    fun onDeleteRequestResult(confirmed: Boolean) {
+        val pending = pendingDelete ?: return
+        pendingDelete = null
+        if (!confirmed) {
+            pending.onComplete(0)
+            return
+        }
+        viewModelScope.launch {
+            pending.onComplete(repository.onDeleteRequestCompleted(pending.songIds))
+        }
+    }
+    
     // ============ Select All ============
     
     /**
@@ -30,6 +30,7 @@ fun MostPlayedScreen(
     val songs by viewModel.mostPlayedSongs.collectAsState()
     val isLoading by viewModel.isLoading.collectAsState()
     val favoriteIds by viewModel.favoriteIds.collectAsState()
+    val window by viewModel.window.collectAsState()
     
     // Dialog states
     var showActionsSheet by remember { mutableStateOf(false) }
@@ -48,6 +49,15 @@ fun MostPlayedScreen(
         )
     ) {
 
+        item {
+            TopNavigationChips(
+                items = PlayWindow.entries.map { TopNavItem(route = it.name, label = it.label) },
+                currentRoute = window.name,
+                onItemClick = { viewModel.setWindow(PlayWindow.valueOf(it)) },
+                modifier = Modifier.padding(vertical = 12.dp)
+            )
+        }
+
         if (isLoading) {
             item {
                 Box(modifier = Modifier.fillMaxWidth().height(200.dp), contentAlignment = Alignment.Center) {
@@ -58,7 +68,7 @@ fun MostPlayedScreen(
             item {
                 Box(modifier = Modifier.fillMaxWidth().height(200.dp), contentAlignment = Alignment.Center) {
                     Text(
-                        "No play history yet", 
+                        if (window == PlayWindow.ALL_TIME) "No play history yet" else "Nothing played in this period", 
                         style = MaterialTheme.typography.bodyLarge, 
                         color = MaterialTheme.colorScheme.onSurfaceVariant
                     )
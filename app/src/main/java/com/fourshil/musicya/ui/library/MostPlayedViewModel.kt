@@ -3,14 +3,28 @@ package com.fourshil.musicya.ui.library
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.fourshil.musicya.data.db.MusicDao
+import com.fourshil.musicya.data.db.PlayStats
 import com.fourshil.musicya.data.model.Song
 import com.fourshil.musicya.data.repository.MusicRepository
 import com.fourshil.musicya.player.PlayerController
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
 import javax.inject.Inject
 
+/**
+ * Time span a Most Played ranking covers. Windows rank by plays, skips excluded; [TRENDING]
+ * weighs every play by recency instead (see [PlayStats]).
+ */
+enum class PlayWindow(val label: String) {
+    WEEK("Week"),
+    MONTH("Month"),
+    YEAR("Year"),
+    TRENDING("Trending"),
+    ALL_TIME("All time")
+}
+
 @HiltViewModel
 class MostPlayedViewModel @Inject constructor(
     private val musicDao: MusicDao,
@@ -21,6 +35,9 @@ class MostPlayedViewModel @Inject constructor(
     private val _isLoading = MutableStateFlow(true)
     val isLoading = _isLoading.asStateFlow()
     
+    private val _window = MutableStateFlow(PlayWindow.ALL_TIME)
+    val window = _window.asStateFlow()
+    
     private val _mostPlayedSongs = MutableStateFlow<List<Song>>(emptyList())
     val mostPlayedSongs = _mostPlayedSongs.asStateFlow()
     
@@ -31,19 +48,39 @@ class MostPlayedViewModel @Inject constructor(
         loadMostPlayed()
     }
     
+    fun setWindow(window: PlayWindow) {
+        _window.value = window
+    }
+    
+    /**
+     * Reload when the window or the underlying rollups change. Every ranking reads
+     * rollups or per-song totals, never raw plays, so it stays fast however long the
+     * history gets.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
     private fun loadMostPlayed() {
         viewModelScope.launch {
-            musicDao.getMostPlayedSongIds(50).collect { topIds ->
+            _window.flatMapLatest { topSongIds(it) }.collectLatest { topIds ->
                 _isLoading.value = true
-                val songs = musicRepository.getSongsByIds(topIds)
-                // Maintain order from topIds (most played first)
-                val orderedSongs = topIds.mapNotNull { id -> songs.find { it.id == id } }
+                // getSongsByIds keeps the order of topIds (most played first)
+                val orderedSongs = musicRepository.getSongsByIds(topIds)
                 _mostPlayedSongs.value = orderedSongs
                 _isLoading.value = false
             }
         }
     }
     
+    private fun topSongIds(window: PlayWindow): Flow<List<Long>> {
+        val now = System.currentTimeMillis()
+        return when (window) {
+            PlayWindow.WEEK -> musicDao.getMostPlayedSongIdsSinceDay(PlayStats.day(now) - 6, TOP_COUNT)
+            PlayWindow.MONTH -> musicDao.getMostPlayedSongIdsSinceDay(PlayStats.day(now) - 29, TOP_COUNT)
+            PlayWindow.YEAR -> musicDao.getMostPlayedSongIdsSinceWeek(PlayStats.week(now) - 51, TOP_COUNT)
+            PlayWindow.TRENDING -> musicDao.getTrendingSongIds(TOP_COUNT)
+            PlayWindow.ALL_TIME -> musicDao.getMostPlayedSongIds(TOP_COUNT)
+        }
+    }
+    
     fun toggleFavorite(songId: Long) {
         viewModelScope.launch {
             musicDao.toggleFavorite(songId)
@@ -64,4 +101,8 @@ class MostPlayedViewModel @Inject constructor(
     fun addToQueue(song: Song) {
         playerController.addToQueue(song)
     }
+    
+    private companion object {
+        const val TOP_COUNT = 50
+    }
 }
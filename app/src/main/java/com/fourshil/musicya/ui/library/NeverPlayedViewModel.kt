@@ -4,6 +4,7 @@ import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.fourshil.musicya.data.db.MusicDao
 import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.model.SongSortOrder
 import com.fourshil.musicya.data.repository.MusicRepository
 import com.fourshil.musicya.player.PlayerController
 import dagger.hilt.android.lifecycle.HiltViewModel
@@ -35,24 +36,19 @@ class NeverPlayedViewModel @Inject constructor(
     
     private fun loadNeverPlayed() {
         viewModelScope.launch {
-            musicDao.getAllPlayedSongIds().collect { playedIds ->
-                _isLoading.value = true
-                val allSongs = musicRepository.getAllSongs()
-                val playedIdSet = playedIds.toSet()
-                
-                // transform to list and filter
-                val unplayed = allSongs.filter { it.id !in playedIdSet }
-                    .shuffled() // Shuffle to make it interesting, or sort by name?
-                    // Usually "Never Played" is exploring forgotten music. Shuffle is good.
-                    // But maybe sort by date added?
-                    // Let's sort by Date Added DESC (Newest unplayed first) or ASC (Oldest unplayed first)?
-                    // "Dusty" implies Oldest.
-                    // Let's do random for now, or Date Added ASC (Oldest first).
-                    // Actually, random is fun for "Smart Playlist".
-                    // But standard library usually is sorted.
-                    // I'll sort by Artist then Title for stability.
-                    .sortedWith(compareBy({ it.artist }, { it.title }))
+            // Single-flight: shares the load with any other screen
+            musicRepository.loadLibrary()
+        }
+        viewModelScope.launch {
+            combine(
+                musicDao.getAllPlayedSongIds(),
+                musicRepository.library.filter { it.isLoaded }
+            ) { playedIds, library ->
+                val playedIdSet = playedIds.toHashSet()
                 
+                // Artist order from the snapshot's precomputed permutation; no re-sort per emission
+                library.orderings.sorted(SongSortOrder.ARTIST).filter { it.id !in playedIdSet }
+            }.collect { unplayed ->
                 _neverPlayedSongs.value = unplayed
                 _isLoading.value = false
             }
@@ -1,5 +1,7 @@
 package com.fourshil.musicya.ui.library
 
+import androidx.activity.compose.rememberLauncherForActivityResult
+import androidx.activity.result.contract.ActivityResultContracts
 import androidx.compose.foundation.background
 import androidx.compose.foundation.border
 import androidx.compose.foundation.layout.*
@@ -8,6 +10,8 @@ import androidx.compose.foundation.lazy.items
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.Add
 import androidx.compose.material.icons.filled.Edit
+import androidx.compose.material.icons.filled.FileDownload
+import androidx.compose.material.icons.filled.FileUpload
 import androidx.compose.material.icons.filled.Folder
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
@@ -21,6 +25,7 @@ import androidx.compose.ui.unit.sp
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.hilt.navigation.compose.hiltViewModel
 import com.fourshil.musicya.data.db.Playlist
+import com.fourshil.musicya.data.repository.PlaylistFormat
 
 import com.fourshil.musicya.ui.components.CreatePlaylistDialog
 import com.fourshil.musicya.ui.components.PlaylistArtGrid
@@ -44,6 +49,19 @@ fun PlaylistsScreen(
     onNavigate: (String) -> Unit = {}
 ) {
     val playlists by viewModel.playlists.collectAsState()
+    val transferStatus by viewModel.transferStatus.collectAsState()
+    
+    val importLauncher = rememberLauncherForActivityResult(ActivityResultContracts.OpenDocument()) { uri ->
+        uri?.let { viewModel.importPlaylist(it) }
+    }
+    var exporting by remember { mutableStateOf<Playlist?>(null) }
+    val exportLauncher = rememberLauncherForActivityResult(
+        ActivityResultContracts.CreateDocument(PlaylistFormat.M3U8.mimeType)
+    ) { uri ->
+        val playlist = exporting
+        if (uri != null && playlist != null) viewModel.exportPlaylist(playlist.id, uri)
+        exporting = null
+    }
     
     var showCreateDialog by remember { mutableStateOf(false) }
     var showDeleteDialog by remember { mutableStateOf<Playlist?>(null) }
@@ -98,6 +116,52 @@ fun PlaylistsScreen(
             }
         }
 
+        // Import Playlist Item
+        item {
+            Box(modifier = Modifier.padding(horizontal = NeoDimens.ScreenPadding, vertical = 6.dp)) {
+                NeoCard(
+                    onClick = { importLauncher.launch(PLAYLIST_MIME_TYPES) },
+                    modifier = Modifier.fillMaxWidth(),
+                    shape = RoundedCornerShape(12.dp),
+                    shadowSize = 4.dp,
+                    backgroundColor = MaterialTheme.colorScheme.surface,
+                    borderWidth = 2.dp
+                ) {
+                    Row(
+                        modifier = Modifier.padding(16.dp),
+                        verticalAlignment = Alignment.CenterVertically
+                    ) {
+                        Box(
+                             modifier = Modifier
+                                .size(56.dp)
+                                .border(2.dp, MaterialTheme.colorScheme.outline, MaterialTheme.shapes.small)
+                                .background(MaterialTheme.colorScheme.surfaceVariant),
+                             contentAlignment = Alignment.Center
+                        ) {
+                            Icon(Icons.Default.FileDownload, null, tint = MaterialTheme.colorScheme.onSurfaceVariant)
+                        }
+                        
+                        Spacer(modifier = Modifier.width(16.dp))
+                        
+                        Column(modifier = Modifier.weight(1f)) {
+                            Text(
+                                text = "Import Playlist File",
+                                style = MaterialTheme.typography.titleMedium.copy(fontWeight = FontWeight.SemiBold),
+                                color = MaterialTheme.colorScheme.onSurface
+                            )
+                            Text(
+                                text = transferStatus ?: "M3U, M3U8 or PLS",
+                                style = MaterialTheme.typography.labelSmall,
+                                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                                fontWeight = FontWeight.Medium,
+                                letterSpacing = 0.sp
+                            )
+                        }
+                    }
+                }
+            }
+        }
+
         if (playlists.isEmpty()) {
             item {
                 Box(modifier = Modifier.fillMaxWidth().height(200.dp), contentAlignment = Alignment.Center) {
@@ -111,21 +175,24 @@ fun PlaylistsScreen(
         } else {
             items(
                 items = playlists,
-                key = { it.id },
+                key = { it.playlist.id },
                 contentType = { "playlist_item" }
-            ) { playlist ->
+            ) { summary ->
+                val playlist = summary.playlist
                 Box(modifier = Modifier.padding(horizontal = NeoDimens.ScreenPadding, vertical = 6.dp)) {
-                    val playlistSongs by viewModel.getPlaylistSongs(playlist.id)
-                        .collectAsState(initial = emptyList())
-                    
                     PlaylistArtisticItem(
                         playlist = playlist,
-                        songCount = playlistSongs.size,
-                        artUris = playlistSongs.map { it.albumArtUri },
+                        songCount = summary.songCount,
+                        totalDuration = summary.totalDuration,
+                        artUris = summary.artUris,
                         isScrolling = isScrolling,
                         onClick = { onPlaylistClick(playlist.id) },
                         onLongClick = { showDeleteDialog = playlist },
-                        onRename = { showRenameDialog = playlist }
+                        onRename = { showRenameDialog = playlist },
+                        onExport = {
+                            exporting = playlist
+                            exportLauncher.launch("${playlist.name}.${PlaylistFormat.M3U8.extension}")
+                        }
                     )
                 }
             }
@@ -203,11 +270,13 @@ fun PlaylistsScreen(
 fun PlaylistArtisticItem(
      playlist: Playlist,
     songCount: Int,
+    totalDuration: Long = 0L,
     artUris: List<android.net.Uri>,
     isScrolling: Boolean = false,
     onClick: () -> Unit,
     onLongClick: () -> Unit,
-    onRename: () -> Unit
+    onRename: () -> Unit,
+    onExport: (() -> Unit)? = null
 ) {
     NeoCard(
         onClick = onClick,
@@ -250,7 +319,7 @@ fun PlaylistArtisticItem(
                     color = MaterialTheme.colorScheme.onSurface
                 )
                 Text(
-                    text = "$songCount songs",
+                    text = if (totalDuration > 0) "$songCount songs • ${formatTotalDuration(totalDuration)}" else "$songCount songs",
                     style = MaterialTheme.typography.labelSmall,
                     color = MaterialTheme.colorScheme.onSurfaceVariant,
                     fontWeight = FontWeight.Medium,
@@ -258,6 +327,11 @@ fun PlaylistArtisticItem(
                 )
             }
             
+            if (onExport != null) {
+                IconButton(onClick = onExport) {
+                    Icon(Icons.Default.FileUpload, "Export", tint = Color.Black)
+                }
+            }
             IconButton(onClick = onRename) {
                 Icon(Icons.Default.Edit, null, tint = Color.Black)
             }
@@ -265,3 +339,17 @@ fun PlaylistArtisticItem(
     }
 }
 
+// Providers disagree on playlist MIME types, so offer every common one
+private val PLAYLIST_MIME_TYPES = arrayOf(
+    "audio/x-mpegurl",
+    "audio/mpegurl",
+    "application/x-mpegurl",
+    "application/vnd.apple.mpegurl",
+    "audio/x-scpls"
+)
+
+private fun formatTotalDuration(ms: Long): String {
+    val totalMinutes = ms / 60_000
+    val hours = totalMinutes / 60
+    return if (hours > 0) "${hours}h ${totalMinutes % 60}m" else "${totalMinutes}m"
+}
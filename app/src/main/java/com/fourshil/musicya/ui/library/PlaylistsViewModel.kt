@@ -1,12 +1,15 @@
 package com.fourshil.musicya.ui.library
 
+import android.net.Uri
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.fourshil.musicya.data.db.MusicDao
 import com.fourshil.musicya.data.db.Playlist
-import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.db.PlaylistSummary
 import com.fourshil.musicya.data.repository.MusicRepository
+import com.fourshil.musicya.data.repository.PlaylistTransfer
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
 import javax.inject.Inject
@@ -14,12 +17,27 @@ import javax.inject.Inject
 @HiltViewModel
 class PlaylistsViewModel @Inject constructor(
     private val musicDao: MusicDao,
-    private val musicRepository: MusicRepository
+    private val repository: MusicRepository,
+    private val playlistTransfer: PlaylistTransfer
 ) : ViewModel() {
     
-    val playlists = musicDao.getAllPlaylists()
+    /**
+     * Every playlist with its song count and artwork albums, from one query for the
+     * whole list rather than one per row. Counts only the library's songs, like the
+     * playlist screen, so the query follows volumes being mounted or removed.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val playlists: StateFlow<List<PlaylistSummary>> = repository.library
+        .map { repository.libraryVolumes() }
+        .distinctUntilChanged()
+        .flatMapLatest { musicDao.getPlaylistAlbumRows(it) }
+        .map { PlaylistSummary.fromRows(it) }
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
     
+    // Progress or outcome of the last import or export, for the import row
+    private val _transferStatus = MutableStateFlow<String?>(null)
+    val transferStatus = _transferStatus.asStateFlow()
+    
     fun createPlaylist(name: String) {
         viewModelScope.launch {
             musicDao.createPlaylist(Playlist(name = name))
@@ -38,20 +56,24 @@ class PlaylistsViewModel @Inject constructor(
         }
     }
     
-    fun getPlaylistSongCount(playlistId: Long): Flow<Int> {
-        return musicDao.getPlaylistSongCount(playlistId)
-    }
-
-    /**
-     * Get songs for a playlist to display artwork grid.
-     */
-    fun getPlaylistSongs(playlistId: Long): Flow<List<Song>> = flow {
-        musicDao.getPlaylistSongs(playlistId).collect { playlistSongs ->
-            val allSongs = musicRepository.getAllSongs()
-            val songs = playlistSongs.mapNotNull { ps ->
-                allSongs.find { it.id == ps.songId }
+    fun importPlaylist(uri: Uri) {
+        viewModelScope.launch {
+            _transferStatus.value = "Importing..."
+            val result = playlistTransfer.importPlaylist(uri) { progress ->
+                _transferStatus.value = "Importing ${progress.name}: ${progress.matched} of ${progress.entries} songs found"
+            }
+            _transferStatus.value = if (result == null) {
+                "Couldn't read that playlist file"
+            } else {
+                "Imported ${result.name}: ${result.matched} of ${result.entries} songs found"
             }
-            emit(songs)
+        }
+    }
+    
+    fun exportPlaylist(playlistId: Long, uri: Uri) {
+        viewModelScope.launch {
+            val written = playlistTransfer.exportPlaylist(playlistId, uri)
+            _transferStatus.value = if (written == null) "Couldn't write the playlist file" else "Exported $written songs"
         }
     }
 }
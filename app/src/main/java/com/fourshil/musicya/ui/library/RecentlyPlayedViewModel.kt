@@ -35,9 +35,8 @@ class RecentlyPlayedViewModel @Inject constructor(
         viewModelScope.launch {
             musicDao.getRecentlyPlayedSongIds(50).collect { recentIds ->
                 _isLoading.value = true
-                val songs = musicRepository.getSongsByIds(recentIds)
-                // Maintain order from recentIds (most recent first)
-                val orderedSongs = recentIds.mapNotNull { id -> songs.find { it.id == id } }
+                // getSongsByIds keeps the order of recentIds (most recent first)
+                val orderedSongs = musicRepository.getSongsByIds(recentIds)
                 _recentSongs.value = orderedSongs
                 _isLoading.value = false
             }
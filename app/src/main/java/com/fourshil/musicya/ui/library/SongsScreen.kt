@@ -1,7 +1,11 @@
 package com.fourshil.musicya.ui.library
 
 import android.Manifest
+import android.app.Activity
 import android.os.Build
+import androidx.activity.compose.rememberLauncherForActivityResult
+import androidx.activity.result.IntentSenderRequest
+import androidx.activity.result.contract.ActivityResultContracts
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.shape.RoundedCornerShape
@@ -51,6 +55,7 @@ fun SongsScreen(
     val pagedSongs = viewModel.pagedSongs.collectAsLazyPagingItems()
     
     val isLoading by viewModel.isLoading.collectAsState()
+    val deleteProgress by viewModel.deleteProgress.collectAsState()
     val favoriteIds by viewModel.favoriteIds.collectAsState()
     val playlists by viewModel.playlists.collectAsState()
     
@@ -76,6 +81,18 @@ fun SongsScreen(
     
     val permissionsState = rememberMultiplePermissionsState(permissions)
     
+    // API 30+: bulk deletes go through one system confirmation
+    val deleteRequestLauncher = rememberLauncherForActivityResult(
+        ActivityResultContracts.StartIntentSenderForResult()
+    ) { result ->
+        viewModel.onDeleteRequestResult(result.resultCode == Activity.RESULT_OK)
+    }
+    LaunchedEffect(Unit) {
+        viewModel.deleteRequests.collect { intentSender ->
+            deleteRequestLauncher.launch(IntentSenderRequest.Builder(intentSender).build())
+        }
+    }
+    
     LaunchedEffect(permissionsState.allPermissionsGranted) {
         if (permissionsState.allPermissionsGranted) {
             viewModel.refresh()
@@ -389,4 +406,8 @@ fun SongsScreen(
             onDismiss = { showDeleteDialog = false }
         )
     }
+    
+    deleteProgress?.let { progress ->
+        DeleteProgressDialog(processed = progress.processed, total = progress.total)
+    }
 }
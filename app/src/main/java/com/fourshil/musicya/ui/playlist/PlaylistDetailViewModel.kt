@@ -73,7 +73,8 @@ class PlaylistDetailViewModel @Inject constructor(
                 }
                 "folder" -> {
                     val folderPath = URLDecoder.decode(id, "UTF-8")
-                    val folderSongs = repository.getSongsByFolder(folderPath)
+                    // Includes subfolders, so a parent folder plays its whole tree
+                    val folderSongs = repository.getSongsInFolderTree(folderPath)
                     _songs.value = folderSongs
                     _title.value = folderPath.substringAfterLast("/")
                     _subtitle.value = "${folderSongs.size} songs"
@@ -87,11 +88,8 @@ class PlaylistDetailViewModel @Inject constructor(
                     // Observe playlist songs flow
                     musicDao.getPlaylistSongs(playlistId).collect { playlistSongs ->
                         val ids = playlistSongs.map { it.songId }
-                        val rawSongs = repository.getSongsByIds(ids)
-                        // Maintain the order from the playlist_songs table
-                        val sortedSongs = ids.mapNotNull { itemId -> 
-                            rawSongs.find { it.id == itemId } 
-                        }
+                        // getSongsByIds keeps the order from the playlist_songs table
+                        val sortedSongs = repository.getSongsByIds(ids)
                         
                         _songs.value = sortedSongs
                         _subtitle.value = "${sortedSongs.size} songs"
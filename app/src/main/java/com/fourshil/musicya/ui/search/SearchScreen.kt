@@ -17,9 +17,16 @@ import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.SolidColor
+import androidx.compose.ui.text.AnnotatedString
+import androidx.compose.ui.text.SpanStyle
+import androidx.compose.ui.text.buildAnnotatedString
+import androidx.compose.ui.text.withStyle
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import androidx.hilt.navigation.compose.hiltViewModel
+import androidx.paging.compose.collectAsLazyPagingItems
+import androidx.paging.compose.itemKey
+import com.fourshil.musicya.data.db.LibrarySearchHit
 import com.fourshil.musicya.data.model.Album
 import com.fourshil.musicya.data.model.Artist
 import com.fourshil.musicya.data.model.Song
@@ -43,9 +50,12 @@ fun SearchScreen(
 ) {
     val query by viewModel.query.collectAsState()
     val songs by viewModel.songs.collectAsState()
+    val songCount by viewModel.songCount.collectAsState()
     val albums by viewModel.albums.collectAsState()
     val artists by viewModel.artists.collectAsState()
     val isSearching by viewModel.isSearching.collectAsState()
+    val allMatches = viewModel.allMatches.collectAsLazyPagingItems()
+    val allMatchesCount by viewModel.allMatchesCount.collectAsState()
 
     NeoScaffold(
         containerColor = MaterialTheme.colorScheme.background,
@@ -177,7 +187,7 @@ fun SearchScreen(
                 }
             }
             
-            songs.isEmpty() && albums.isEmpty() && artists.isEmpty() -> {
+            songs.isEmpty() && albums.isEmpty() && artists.isEmpty() && allMatches.itemCount == 0 -> {
                 // No results
                 Box(
                     modifier = Modifier
@@ -220,7 +230,7 @@ fun SearchScreen(
                     // Songs Section
                     if (songs.isNotEmpty()) {
                         item { 
-                            SectionHeader("Songs", songs.size) 
+                            SectionHeader("Songs", maxOf(songCount, songs.size)) 
                         }
                         items(songs, key = { "song_${it.id}" }) { song ->
                             SongListItem(
@@ -271,6 +281,34 @@ fun SearchScreen(
                             )
                         }
                     }
+
+                    // Every full-text match, paged, including lyrics and genre matches
+                    if (allMatches.itemCount > 0) {
+                        item {
+                            Spacer(modifier = Modifier.height(NeoDimens.SpacingM))
+                            SectionHeader("All matches", allMatchesCount)
+                        }
+                        items(
+                            count = allMatches.itemCount,
+                            key = allMatches.itemKey { "match_${it.song.id}" }
+                        ) { index ->
+                            val match = allMatches[index] ?: return@items
+                            val highlight = SpanStyle(
+                                color = MaterialTheme.colorScheme.primary,
+                                fontWeight = FontWeight.SemiBold
+                            )
+                            SearchResultItem(
+                                title = match.song.title,
+                                subtitle = "${match.song.artist} • ${match.song.album}",
+                                artUri = match.song.albumArtUri,
+                                snippet = remember(match.snippet) { highlightSnippet(match.snippet, highlight) },
+                                onClick = {
+                                    viewModel.playSong(match.song)
+                                    onSongClick(match.song)
+                                }
+                            )
+                        }
+                    }
                 }
             }
         }
@@ -305,6 +343,7 @@ private fun SearchResultItem(
     subtitle: String,
     artUri: android.net.Uri?,
     isArtist: Boolean = false,
+    snippet: AnnotatedString? = null,
     onClick: () -> Unit
 ) {
     NeoCard(
@@ -356,6 +395,14 @@ private fun SearchResultItem(
                     color = MaterialTheme.colorScheme.onSurfaceVariant,
                     maxLines = 1
                 )
+                if (snippet != null) {
+                    Text(
+                        text = snippet,
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant,
+                        maxLines = 2
+                    )
+                }
             }
 
             Icon(
@@ -367,3 +414,22 @@ private fun SearchResultItem(
         }
     }
 }
+
+/**
+ * A full-text search snippet with its matched terms (between the FTS markers) styled
+ * with [highlight].
+ */
+private fun highlightSnippet(snippet: String, highlight: SpanStyle): AnnotatedString = buildAnnotatedString {
+    var from = 0
+    while (from < snippet.length) {
+        val start = snippet.indexOf(LibrarySearchHit.MATCH_START, from)
+        if (start < 0) {
+            append(snippet.substring(from))
+            break
+        }
+        append(snippet.substring(from, start))
+        val end = snippet.indexOf(LibrarySearchHit.MATCH_END, start).let { if (it < 0) snippet.length else it }
+        withStyle(highlight) { append(snippet.substring(start + LibrarySearchHit.MATCH_START.length, end)) }
+        from = end + LibrarySearchHit.MATCH_END.length
+    }
+}
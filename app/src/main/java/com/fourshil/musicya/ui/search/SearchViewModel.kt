@@ -2,13 +2,20 @@ package com.fourshil.musicya.ui.search
 
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import com.fourshil.musicya.data.db.MusicDao
 import com.fourshil.musicya.data.model.Album
 import com.fourshil.musicya.data.model.Artist
 import com.fourshil.musicya.data.model.Song
 import com.fourshil.musicya.data.repository.MusicRepository
+import com.fourshil.musicya.data.repository.SongMatch
+import com.fourshil.musicya.data.repository.SongMatches
 import com.fourshil.musicya.player.PlayerController
 import dagger.hilt.android.lifecycle.HiltViewModel
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.FlowPreview
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
@@ -18,7 +25,8 @@ import javax.inject.Inject
 @HiltViewModel
 class SearchViewModel @Inject constructor(
     private val repository: MusicRepository,
-    private val playerController: PlayerController
+    private val playerController: PlayerController,
+    musicDao: MusicDao
 ) : ViewModel() {
 
     private val _query = MutableStateFlow("")
@@ -27,6 +35,10 @@ class SearchViewModel @Inject constructor(
     private val _songs = MutableStateFlow<List<Song>>(emptyList())
     val songs = _songs.asStateFlow()
 
+    /** Number of substring matches, which [songs] only holds the top of. */
+    private val _songCount = MutableStateFlow(0)
+    val songCount = _songCount.asStateFlow()
+
     private val _albums = MutableStateFlow<List<Album>>(emptyList())
     val albums = _albums.asStateFlow()
 
@@ -36,10 +48,37 @@ class SearchViewModel @Inject constructor(
     private val _isSearching = MutableStateFlow(false)
     val isSearching = _isSearching.asStateFlow()
 
-    // Lazy-loaded data - only fetched when user starts typing
-    private var allSongs: List<Song>? = null
-    private var allAlbums: List<Album>? = null
-    private var allArtists: List<Artist>? = null
+    @OptIn(FlowPreview::class)
+    private val settledQuery = _query.debounce(300).distinctUntilChanged()
+
+    /**
+     * Every full-text match for the query, paged from the library's FTS table. Unlike
+     * [songs], which ranks substring matches in memory, this also finds genres and lyrics.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val allMatches: Flow<PagingData<SongMatch>> = settledQuery
+        .flatMapLatest { repository.searchFullText(it) }
+        .cachedIn(viewModelScope)
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val allMatchesCount: StateFlow<Int> = settledQuery
+        .flatMapLatest { repository.observeFullTextCount(it) }
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5_000), 0)
+
+    /** Plays per song ID, to rank fuzzy song matches. */
+    private val playCounts: StateFlow<Map<Long, Int>> = musicDao.getPlayedSongs()
+        .map { history -> history.associate { it.songId to it.playCount } }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, emptyMap())
+
+    /** Plays per artist name, to rank fuzzy artist matches; rebuilt with the counts or the library. */
+    private val artistPlays: StateFlow<Map<String, Int>> = playCounts
+        .combine(repository.library.map { it.version }.distinctUntilChanged()) { plays, _ -> plays }
+        .map { repository.artistPlayCounts(it) }
+        .flowOn(Dispatchers.Default)
+        .stateIn(viewModelScope, SharingStarted.Eagerly, emptyMap())
+
+    // Songs, albums and artists come from the shared library snapshot so they follow
+    // MediaStore patches; the library load starts when the user starts typing.
     private var dataLoaded = false
 
     init {
@@ -47,50 +86,76 @@ class SearchViewModel @Inject constructor(
         observeQuery()
     }
 
-    private suspend fun ensureDataLoaded() {
+    private fun ensureDataLoaded() {
         if (dataLoaded) return
-        withContext(Dispatchers.IO) {
-            allSongs = repository.getAllSongs()
-            allAlbums = repository.getAllAlbums()
-            allArtists = repository.getAllArtists()
-            dataLoaded = true
-        }
+        // Don't wait for the library: results come from whatever the snapshot holds so far
+        viewModelScope.launch { repository.loadLibrary() }
+        dataLoaded = true
     }
 
-    @OptIn(FlowPreview::class)
+    /**
+     * Re-run the search when the query settles or the library snapshot changes, so
+     * results fill in while a first scan is still streaming. Songs and artists that don't
+     * fill their limit with substring matches are topped up with typo-tolerant ones.
+     *
+     * A new query or snapshot cancels the search in flight, which checks for that between
+     * stages. Results come in tiers: the top songs, albums and artists first, then the
+     * exact song count. The complete match set is kept, so a query that extends the last
+     * one ("beat" -> "beatl") filters those matches instead of searching the library.
+     */
     private fun observeQuery() {
         viewModelScope.launch {
-            _query
-                .debounce(300)
-                .collect { q ->
+            var lastMatches: SongMatches? = null
+            settledQuery
+                .combine(repository.library) { q, snapshot -> q to snapshot }
+                .collectLatest { (q, snapshot) ->
                     if (q.isBlank()) {
+                        lastMatches = null
                         _songs.value = emptyList()
+                        _songCount.value = 0
                         _albums.value = emptyList()
                         _artists.value = emptyList()
-                    } else {
-                        _isSearching.value = true
-                        // Lazy load data only when user starts searching
-                        ensureDataLoaded()
-                        
-                        val queryLower = q.lowercase()
-                        _songs.value = allSongs?.filter {
-                            it.title.lowercase().contains(queryLower) ||
-                            it.artist.lowercase().contains(queryLower)
-                        }?.take(20) ?: emptyList()
-                        _albums.value = allAlbums?.filter {
-                            it.name.lowercase().contains(queryLower) ||
-                            it.artist.lowercase().contains(queryLower)
-                        }?.take(10) ?: emptyList()
-                        _artists.value = allArtists?.filter {
-                            it.name.lowercase().contains(queryLower)
-                        }?.take(10) ?: emptyList()
                         _isSearching.value = false
+                        return@collectLatest
                     }
+                    _isSearching.value = true
+                    // Trigram index lookups; the index is built on the first search of a snapshot
+                    withContext(Dispatchers.Default) {
+                        val plays = playCounts.value
+                        val narrowed = lastMatches?.let { repository.narrowSongs(snapshot, q, it) }
+                        val top = narrowed?.let { repository.rankSongs(it, limit = 20) }
+                            ?: repository.searchSongs(snapshot, q, limit = 20).items
+                        ensureActive()
+                        _songs.value = withFuzzy(top, 20, Song::id) {
+                            repository.fuzzySearchSongs(snapshot, q, limit = 20, plays)
+                        }
+                        ensureActive()
+                        _albums.value = repository.searchAlbums(snapshot, q, limit = 10).items
+                        _artists.value = withFuzzy(repository.searchArtists(snapshot, q, limit = 10).items, 10, Artist::id) {
+                            repository.fuzzySearchArtists(snapshot, q, limit = 10, artistPlays.value)
+                        }
+                        ensureActive()
+                        val matches = narrowed ?: repository.matchSongs(snapshot, q)
+                        lastMatches = matches
+                        _songCount.value = matches.total
+                    }
+                    _isSearching.value = false
                 }
         }
     }
 
+    /**
+     * [exact] followed by [fuzzy] matches not already in it, up to [limit].
+     */
+    private inline fun <T> withFuzzy(exact: List<T>, limit: Int, id: (T) -> Long, fuzzy: () -> List<T>): List<T> {
+        if (exact.size >= limit) return exact
+        val seen = exact.mapTo(HashSet()) { id(it) }
+        return exact + fuzzy().filter { id(it) !in seen }.take(limit - exact.size)
+    }
+
     fun onQueryChange(newQuery: String) {
+        // Start the library load with the first keystroke, before the query settles
+        if (newQuery.isNotBlank()) ensureDataLoaded()
         _query.value = newQuery
     }
 
@@ -1,7 +1,9 @@
 package com.fourshil.musicya.util
 
 import android.content.Context
+import android.util.Log
 import android.util.LruCache
+import com.fourshil.musicya.data.db.LibraryDao
 import com.fourshil.musicya.data.model.Song
 import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.Dispatchers
@@ -10,14 +12,19 @@ import java.io.File
 import javax.inject.Inject
 import javax.inject.Singleton
 
+private const val TAG = "LyricsManager"
+
 /**
  * Manages loading lyrics for songs.
  * Searches for LRC files in the same directory as the audio file.
  * Uses caching to avoid repeated file system lookups.
+ * Lyrics found are also written to the library's full-text search table, so a song
+ * can be found by its lyrics once they've been loaded.
  */
 @Singleton
 class LyricsManager @Inject constructor(
-    @ApplicationContext private val context: Context
+    @ApplicationContext private val context: Context,
+    private val libraryDao: LibraryDao
 ) {
     private sealed class LyricsCacheEntry {
         data class Found(val lyrics: Lyrics) : LyricsCacheEntry()
@@ -86,6 +93,7 @@ class LyricsManager @Inject constructor(
                     val lyrics = LyricsParser.parseFile(lrcFile)
                     if (lyrics != null) {
                         lyricsCache.put(song.path, LyricsCacheEntry.Found(lyrics))
+                        indexLyrics(song, lyrics)
                         return@withContext lyrics
                     }
                 }
@@ -100,6 +108,7 @@ class LyricsManager @Inject constructor(
                     val lyrics = LyricsParser.parseFile(lrcFile)
                     if (lyrics != null) {
                         lyricsCache.put(song.path, LyricsCacheEntry.Found(lyrics))
+                        indexLyrics(song, lyrics)
                         return@withContext lyrics
                     }
                 }
@@ -113,6 +122,14 @@ class LyricsManager @Inject constructor(
         }
     }
     
+    private suspend fun indexLyrics(song: Song, lyrics: Lyrics) {
+        try {
+            libraryDao.setLyrics(song.id, lyrics.lines.joinToString("\n") { it.text })
+        } catch (e: Exception) {
+            Log.e(TAG, "indexLyrics: Error indexing lyrics for ${song.id}", e)
+        }
+    }
+    
     /**
      * Check if lyrics exist for a song without loading them.
      */
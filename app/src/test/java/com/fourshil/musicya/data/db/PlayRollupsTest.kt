@@ -0,0 +1,75 @@
+package com.fourshil.musicya.data.db
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Unit tests for recording plays into the play history and its daily and weekly rollups.
+ */
+@RunWith(RobolectricTestRunner::class)
+class PlayRollupsTest {
+
+    private lateinit var db: AppDatabase
+    private lateinit var dao: MusicDao
+
+    private val now = PlayStats.DECAY_EPOCH + 200 * PlayStats.DAY_MS
+
+    @Before
+    fun setUp() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase::class.java).build()
+        dao = db.musicDao()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun `play counts leave out skips like the rollups do`() = runBlocking {
+        dao.recordPlays(
+            listOf(
+                PlayEvent(songId = 1, playedAt = now - 3_000),
+                PlayEvent(songId = 1, playedAt = now - 2_000, skipped = true),
+                PlayEvent(songId = 1, playedAt = now - 1_000)
+            ),
+            now
+        )
+
+        val history = dao.getPlayHistory(1)!!
+        assertEquals(2, history.playCount)
+        assertEquals(now - 1_000, history.lastPlayedAt)
+        assertEquals(listOf(2L, 1L), rollup("play_daily"))
+        assertEquals(listOf(2L, 1L), rollup("play_weekly"))
+    }
+
+    @Test
+    fun `replaying plays counts nothing twice, even after compaction`() = runBlocking {
+        val old = PlayEvent(songId = 1, playedAt = now - (PlayStats.RAW_RETENTION_DAYS + 5) * PlayStats.DAY_MS)
+        val recent = PlayEvent(songId = 1, playedAt = now - 1_000)
+        dao.recordPlays(listOf(old), old.playedAt + 1_000)
+        dao.recordPlays(listOf(recent), now)
+        // Drops the old play's raw event
+        dao.compactPlayStats(now)
+
+        // A stale journal replayed after a crash holds both
+        dao.recordPlays(listOf(old, recent), now)
+
+        assertEquals(2, dao.getPlayHistory(1)!!.playCount)
+        assertEquals(listOf(2L, 0L), rollup("play_weekly"))
+    }
+
+    /** Total plays and skips in a rollup table. */
+    private fun rollup(table: String): List<Long> =
+        db.openHelper.readableDatabase.query("SELECT SUM(plays), SUM(skips) FROM $table").use { cursor ->
+            cursor.moveToFirst()
+            listOf(cursor.getLong(0), cursor.getLong(1))
+        }
+}
@@ -0,0 +1,104 @@
+package com.fourshil.musicya.data.db
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import kotlin.random.Random
+
+/**
+ * Runs playlist edits against an in-memory database with a 20k-song playlist: the order
+ * must match a plain list, and moves and inserts must write only their own rows.
+ */
+@RunWith(RobolectricTestRunner::class)
+class PlaylistOrderTest {
+
+    private lateinit var db: AppDatabase
+    private lateinit var dao: MusicDao
+    private var playlistId = 0L
+
+    @Before
+    fun setUp() = runBlocking {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase::class.java).build()
+        dao = db.musicDao()
+        playlistId = dao.createPlaylist(Playlist(name = "Big"))
+        dao.addSongsToPlaylist(playlistId, (0L until SIZE).toList())
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun `appends go after existing songs and skip duplicates`() = runBlocking {
+        dao.addSongsToPlaylist(playlistId, listOf(5L, SIZE, SIZE + 1, SIZE))
+
+        assertEquals((0L..SIZE + 1).toList(), dao.getPlaylistSongIdsSync(playlistId))
+    }
+
+    @Test
+    fun `moves and inserts write only their own rows`() = runBlocking {
+        val before = keys()
+
+        dao.moveSongInPlaylist(playlistId, from = 15_000, to = 3)
+        dao.insertSongsIntoPlaylist(playlistId, position = 10_000, songIds = listOf(SIZE, SIZE + 1))
+
+        val after = keys()
+        assertEquals(setOf(15_000L, SIZE, SIZE + 1), after.keys.filter { after[it] != before[it] }.toSet())
+        val ids = dao.getPlaylistSongIdsSync(playlistId)
+        assertEquals(listOf(0L, 1L, 2L, 15_000L, 3L), ids.take(5))
+        assertEquals(listOf(9_998L, SIZE, SIZE + 1, 9_999L), ids.subList(9_999, 10_003))
+    }
+
+    @Test
+    fun `random edits keep the same order as a list`() = runBlocking {
+        val model = (0L until SIZE).toMutableList()
+        val random = Random(1)
+        var next = SIZE
+
+        repeat(1_000) {
+            when (random.nextInt(3)) {
+                0 -> {
+                    val from = random.nextInt(model.size)
+                    val to = random.nextInt(model.size)
+                    dao.moveSongInPlaylist(playlistId, from, to)
+                    model.add(to, model.removeAt(from))
+                }
+                1 -> {
+                    // Often the same spot, so the gap there runs out and forces a renumber
+                    val position = if (random.nextBoolean()) 5 else random.nextInt(model.size + 1)
+                    val ids = List(1 + random.nextInt(3)) { next++ }
+                    dao.insertSongsIntoPlaylist(playlistId, position, ids)
+                    model.addAll(position, ids)
+                }
+                else -> {
+                    val from = random.nextInt(model.size)
+                    val count = 1 + random.nextInt(3)
+                    assertEquals(minOf(count, model.size - from), dao.removeSongsFromPlaylist(playlistId, from, count))
+                    repeat(minOf(count, model.size - from)) { model.removeAt(from) }
+                }
+            }
+        }
+
+        assertEquals(model, dao.getPlaylistSongIdsSync(playlistId))
+    }
+
+    /** Sort key by song. */
+    private fun keys(): Map<Long, Long> {
+        val keys = HashMap<Long, Long>()
+        db.openHelper.readableDatabase.query(
+            "SELECT songId, sortOrder FROM playlist_songs WHERE playlistId = ?", arrayOf<Any>(playlistId)
+        ).use { while (it.moveToNext()) keys[it.getLong(0)] = it.getLong(1) }
+        return keys
+    }
+
+    private companion object {
+        const val SIZE = 20_000L
+    }
+}
@@ -0,0 +1,80 @@
+package com.fourshil.musicya.data.db
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Unit tests for the per-album playlist rows and folding them into summaries.
+ */
+@RunWith(RobolectricTestRunner::class)
+class PlaylistSummaryTest {
+
+    private val mix = Playlist(id = 1, name = "Mix", createdAt = 0, updatedAt = 2)
+    private val empty = Playlist(id = 2, name = "Empty", createdAt = 0, updatedAt = 1)
+
+    @Test
+    fun `rows fold into counts, durations and the first four albums in playlist order`() {
+        val rows = listOf(
+            PlaylistAlbumRow(mix, albumId = null, songCount = 0, duration = 0, firstSortOrder = 6),
+            PlaylistAlbumRow(mix, albumId = 100, songCount = 2, duration = 3_000, firstSortOrder = 1),
+            PlaylistAlbumRow(mix, albumId = 101, songCount = 1, duration = 3_000, firstSortOrder = 0),
+            PlaylistAlbumRow(mix, albumId = 102, songCount = 1, duration = 1, firstSortOrder = 3),
+            PlaylistAlbumRow(mix, albumId = 103, songCount = 1, duration = 1, firstSortOrder = 5),
+            PlaylistAlbumRow(mix, albumId = 104, songCount = 1, duration = 1, firstSortOrder = 4),
+            PlaylistAlbumRow(empty, albumId = null, songCount = 0, duration = 0, firstSortOrder = null)
+        )
+
+        val summaries = PlaylistSummary.fromRows(rows)
+
+        assertEquals(
+            listOf(
+                PlaylistSummary(mix, songCount = 6, totalDuration = 6_003, albumIds = listOf(101, 100, 102, 104)),
+                PlaylistSummary(empty, songCount = 0, totalDuration = 0, albumIds = emptyList())
+            ),
+            summaries
+        )
+    }
+
+    @Test
+    fun `only songs indexed on the given volumes are counted`() = runBlocking {
+        val db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase::class.java).build()
+        val musicDao = db.musicDao()
+        db.libraryDao().upsertSongs(
+            listOf(
+                librarySong(1, albumId = 100, duration = 1_000, volumeName = "external_primary"),
+                librarySong(2, albumId = 100, duration = 2_000, volumeName = "external_primary"),
+                librarySong(3, albumId = 200, duration = 4_000, volumeName = "1a2b-3c4d")
+            )
+        )
+        // Song 4 was deleted from the library; song 3 is on a card that isn't mounted
+        val playlistId = musicDao.createPlaylistWithSongs(Playlist(name = "Mix"), listOf(4, 3, 1, 2))
+
+        val summary = PlaylistSummary.fromRows(musicDao.getPlaylistAlbumRows(setOf("external_primary")).first()).single()
+
+        assertEquals(playlistId, summary.playlist.id)
+        assertEquals(2, summary.songCount)
+        assertEquals(3_000, summary.totalDuration)
+        assertEquals(listOf(100L), summary.albumIds)
+        db.close()
+    }
+
+    private fun librarySong(id: Long, albumId: Long, duration: Long, volumeName: String) = LibrarySong(
+        id = id,
+        title = "Song $id",
+        artist = "Artist",
+        album = "Album $albumId",
+        albumId = albumId,
+        duration = duration,
+        path = "/music/$id.mp3",
+        dateAdded = 0,
+        dateModified = 0,
+        size = 0,
+        volumeName = volumeName
+    )
+}
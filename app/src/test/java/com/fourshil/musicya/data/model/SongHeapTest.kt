@@ -0,0 +1,129 @@
+package com.fourshil.musicya.data.model
+
+import android.content.ContentUris
+import android.net.Uri
+import android.provider.MediaStore
+import com.fourshil.musicya.data.repository.MetadataPool
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Heap footprint of a library of [Song]s against the earlier Song shape, which stored a
+ * parsed album art Uri and a lazy formatted duration per song.
+ * Runs under Robolectric so both shapes hold real Uris.
+ */
+@RunWith(RobolectricTestRunner::class)
+class SongHeapTest {
+
+    @Test
+    fun `slimmed songs retain less heap than the baseline shape at 10k 50k and 100k rows`() {
+        for (rows in listOf(10_000, 50_000, 100_000)) {
+            val baselineBytes = retainedBytes { baselineSongs(rows) }
+            val songBytes = retainedBytes { songs(rows) }
+            println(
+                "Song heap @ $rows rows: baseline=${baselineBytes / rows} B/row, " +
+                    "slimmed=${songBytes / rows} B/row"
+            )
+            assertTrue(
+                "Slimmed songs ($songBytes B) should retain less than the baseline shape ($baselineBytes B) at $rows rows",
+                songBytes < baselineBytes
+            )
+        }
+    }
+
+    /**
+     * Approximate heap retained by the result of [build], measured across forced GCs.
+     */
+    private fun retainedBytes(build: () -> Any): Long {
+        val before = usedHeap()
+        val retained = build()
+        val after = usedHeap()
+        assertNotNull(retained) // keep the result reachable until after the measurement
+        return after - before
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(4) {
+            System.gc()
+            Thread.sleep(50)
+        }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    private fun songs(count: Int): List<Song> {
+        val pool = MetadataPool()
+        return List(count) { i ->
+            Song(
+                id = i + 1L,
+                title = title(i),
+                artist = pool.intern(artist(i)),
+                album = pool.intern(album(i)),
+                albumId = albumId(i),
+                duration = 180_000L + i,
+                uri = uri(i),
+                path = path(i),
+                dateAdded = 1_700_000_000L + i,
+                size = 4_000_000L + i
+            )
+        }
+    }
+
+    private fun baselineSongs(count: Int): List<BaselineSong> {
+        val pool = MetadataPool()
+        return List(count) { i ->
+            BaselineSong(
+                id = i + 1L,
+                title = title(i),
+                artist = pool.intern(artist(i)),
+                album = pool.intern(album(i)),
+                albumId = albumId(i),
+                duration = 180_000L + i,
+                uri = uri(i),
+                path = path(i),
+                dateAdded = 1_700_000_000L + i,
+                size = 4_000_000L + i
+            )
+        }
+    }
+
+    /**
+     * Song as it was before slimming; only the per-instance fields matter here.
+     */
+    private data class BaselineSong(
+        val id: Long,
+        val title: String,
+        val artist: String,
+        val album: String,
+        val albumId: Long,
+        val duration: Long,
+        val uri: Uri,
+        val path: String,
+        val dateAdded: Long,
+        val size: Long,
+        val year: Int = 0
+    ) {
+        val durationFormatted: String by lazy {
+            val minutes = (duration / 1000) / 60
+            val seconds = (duration / 1000) % 60
+            "%d:%02d".format(minutes, seconds)
+        }
+
+        val albumArtUri: Uri = Uri.parse("content://media/external/audio/albumart/$albumId")
+    }
+
+    // Rows shaped like a real scan: album, artist and folder values repeat across rows
+    private fun title(i: Int) = "Track $i"
+    private fun albumId(i: Int) = (i % ALBUMS).toLong()
+    private fun album(i: Int) = "Album ${i % ALBUMS}"
+    private fun artist(i: Int) = "Artist ${i % ALBUMS % ARTISTS}"
+    private fun path(i: Int) = "/storage/emulated/0/Music/${artist(i)}/${album(i)}/${title(i)}.mp3"
+    private fun uri(i: Int) = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, i + 1L)
+
+    private companion object {
+        const val ARTISTS = 50
+        const val ALBUMS = 200
+    }
+}
@@ -0,0 +1,33 @@
+package com.fourshil.musicya.data.model
+
+import android.net.Uri
+
+/**
+ * A [Song] for tests, with defaults for every field a test doesn't care about.
+ * [Uri.EMPTY] needs Robolectric or unit test return defaults.
+ */
+fun testSong(
+    id: Long,
+    title: String = "Song $id",
+    artist: String = "Artist",
+    album: String = "Album",
+    albumId: Long = 1,
+    duration: Long = 0,
+    path: String = "/music/$id.mp3",
+    dateAdded: Long = 0,
+    size: Long = 0,
+    year: Int = 0,
+    uri: Uri = Uri.EMPTY
+) = Song(
+    id = id,
+    title = title,
+    artist = artist,
+    album = album,
+    albumId = albumId,
+    duration = duration,
+    uri = uri,
+    path = path,
+    dateAdded = dateAdded,
+    size = size,
+    year = year
+)
@@ -0,0 +1,70 @@
+package com.fourshil.musicya.data.repository
+
+import java.io.File
+import java.util.Properties
+
+/**
+ * Stored timing baselines for the library benchmarks.
+ *
+ * Baselines live in `benchmark-baselines.properties` on the test classpath as
+ * `<operation>@<rows>=<millis>`. A measurement fails when it exceeds its baseline by more
+ * than the tolerance factor (`-Dbenchmark.tolerance`, default 1.5). Missing baselines
+ * only print the measurement.
+ *
+ * Run with `-Dbenchmark.record=true` to write every measurement to
+ * `build/benchmark-baselines.properties` instead of checking, then copy the values
+ * that should become the new baselines into the resource file along with the header
+ * naming the machine and JVM they were measured on.
+ */
+class BenchmarkBaselines private constructor(private val baselines: Properties) {
+
+    private val recorded = sortedMapOf<String, Long>()
+    private val failures = mutableListOf<String>()
+
+    private val recording = System.getProperty("benchmark.record")?.toBoolean() == true
+    private val tolerance = System.getProperty("benchmark.tolerance")?.toDoubleOrNull() ?: 1.5
+
+    fun check(operation: String, rows: Int, millis: Long) {
+        val key = "$operation@$rows"
+        recorded[key] = millis
+        val baseline = baselines.getProperty(key)?.toLongOrNull()
+        println("Benchmark $key: $millis ms (baseline ${baseline ?: "none"})")
+        if (recording || baseline == null) return
+        val limit = (baseline * tolerance).toLong()
+        if (millis > limit) {
+            failures += "$key took $millis ms, over baseline $baseline ms x $tolerance"
+        }
+    }
+
+    /**
+     * Regressions found so far; in record mode the measurements are written out instead.
+     */
+    fun finish(): List<String> {
+        if (recording) {
+            val out = File("build/benchmark-baselines.properties")
+            out.parentFile?.mkdirs()
+            out.writeText(recorded.entries.joinToString("\n", prefix = "# ${machine()}\n", postfix = "\n") { (key, millis) -> "$key=$millis" })
+            println("Benchmark baselines recorded to ${out.absolutePath}")
+            return emptyList()
+        }
+        return failures.toList()
+    }
+
+    /** The machine and JVM the measurements come from, for the recorded file's header. */
+    private fun machine(): String {
+        val cpus = Runtime.getRuntime().availableProcessors()
+        val os = "${System.getProperty("os.name")} ${System.getProperty("os.arch")}"
+        val jvm = "${System.getProperty("java.vm.name")} ${System.getProperty("java.version")}"
+        return "Recorded on $os, $cpus CPUs, ${Runtime.getRuntime().maxMemory() / (1 shl 20)} MB heap, $jvm"
+    }
+
+    companion object {
+        fun load(): BenchmarkBaselines {
+            val properties = Properties()
+            BenchmarkBaselines::class.java.classLoader
+                ?.getResourceAsStream("benchmark-baselines.properties")
+                ?.use { properties.load(it) }
+            return BenchmarkBaselines(properties)
+        }
+    }
+}
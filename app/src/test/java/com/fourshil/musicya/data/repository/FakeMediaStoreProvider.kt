@@ -0,0 +1,203 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.ContentProvider
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.content.Intent
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
+import android.os.Bundle
+import android.os.CancellationSignal
+import android.provider.MediaStore
+import org.robolectric.Robolectric
+import kotlin.random.Random
+
+/**
+ * Shape of a generated library.
+ *
+ * @property rows Number of audio rows
+ * @property artists Distinct artists; albums are spread evenly across them
+ * @property albumsPerArtist Distinct albums per artist
+ * @property pathDepth Folder levels below the music root (at least 1)
+ * @property seed Seed for titles and durations, so runs are repeatable
+ */
+data class SyntheticLibrarySpec(
+    val rows: Int,
+    val artists: Int = maxOf(1, rows / 40),
+    val albumsPerArtist: Int = 4,
+    val pathDepth: Int = 3,
+    val seed: Long = 42L
+)
+
+/**
+ * In-memory stand-in for the MediaStore provider, registered under [MediaStore.AUTHORITY].
+ *
+ * Rows live in a real SQLite table with MediaStore's column names, so selections, sort
+ * orders, LIMIT (both the Q+ query Bundle and the legacy sort-order suffix) and the
+ * keyset SQL the app sends run as they would on a device. `call()` answers the version
+ * and generation lookups behind [MediaStore.getVersion] and [MediaStore.getGeneration].
+ *
+ * Only the audio media table is served; other URIs return no cursor.
+ */
+class FakeMediaStoreProvider : ContentProvider() {
+
+    private lateinit var db: SQLiteDatabase
+    private var generation = 0L
+
+    override fun onCreate(): Boolean {
+        db = SQLiteDatabase.create(null)
+        db.execSQL(
+            "CREATE TABLE audio (" +
+                "_id INTEGER PRIMARY KEY, title TEXT, artist TEXT, album TEXT, album_id INTEGER, " +
+                "duration INTEGER, _data TEXT, date_added INTEGER, date_modified INTEGER, " +
+                "size INTEGER, year INTEGER, genre TEXT, volume_name TEXT NOT NULL DEFAULT 'external', is_music INTEGER NOT NULL DEFAULT 1, generation_modified INTEGER NOT NULL DEFAULT 0)"
+        )
+        return true
+    }
+
+    /**
+     * Replace the table contents with a deterministic library shaped by [spec].
+     */
+    fun populate(spec: SyntheticLibrarySpec) {
+        val random = Random(spec.seed)
+        val albums = spec.artists * spec.albumsPerArtist
+        generation++
+        db.beginTransaction()
+        try {
+            db.execSQL("DELETE FROM audio")
+            val statement = db.compileStatement(
+                "INSERT INTO audio (_id, title, artist, album, album_id, duration, _data, date_added, " +
+                    "date_modified, size, year, is_music, generation_modified) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 1, ?)"
+            )
+            for (i in 0 until spec.rows) {
+                val id = i + 1L
+                val album = i % albums
+                val artist = album % spec.artists
+                val title = "${WORDS[random.nextInt(WORDS.size)]} ${WORDS[random.nextInt(WORDS.size)]} $i"
+                statement.clearBindings()
+                statement.bindLong(1, id)
+                statement.bindString(2, title)
+                statement.bindString(3, "Artist $artist")
+                statement.bindString(4, "Album $album")
+                statement.bindLong(5, album.toLong())
+                statement.bindLong(6, 60_000L + random.nextInt(300_000))
+                statement.bindString(7, "${folderFor(spec, artist, album)}/$title.mp3")
+                statement.bindLong(8, 1_600_000_000L + i)
+                statement.bindLong(9, 1_600_000_000L + i)
+                statement.bindLong(10, 2_000_000L + random.nextInt(8_000_000))
+                statement.bindLong(11, 1970L + album % 50)
+                statement.bindLong(12, generation)
+                statement.executeInsert()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun folderFor(spec: SyntheticLibrarySpec, artist: Int, album: Int): String {
+        val levels = (1..maxOf(1, spec.pathDepth)).map { level ->
+            when (level) {
+                1 -> "Artist $artist"
+                2 -> "Album $album"
+                else -> "Disc ${level - 2}"
+            }
+        }
+        return "$MUSIC_ROOT/${levels.joinToString("/")}"
+    }
+
+    override fun query(
+        uri: Uri,
+        projection: Array<String>?,
+        queryArgs: Bundle?,
+        cancellationSignal: CancellationSignal?
+    ): Cursor? {
+        if (!isAudio(uri)) return null
+        val args = queryArgs ?: Bundle.EMPTY
+        return select(
+            projection,
+            args.getString(ContentResolver.QUERY_ARG_SQL_SELECTION),
+            args.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS),
+            args.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER),
+            args.getInt(ContentResolver.QUERY_ARG_LIMIT, -1).takeIf { it >= 0 },
+            args.getInt(ContentResolver.QUERY_ARG_OFFSET, 0)
+        )
+    }
+
+    override fun query(
+        uri: Uri,
+        projection: Array<String>?,
+        selection: String?,
+        selectionArgs: Array<String>?,
+        sortOrder: String?
+    ): Cursor? {
+        if (!isAudio(uri)) return null
+        // Legacy callers put LIMIT/OFFSET in the sort order; it is spliced into the SQL as-is
+        return select(projection, selection, selectionArgs, sortOrder, limit = null, offset = 0)
+    }
+
+    private fun select(
+        projection: Array<String>?,
+        selection: String?,
+        selectionArgs: Array<String>?,
+        sortOrder: String?,
+        limit: Int?,
+        offset: Int
+    ): Cursor {
+        val sql = buildString {
+            append("SELECT ")
+            append(projection?.joinToString(", ") ?: "*")
+            append(" FROM audio")
+            if (selection != null) append(" WHERE ").append(selection)
+            if (sortOrder != null) append(" ORDER BY ").append(sortOrder)
+            if (limit != null) append(" LIMIT ").append(limit).append(" OFFSET ").append(offset)
+        }
+        return db.rawQuery(sql, selectionArgs ?: emptyArray())
+    }
+
+    override fun call(method: String, arg: String?, extras: Bundle?): Bundle = Bundle().apply {
+        // MediaStore.getVersion reads EXTRA_TEXT, getGeneration reads EXTRA_INDEX
+        putString(Intent.EXTRA_TEXT, VERSION)
+        putLong(Intent.EXTRA_INDEX, generation)
+    }
+
+    override fun delete(uri: Uri, selection: String?, selectionArgs: Array<String>?): Int {
+        if (!isAudio(uri)) return 0
+        val id = uri.lastPathSegment?.toLongOrNull()
+        return if (id != null) {
+            db.delete("audio", "_id = ?", arrayOf(id.toString()))
+        } else {
+            db.delete("audio", selection, selectionArgs)
+        }
+    }
+
+    override fun getType(uri: Uri): String? = null
+
+    override fun insert(uri: Uri, values: ContentValues?): Uri? =
+        throw UnsupportedOperationException("FakeMediaStoreProvider is read-only")
+
+    override fun update(uri: Uri, values: ContentValues?, selection: String?, selectionArgs: Array<String>?): Int =
+        throw UnsupportedOperationException("FakeMediaStoreProvider is read-only")
+
+    private fun isAudio(uri: Uri): Boolean = uri.path?.contains("/audio/media") == true
+
+    companion object {
+        const val MUSIC_ROOT = "/storage/emulated/0/Music"
+        private const val VERSION = "fake-1"
+
+        private val WORDS = listOf(
+            "Blue", "Night", "River", "Electric", "Summer", "Echo", "Gold", "Silent",
+            "Wild", "Heart", "Paper", "Neon", "Ocean", "Dream", "Fire", "Glass"
+        )
+
+        /**
+         * Create the provider, register it for [MediaStore.AUTHORITY] and fill it per [spec].
+         */
+        fun install(spec: SyntheticLibrarySpec): FakeMediaStoreProvider =
+            Robolectric.buildContentProvider(FakeMediaStoreProvider::class.java)
+                .create(MediaStore.AUTHORITY)
+                .get()
+                .also { it.populate(spec) }
+    }
+}
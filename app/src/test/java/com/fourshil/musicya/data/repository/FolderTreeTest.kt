@@ -0,0 +1,65 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.testSong
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Unit tests for FolderTree aggregates, browsing and incremental patches.
+ */
+@RunWith(RobolectricTestRunner::class)
+class FolderTreeTest {
+
+    private val songs = listOf(
+        testSong(1, path = "/storage/emulated/0/Music/Rock/A/1.mp3", duration = 100, size = 10),
+        testSong(2, path = "/storage/emulated/0/Music/Rock/A/2.mp3", duration = 200, size = 20),
+        testSong(3, path = "/storage/emulated/0/Music/Rock/B/3.mp3", duration = 300, size = 30),
+        testSong(4, path = "/storage/emulated/0/Music/Jazz/4.mp3", duration = 400, size = 40)
+    )
+
+    @Test
+    fun `top level skips the shared single-child chain`() {
+        val tree = FolderTree().apply { rebuild(songs) }
+
+        assertEquals(listOf("Jazz", "Rock"), tree.children(null).map { it.name })
+    }
+
+    @Test
+    fun `nodes aggregate their whole subtree`() {
+        val tree = FolderTree().apply { rebuild(songs) }
+        val rock = tree.folder("/storage/emulated/0/Music/Rock")!!
+
+        assertEquals(3, rock.songCount)
+        assertEquals(0, rock.directSongCount)
+        assertEquals(2, rock.subfolderCount)
+        assertEquals(600L, rock.totalDuration)
+        assertEquals(60L, rock.totalSize)
+        assertEquals(4, tree.folder("/storage/emulated/0/Music")!!.songCount)
+    }
+
+    @Test
+    fun `subtree paths are depth-first and only include folders with songs`() {
+        val tree = FolderTree().apply { rebuild(songs) }
+
+        assertEquals(
+            listOf("/storage/emulated/0/Music/Jazz", "/storage/emulated/0/Music/Rock/A", "/storage/emulated/0/Music/Rock/B"),
+            tree.subtreeFolderPaths("/storage/emulated/0/Music")
+        )
+    }
+
+    @Test
+    fun `patch updates ancestors and prunes empty folders`() {
+        val tree = FolderTree().apply { rebuild(songs) }
+        val moved = testSong(3, path = "/storage/emulated/0/Music/Jazz/3.mp3", duration = 300, size = 30)
+
+        tree.patch(removed = listOf(songs[2]), added = listOf(moved))
+
+        assertNull(tree.folder("/storage/emulated/0/Music/Rock/B"))
+        assertEquals(2, tree.folder("/storage/emulated/0/Music/Rock")!!.songCount)
+        assertEquals(700L, tree.folder("/storage/emulated/0/Music/Jazz")!!.totalDuration)
+        assertEquals(4, tree.folder("/storage/emulated/0/Music")!!.songCount)
+        assertEquals(listOf("A" to 2, "Jazz" to 2), tree.foldersWithSongs().map { it.name to it.songCount })
+    }
+}
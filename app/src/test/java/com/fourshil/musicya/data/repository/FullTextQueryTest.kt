@@ -0,0 +1,78 @@
+package com.fourshil.musicya.data.repository
+
+import android.database.sqlite.SQLiteDatabase
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Runs expressions built by [FullTextQuery] against an FTS4 table declared like
+ * `library_search`, checking prefix, phrase and diacritic matching and that no input
+ * produces a syntax error.
+ */
+@RunWith(RobolectricTestRunner::class)
+class FullTextQueryTest {
+
+    private lateinit var db: SQLiteDatabase
+
+    @Before
+    fun setUp() {
+        db = SQLiteDatabase.create(null)
+        db.execSQL(
+            "CREATE VIRTUAL TABLE library_search USING FTS4(" +
+                "title, artist, album, folder, genre, lyrics, tokenize=unicode61 `remove_diacritics=1`)"
+        )
+        insert(1, "Halo", "Beyoncé", "I Am... Sasha Fierce", "Pop", "Remember those walls I built")
+        insert(2, "Let It Be", "The Beatles", "Let It Be", "Rock", "")
+        insert(3, "Jóga", "Björk", "Homogenic", "Electronic", "")
+        insert(4, "Or Nah", "Ty Dolla Sign", "Free TC", "Hip-Hop", "")
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun `words match as prefixes ignoring case and diacritics`() {
+        assertEquals(listOf(2L), match("beat"))
+        assertEquals(listOf(1L), match("BEYONCE halo"))
+        assertEquals(listOf(3L), match("bjork"))
+        assertEquals(listOf(1L), match("walls remember"))
+    }
+
+    @Test
+    fun `quoted text matches as a phrase`() {
+        assertEquals(listOf(1L), match("\"those walls\""))
+        assertEquals(emptyList<Long>(), match("\"walls those\""))
+        assertEquals(listOf(2L), match("\"let it"))
+    }
+
+    @Test
+    fun `operators and punctuation in input are plain words`() {
+        assertEquals(listOf(4L), match("OR NAH"))
+        assertEquals(listOf(4L), match("hip-hop"))
+        assertEquals(emptyList<Long>(), match("halo NOT beyonce -"))
+        assertEquals(emptyList<Long>(), match("* ( ) : ^ halo) NEAR/2 jóga"))
+        assertNull(FullTextQuery.build(" \"\" - *"))
+    }
+
+    private fun match(input: String): List<Long> {
+        val expression = FullTextQuery.build(input) ?: return emptyList()
+        val ids = mutableListOf<Long>()
+        db.rawQuery("SELECT rowid FROM library_search WHERE library_search MATCH ? ORDER BY rowid", arrayOf(expression)).use {
+            while (it.moveToNext()) ids += it.getLong(0)
+        }
+        return ids
+    }
+
+    private fun insert(id: Long, title: String, artist: String, album: String, genre: String, lyrics: String) {
+        db.execSQL(
+            "INSERT INTO library_search (rowid, title, artist, album, folder, genre, lyrics) VALUES (?, ?, ?, ?, '', ?, ?)",
+            arrayOf<Any>(id, title, artist, album, genre, lyrics)
+        )
+    }
+}
@@ -0,0 +1,113 @@
+package com.fourshil.musicya.data.repository
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Unit tests for the fuzzy word index: typo matching, ranking, and agreement with a
+ * scan over every token.
+ */
+class FuzzyIndexTest {
+
+    @Test
+    fun `typos and swapped letters still match`() {
+        val index = FuzzyIndex(
+            listOf(
+                arrayOf("let it be", "the beatles"),
+                arrayOf("joga", "bjork"),
+                arrayOf("halo", "beyonce")
+            )
+        )
+
+        assertEquals(listOf(0), search(index, "beatels"))
+        assertEquals(listOf(1), search(index, "bjrok"))
+        assertEquals(listOf(2), search(index, "beyonse halo"))
+        assertEquals(listOf(0), search(index, "let beat"))
+        assertEquals(emptyList<Int>(), search(index, "halo beatels"))
+        assertEquals(emptyList<Int>(), search(index, "xyzzy"))
+    }
+
+    @Test
+    fun `exact beats prefix beats fuzzy and plays break ties`() {
+        val index = FuzzyIndex(listOf(arrayOf("dreamer"), arrayOf("dream"), arrayOf("dreem"), arrayOf("dream")))
+        val plays = intArrayOf(0, 0, 100, 10)
+
+        assertEquals(listOf(3, 1, 0, 2), index.search("dream", limit = 10) { plays[it] }.toList())
+        assertEquals(listOf(3, 1), index.search("dream", limit = 2) { plays[it] }.toList())
+    }
+
+    @Test
+    fun `distance counts a swap of neighbours as one edit`() {
+        assertEquals(1, FuzzyIndex.distance("bjork", "bjrok", 2))
+        assertEquals(2, FuzzyIndex.distance("beatles", "betaels", 2))
+        assertEquals(3, FuzzyIndex.distance("abcdef", "uvwxyz", 2))
+    }
+
+    @Test
+    fun `matches agree with a scan over every token`() {
+        val random = Random(1)
+        val vocabulary = vocabulary(3_000, random)
+        val documents = List(5_000) { arrayOf(phrase(vocabulary, 1 + random.nextInt(4), random)) }
+        val index = FuzzyIndex(documents)
+        val tokens = vocabulary.toSet()
+
+        repeat(300) {
+            val query = typo(vocabulary[random.nextInt(vocabulary.size)], random)
+            val matching = tokens.filterTo(HashSet()) { token -> matches(query, token) }
+            val expected = documents.indices.filter { d -> documents[d][0].split(' ').any { it in matching } }
+
+            assertEquals(query, expected, index.search(query, limit = Int.MAX_VALUE) { 0 }.sorted())
+        }
+    }
+
+    private fun search(index: FuzzyIndex, query: String) = index.search(query, limit = 10) { 0 }.toList()
+
+    /** What [FuzzyIndex] should accept for a one-word query, checked the slow way. */
+    private fun matches(query: String, token: String): Boolean {
+        if (token == query || (query.length >= 2 && token.startsWith(query))) return true
+        if (token.length < 3 || token.any { it.isDigit() }) return false
+        val bound = minOf(FuzzyIndex.maxDistance(query.length), FuzzyIndex.maxDistance(token.length))
+        return bound > 0 && FuzzyIndex.distance(query, token, bound) <= bound
+    }
+
+    /** Generated words and phrases, shared with [LibraryComponentsBenchmarkTest]. */
+    internal companion object {
+        private val SYLLABLES = listOf(
+            "ka", "lo", "mi", "ne", "ru", "sa", "ti", "vo", "ber", "lan", "dor", "mel",
+            "qui", "zen", "ph", "ght", "ea", "ou", "str", "ck", "a", "e", "o"
+        )
+
+        /** [word] with up to two random substitutions, deletions, swaps or insertions. */
+        fun typo(word: String, random: Random): String {
+            val text = StringBuilder(word)
+            repeat(random.nextInt(3)) {
+                if (text.length <= 3) return@repeat
+                val at = random.nextInt(text.length)
+                when (random.nextInt(4)) {
+                    0 -> text.setCharAt(at, 'a' + random.nextInt(26))
+                    1 -> text.deleteCharAt(at)
+                    2 -> if (at + 1 < text.length) {
+                        val swapped = text[at]
+                        text.setCharAt(at, text[at + 1])
+                        text.setCharAt(at + 1, swapped)
+                    }
+                    else -> text.insert(at, 'a' + random.nextInt(26))
+                }
+            }
+            return text.toString()
+        }
+
+        fun phrase(vocabulary: List<String>, words: Int, random: Random) =
+            List(words) { vocabulary[random.nextInt(vocabulary.size)] }.joinToString(" ")
+
+        /** Distinct made-up words of one to four syllables. */
+        fun vocabulary(size: Int, random: Random): List<String> {
+            val words = LinkedHashSet<String>()
+            while (words.size < size) {
+                words += List(1 + random.nextInt(4)) { SYLLABLES[random.nextInt(SYLLABLES.size)] }.joinToString("")
+            }
+            return words.toList()
+        }
+    }
+}
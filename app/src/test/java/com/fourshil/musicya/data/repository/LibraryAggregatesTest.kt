@@ -0,0 +1,64 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.testSong
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Unit tests for album and artist aggregation and incremental rebuilds.
+ */
+@RunWith(RobolectricTestRunner::class)
+class LibraryAggregatesTest {
+
+    private val songs = listOf(
+        testSong(1, artist = "Band", album = "First", albumId = 10, duration = 100, year = 1999),
+        testSong(2, artist = "band", album = "First", albumId = 10, duration = 200, year = 2001),
+        testSong(3, artist = "Band", album = "Second", albumId = 20, duration = 300, year = 0),
+        testSong(4, artist = "Guest", album = "First", albumId = 10, duration = 400, year = 2000)
+    )
+
+    @Test
+    fun `albums aggregate counts durations and year range`() {
+        val (albums, _) = LibraryAggregates.build(songs)
+        val first = albums.single { it.id == 10L }
+
+        assertEquals(listOf("First", "Second"), albums.map { it.name })
+        assertEquals(3, first.songCount)
+        assertEquals(700L, first.totalDuration)
+        assertEquals(1999, first.year)
+        assertEquals(2001, first.lastYear)
+        assertEquals(LibraryAggregates.VARIOUS_ARTISTS, first.artist)
+        assertEquals(0, albums.single { it.id == 20L }.year)
+    }
+
+    @Test
+    fun `artists group case-insensitively and count distinct albums`() {
+        val (_, artists) = LibraryAggregates.build(songs)
+        val band = artists.single { it.name == "Band" }
+
+        assertEquals(listOf("Band", "Guest"), artists.map { it.name })
+        assertEquals(3, band.songCount)
+        assertEquals(2, band.albumCount)
+        assertEquals(600L, band.totalDuration)
+        assertEquals(1999 to 2001, band.firstYear to band.lastYear)
+        assertEquals(2, band.artUris.size)
+    }
+
+    @Test
+    fun `rebuild recomputes only the touched groups`() {
+        val (albums, artists) = LibraryAggregates.build(songs)
+        val remaining = songs.filter { it.id != 4L }
+
+        val patchedAlbums = LibraryAggregates.rebuildAlbums(albums, setOf(10L)) { id -> remaining.filter { it.albumId == id } }
+        val patchedArtists = LibraryAggregates.rebuildArtists(artists, setOf("Guest")) { name ->
+            remaining.filter { LibraryIndex.normalizeArtist(it.artist) == name }
+        }
+
+        assertEquals(2, patchedAlbums.single { it.id == 10L }.songCount)
+        assertEquals("Band", patchedAlbums.single { it.id == 10L }.artist)
+        assertEquals(listOf("Band"), patchedArtists.map { it.name })
+        assertEquals(LibraryAggregates.build(remaining), patchedAlbums to patchedArtists)
+    }
+}
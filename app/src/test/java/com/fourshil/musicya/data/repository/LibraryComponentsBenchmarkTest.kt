@@ -0,0 +1,139 @@
+package com.fourshil.musicya.data.repository
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.fourshil.musicya.data.db.AppDatabase
+import com.fourshil.musicya.data.model.SongSortOrder
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.StringReader
+import kotlin.random.Random
+
+/**
+ * Times the pieces below MusicRepository (page queries, search indexes, playlist import)
+ * at production sizes and fails when one regresses past its stored [BenchmarkBaselines].
+ * Each measurement is the median of a few timed batches after an untimed warm-up batch,
+ * except search latency, which is checked per query against a fixed p99 budget.
+ */
+@RunWith(RobolectricTestRunner::class)
+class LibraryComponentsBenchmarkTest {
+
+    @Test
+    fun `keyset pages stay within baselines at any depth`() {
+        val baselines = BenchmarkBaselines.load()
+        val rows = 60_000
+        val db = SongPageQueryTest.createAudioTable()
+        try {
+            SongPageQueryTest.insertRows(db, rows)
+            val order = SongSortOrder.TITLE
+            val boundary = SongPageQueryTest.offsetPage(db, order, 49_999, 1).single()
+            val deepKey = SongPageKey(boundary.sortValue, boundary.id, SongPageKey.Mode.AFTER)
+
+            // 100 pages of 50 rows per batch
+            baselines.check("keysetFirstPages", rows, medianMillis { repeat(100) { SongPageQueryTest.loadPage(db, order, null, 50) } })
+            baselines.check("keysetDeepPages", rows, medianMillis { repeat(100) { SongPageQueryTest.loadPage(db, order, deepKey, 50) } })
+        } finally {
+            db.close()
+        }
+
+        assertNoRegressions(baselines)
+    }
+
+    @Test
+    fun `trigram searches answer 99 percent of queries within 5 ms at 100k songs`() {
+        val songs = LibrarySearchIndexTest.library(100_000, Random(3))
+        val index = LibrarySearchIndex(MetadataPool())
+        val random = Random(4)
+        val queries = List(1_000) { LibrarySearchIndexTest.queryFrom(songs, random) }
+
+        // Untimed pass that also builds the index, then each query timed on its own
+        queries.forEach { index.searchSongs(songs, it, limit = 20) }
+        val samples = LongArray(queries.size * 5)
+        for (i in samples.indices) {
+            val start = System.nanoTime()
+            index.searchSongs(songs, queries[i % queries.size], limit = 20)
+            samples[i] = System.nanoTime() - start
+        }
+        samples.sort()
+        val p99 = samples[samples.size * 99 / 100]
+        println("Benchmark searchSongs@${songs.size}: p99 ${p99 / 1_000} us, median ${samples[samples.size / 2] / 1_000} us")
+
+        assertTrue("p99 search latency ${p99 / 1_000} us exceeds 5 ms", p99 < 5_000_000)
+    }
+
+    @Test
+    fun `fuzzy searches stay within baselines at 100k songs and 20k artists`() {
+        val baselines = BenchmarkBaselines.load()
+        val random = Random(2)
+        val vocabulary = FuzzyIndexTest.vocabulary(30_000, random)
+        val artists = List(20_000) { FuzzyIndexTest.phrase(vocabulary, 1 + random.nextInt(2), random) }
+        val songs = List(100_000) {
+            arrayOf(
+                FuzzyIndexTest.phrase(vocabulary, 1 + random.nextInt(4), random),
+                artists[random.nextInt(artists.size)],
+                FuzzyIndexTest.phrase(vocabulary, 1 + random.nextInt(2), random)
+            )
+        }
+        val plays = IntArray(songs.size) { if (random.nextInt(10) == 0) random.nextInt(100) else 0 }
+        val songIndex = FuzzyIndex(songs)
+        val artistIndex = FuzzyIndex(artists.map { arrayOf(it) })
+        val queries = List(1_000) {
+            val song = songs[random.nextInt(songs.size)]
+            val words = song[random.nextInt(2)].split(' ')
+            val word = FuzzyIndexTest.typo(words[random.nextInt(words.size)], random)
+            if (random.nextInt(4) == 0) "${vocabulary[random.nextInt(vocabulary.size)]} $word" else word
+        }
+
+        // 1,000 queries per batch, each searching songs and artists as the search screen does
+        val millis = medianMillis {
+            queries.forEach { query ->
+                songIndex.search(query, limit = 20) { plays[it] }
+                artistIndex.search(query, limit = 10) { 0 }
+            }
+        }
+        baselines.check("fuzzySearch", songs.size, millis)
+
+        assertNoRegressions(baselines)
+    }
+
+    @Test
+    fun `playlist imports stay within baselines at 100k songs`() = runBlocking {
+        val baselines = BenchmarkBaselines.load()
+        val library = PlaylistFilesTest.importLibrary(100_000)
+        val text = PlaylistFilesTest.importText(library, 10_000)
+        val db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase::class.java).build()
+        try {
+            // Building the resolver is part of every import
+            val millis = medianMillis {
+                val resolver = PlaylistResolver(library)
+                val entries = PlaylistFiles.entries(StringReader(text), PlaylistFormat.M3U8)
+                PlaylistTransfer.importEntries(db.musicDao(), "Big", entries, resolver, null) {}
+            }
+            baselines.check("importPlaylist10000", library.size, millis)
+        } finally {
+            db.close()
+        }
+
+        assertNoRegressions(baselines)
+    }
+
+    private fun assertNoRegressions(baselines: BenchmarkBaselines) {
+        val regressions = baselines.finish()
+        assertTrue("Benchmark regressions:\n${regressions.joinToString("\n")}", regressions.isEmpty())
+    }
+
+    private inline fun medianMillis(iterations: Int = 5, block: () -> Unit): Long {
+        block()
+        val samples = LongArray(iterations)
+        for (i in 0 until iterations) {
+            val start = System.nanoTime()
+            block()
+            samples[i] = (System.nanoTime() - start) / 1_000_000
+        }
+        samples.sort()
+        return samples[iterations / 2]
+    }
+}
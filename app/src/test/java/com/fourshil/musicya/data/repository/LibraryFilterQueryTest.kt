@@ -0,0 +1,93 @@
+package com.fourshil.musicya.data.repository
+
+import android.database.sqlite.SQLiteDatabase
+import com.fourshil.musicya.data.model.LibraryFilter
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Checks that the SQL compiled by [LibraryFilterQuery] (plus its residual) keeps exactly
+ * the rows [LibraryFilter.matches] keeps.
+ */
+@RunWith(RobolectricTestRunner::class)
+class LibraryFilterQueryTest {
+
+    private lateinit var db: SQLiteDatabase
+
+    private val rows = listOf(
+        Row(1, "/storage/emulated/0/Music/a.mp3", 200_000, 100),
+        Row(2, "/storage/emulated/0/Music/Live/b.FLAC", 300_000, 200),
+        Row(3, "/storage/emulated/0/Music0/c.mp3", 200_000, 300),
+        Row(4, "/storage/emulated/0/Ringtones/d.ogg", 5_000, 400),
+        Row(5, "/storage/emulated/0/Music/Podcasts/e.m4a", 900_000, 500),
+        Row(6, "/storage/emulated/0/Music/f.ÄAC", 200_000, 600),
+        Row(7, "/storage/emulated/0/Music", 200_000, 700),
+        Row(8, "/storage/emulated/0/Music/g_mp3", 200_000, 800)
+    )
+
+    @Before
+    fun setUp() {
+        db = SQLiteDatabase.create(null)
+        db.execSQL("CREATE TABLE audio (_id INTEGER PRIMARY KEY, _data TEXT, duration INTEGER, date_added INTEGER)")
+        rows.forEach {
+            db.execSQL("INSERT INTO audio VALUES (?, ?, ?, ?)", arrayOf<Any>(it.id, it.path, it.duration, it.dateAdded))
+        }
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun `folder rules match the folder and below only`() {
+        assertAgrees(LibraryFilter(includedFolders = setOf("/storage/emulated/0/Music/")))
+        assertAgrees(
+            LibraryFilter(
+                includedFolders = setOf("/storage/emulated/0/Music"),
+                excludedFolders = setOf("/storage/emulated/0/Music/Podcasts")
+            )
+        )
+    }
+
+    @Test
+    fun `duration date and extension rules`() {
+        assertAgrees(LibraryFilter(minDurationMs = 30_000))
+        assertAgrees(LibraryFilter(addedAfter = 200, addedBefore = 600))
+        assertAgrees(LibraryFilter(extensions = setOf("MP3", ".flac")))
+    }
+
+    @Test
+    fun `non-ASCII extensions fall back to the residual`() {
+        val filter = LibraryFilter(extensions = setOf("äac"))
+        assertNotNull(LibraryFilterQuery.compile(filter).residual)
+        assertAgrees(filter)
+    }
+
+    @Test
+    fun `empty filter compiles to nothing`() {
+        assertSame(LibraryFilterQuery.NONE, LibraryFilterQuery.compile(LibraryFilter.NONE))
+    }
+
+    private fun assertAgrees(filter: LibraryFilter) {
+        val compiled = LibraryFilterQuery.compile(filter)
+        val found = mutableListOf<Long>()
+        db.rawQuery(
+            "SELECT _id, _data FROM audio" + (compiled.selection?.let { " WHERE $it" } ?: "") + " ORDER BY _id",
+            compiled.selectionArgs.toTypedArray()
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                if (compiled.residual?.invoke(cursor.getString(1)) == false) continue
+                found += cursor.getLong(0)
+            }
+        }
+        val expected = rows.filter { filter.matches(it.path, it.duration, it.dateAdded) }.map { it.id }
+        assertEquals(filter.toString(), expected, found)
+    }
+
+    private data class Row(val id: Long, val path: String, val duration: Long, val dateAdded: Long)
+}
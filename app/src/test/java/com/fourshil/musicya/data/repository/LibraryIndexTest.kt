@@ -0,0 +1,87 @@
+package com.fourshil.musicya.data.repository
+
+import android.database.sqlite.SQLiteDatabase
+import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.model.testSong
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Unit tests for LibraryIndex lookups and incremental patching.
+ */
+@RunWith(RobolectricTestRunner::class)
+class LibraryIndexTest {
+
+    private val songs = listOf(
+        testSong(1, "A Song", "ArtistA", album = "Album 100", albumId = 100, path = "/music/a/1.mp3"),
+        testSong(2, "B Song", "artista", album = "Album 100", albumId = 100, path = "/music/a/2.mp3"),
+        testSong(3, "C Song", "ArtistB", album = "Album 200", albumId = 200, path = "/music/b/3.mp3")
+    )
+
+    @Test
+    fun `album lookup keeps library order`() {
+        val index = LibraryIndex().apply { rebuild(songs) }
+
+        assertEquals(listOf(1L, 2L), index.songsByAlbum(100).map { it.id })
+        assertTrue(index.songsByAlbum(999).isEmpty())
+    }
+
+    @Test
+    fun `artist lookup is case-insensitive`() {
+        val index = LibraryIndex().apply { rebuild(songs) }
+
+        assertEquals(listOf(1L, 2L), index.songsByArtist("ARTISTA").map { it.id })
+    }
+
+    @Test
+    fun `folder lookup matches immediate parent only`() {
+        val index = LibraryIndex().apply { rebuild(songs) }
+
+        assertEquals(listOf(3L), index.songsByFolder("/music/b").map { it.id })
+        assertTrue(index.songsByFolder("/music").isEmpty())
+    }
+
+    @Test
+    fun `ID lookup preserves requested order`() {
+        val index = LibraryIndex().apply { rebuild(songs) }
+
+        assertEquals(listOf(3L, 1L), index.songsByIds(listOf(3L, 42L, 1L)).map { it.id })
+    }
+
+    @Test
+    fun `patch moves updated songs between buckets and refreshes positions`() {
+        val index = LibraryIndex().apply { rebuild(songs) }
+        val moved = testSong(2, "B Song", "ArtistB", album = "Album 200", albumId = 200, path = "/music/b/2.mp3")
+        val added = testSong(4, "0 First", "ArtistB", album = "Album 200", albumId = 200, path = "/music/b/4.mp3")
+        val ordered = listOf(added, songs[0], moved)
+
+        index.patch(removedIds = listOf(3L), upserted = listOf(moved, added), ordered = ordered)
+
+        assertEquals(listOf(1L), index.songsByAlbum(100).map { it.id })
+        assertEquals(listOf(4L, 2L), index.songsByAlbum(200).map { it.id })
+        assertEquals(listOf(4L, 2L), index.songsByFolder("/music/b").map { it.id })
+        assertEquals(0, index.positionOf(4))
+        assertEquals(-1, index.positionOf(3))
+        assertEquals(3, index.size)
+    }
+
+    @Test
+    fun `cached song order matches SQLite NOCASE`() {
+        val titles = listOf(
+            "zebra", "Zebra", "Éclair", "éclair", "eclair", "ÄBC", "abc", "_under", "[bracket",
+            "straße", "STRASSE", "\uD83C\uDFB5 note", "\uFF21 fullwidth", "Ω", "ω", "a", "A", ""
+        )
+        val db = SQLiteDatabase.create(null)
+        db.execSQL("CREATE TABLE t (title TEXT)")
+        titles.forEach { db.execSQL("INSERT INTO t VALUES (?)", arrayOf(it)) }
+        val expected = db.rawQuery("SELECT title FROM t ORDER BY title COLLATE NOCASE, rowid", null).use { cursor ->
+            List(cursor.count) { cursor.moveToNext(); cursor.getString(0) }
+        }
+        db.close()
+
+        // Stable sort keeps insertion order for ties, like the rowid tie-break
+        assertEquals(expected, titles.sortedWith(NOCASE_ORDER))
+    }
+}
@@ -0,0 +1,159 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Album
+import com.fourshil.musicya.data.model.Artist
+import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.model.testSong
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import kotlin.random.Random
+
+/**
+ * Unit tests for the trigram search index: agreement with a plain substring scan,
+ * ranking, patches, and narrowing.
+ */
+@RunWith(RobolectricTestRunner::class)
+class LibrarySearchIndexTest {
+
+    private val pool = MetadataPool()
+
+    @Test
+    fun `matches agree with a substring scan`() {
+        val songs = library(2_000, Random(1))
+        val index = LibrarySearchIndex(pool)
+        val random = Random(2)
+
+        repeat(200) {
+            val query = queryFrom(songs, random)
+            val folded = MetadataPool.fold(query)
+            val expected = songs.count { song -> fieldsOf(song).any { it.contains(folded) } }
+
+            val results = index.searchSongs(songs, query, limit = 20)
+
+            // Longer queries count unverified trigram candidates, which may only overcount
+            if (folded.length <= 3) assertEquals(query, expected, results.total) else assertTrue(query, results.total >= expected)
+            assertEquals(query, minOf(20, expected), results.items.size)
+            assertTrue(results.items.all { song -> fieldsOf(song).any { it.contains(folded) } })
+        }
+    }
+
+    @Test
+    fun `title prefixes rank before artist prefixes and infixes`() {
+        val songs = listOf(
+            testSong(1, "Unbeatable", "Someone"),
+            testSong(2, "Quiet", "Beatles"),
+            testSong(3, "Beat It", "Michael"),
+            testSong(4, "Drum Beat", "Nobody")
+        )
+
+        val results = LibrarySearchIndex(pool).searchSongs(songs, "béat", limit = 10)
+
+        assertEquals(listOf(3L, 2L, 4L, 1L), results.items.map { it.id })
+    }
+
+    @Test
+    fun `patches replace and drop songs`() {
+        val songs = listOf(testSong(1, "Alpha", "A"), testSong(2, "Beta", "B"))
+        val index = LibrarySearchIndex(pool)
+        index.searchSongs(songs, "alp", limit = 10)
+
+        val patched = listOf(testSong(2, "Beta", "B"), testSong(3, "Alpine", "C"))
+        index.patch(songs, removedIds = listOf(1L), upserted = listOf(testSong(3, "Alpine", "C")), ordered = patched)
+
+        assertEquals(listOf(3L), index.searchSongs(patched, "alp", limit = 10).items.map { it.id })
+    }
+
+    @Test
+    fun `narrowed matches agree with a fresh search`() {
+        val songs = library(2_000, Random(5))
+        val index = LibrarySearchIndex(pool)
+        val random = Random(6)
+
+        repeat(200) {
+            val query = queryFrom(songs, random)
+            val longer = query + queryFrom(songs, random).take(1)
+            val folded = MetadataPool.fold(longer)
+
+            val narrowed = index.narrowSongs(songs, longer, index.matchSongs(songs, query))
+
+            assertNotNull(longer, narrowed)
+            assertEquals(longer, songs.count { song -> fieldsOf(song).any { it.contains(folded) } }, narrowed!!.total)
+            assertEquals(longer, index.searchSongs(songs, longer, limit = 20).items, index.rankSongs(narrowed, limit = 20))
+        }
+    }
+
+    @Test
+    fun `matches from another song list or query are not narrowed`() {
+        val songs = listOf(testSong(1, "Alpha", "A"), testSong(2, "Beta", "B"))
+        val index = LibrarySearchIndex(pool)
+        val matches = index.matchSongs(songs, "al")
+
+        assertNull(index.narrowSongs(songs, "beta", matches))
+        val patched = listOf(testSong(2, "Beta", "B"), testSong(3, "Alpine", "C"))
+        index.patch(songs, removedIds = listOf(1L), upserted = listOf(testSong(3, "Alpine", "C")), ordered = patched)
+        assertNull(index.narrowSongs(patched, "alp", matches))
+        assertEquals(listOf(3L), index.rankSongs(index.matchSongs(patched, "alp"), limit = 10).map { it.id })
+    }
+
+    @Test
+    fun `indexes holding a multiple of 64 documents search without overrunning`() {
+        for (size in listOf(63, 64, 65, 128)) {
+            val songs = List(size) { testSong(it.toLong(), "Song $it", "Artist $it") }
+            val albums = List(size) { Album(it.toLong(), "Album $it", "Artist $it", songCount = 1, year = 0) }
+            val artists = List(size) { Artist(it.toLong(), "Artist $it", songCount = 1, albumCount = 1) }
+            val index = LibrarySearchIndex(pool)
+
+            assertEquals("$size", size, index.searchSongs(songs, "song", limit = 10).total)
+            assertEquals("$size", size, index.matchSongs(songs, "song").total)
+            assertEquals("$size", size, index.searchAlbums(albums, "album", limit = 10).total)
+            assertEquals("$size", size, index.searchArtists(artists, "artist", limit = 10).total)
+        }
+    }
+
+    private fun fieldsOf(song: Song): List<String> = listOf(
+        MetadataPool.fold(song.title),
+        MetadataPool.fold(song.artist),
+        MetadataPool.fold(song.album),
+        MetadataPool.fold(folderOf(song.path).substringAfterLast('/'))
+    )
+
+    /** Generated libraries and queries, shared with [LibraryComponentsBenchmarkTest]. */
+    internal companion object {
+        private val WORDS = listOf(
+            "Blue", "Night", "River", "Électric", "Summer", "Echo", "Gold", "Silent",
+            "Wild", "Heart", "Paper", "Neon", "Ocean", "Dream", "Fire", "Glass"
+        )
+
+        /**
+         * A slice (2 to 8 characters) of some song's title, artist or album, or now and then
+         * a string that matches nothing.
+         */
+        fun queryFrom(songs: List<Song>, random: Random): String {
+            if (random.nextInt(10) == 0) return "zq" + random.nextInt(1_000)
+            val song = songs[random.nextInt(songs.size)]
+            val text = when (random.nextInt(3)) {
+                0 -> song.title
+                1 -> song.artist
+                else -> song.album
+            }
+            val length = minOf(text.length, 2 + random.nextInt(7))
+            val start = random.nextInt(text.length - length + 1)
+            return text.substring(start, start + length)
+        }
+
+        fun library(size: Int, random: Random): List<Song> = List(size) { i ->
+            val artist = random.nextInt(size / 20 + 1)
+            val album = artist * 5 + random.nextInt(5)
+            testSong(
+                id = i.toLong(),
+                title = "${WORDS[random.nextInt(WORDS.size)]} ${WORDS[random.nextInt(WORDS.size)]} $i",
+                artist = "Artist ${WORDS[artist % WORDS.size]} $artist",
+                album = "Album $album",
+                albumId = album.toLong(),
+                path = "/music/Artist $artist/Album $album/$i.mp3"
+            )
+        }
+    }
+}
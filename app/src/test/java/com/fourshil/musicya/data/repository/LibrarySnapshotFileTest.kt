@@ -0,0 +1,99 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.ContentUris
+import android.provider.MediaStore
+import com.fourshil.musicya.data.db.LibrarySyncState
+import com.fourshil.musicya.data.model.testSong
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.RandomAccessFile
+
+/**
+ * Unit tests for the binary snapshot format: round trips, stale stamps and damaged files.
+ */
+@RunWith(RobolectricTestRunner::class)
+class LibrarySnapshotFileTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    // The file rebuilds content URIs from IDs, so each song carries its real one
+    private val songs = listOf(
+        testSong(1, "Ångström", path = "/storage/emulated/0/Music/A/1.mp3", albumId = 9, duration = 1_000, dateAdded = 10, size = 100, uri = contentUri(1)),
+        testSong(2, "Beta", path = "/storage/emulated/0/Music/A/2.mp3", albumId = 9, duration = 2_000, dateAdded = 20, size = 200, uri = contentUri(2)),
+        testSong(3, "Gamma", "Другой", path = "/root.mp3", albumId = 9, duration = 3_000, dateAdded = 30, size = 300, uri = contentUri(3))
+    )
+    private val primary = LibrarySyncState("external_primary", "v1", generation = 42, dateModifiedWatermark = 7, lastSyncedAt = 1_000)
+    private val stamp = SnapshotStamp.of(listOf(primary), rowCount = 3)
+
+    @Test
+    fun `snapshot round trips songs and shares repeated strings`() {
+        val file = temp.newFile()
+        LibrarySnapshotFile.write(file, songs, stamp)
+
+        val mapped = LibrarySnapshotFile.map(file, stamp)!!
+
+        assertEquals(songs, mapped.toList())
+        assertSame(mapped[0].artist, mapped[1].artist)
+    }
+
+    @Test
+    fun `stale stamp is rejected`() {
+        val file = temp.newFile()
+        LibrarySnapshotFile.write(file, songs, stamp)
+
+        assertNull(LibrarySnapshotFile.map(file, SnapshotStamp.of(listOf(primary.copy(generation = 43)), rowCount = 3)))
+        assertNull(LibrarySnapshotFile.map(file, SnapshotStamp.of(listOf(primary.copy(mediaStoreVersion = "v2")), rowCount = 3)))
+        assertNull(LibrarySnapshotFile.map(file, stamp.copy(rowCount = 2)))
+        // A volume mounted since
+        val card = LibrarySyncState("1a2b-3c4d", null, generation = 3, dateModifiedWatermark = 0, lastSyncedAt = 900)
+        assertNull(LibrarySnapshotFile.map(file, SnapshotStamp.of(listOf(card, primary), rowCount = 3)))
+    }
+
+    @Test
+    fun `stamps of several volumes round trip`() {
+        val file = temp.newFile()
+        val card = LibrarySyncState("1a2b-3c4d", null, generation = 3, dateModifiedWatermark = 0, lastSyncedAt = 900)
+        val both = SnapshotStamp.of(listOf(primary, card), rowCount = 3)
+        LibrarySnapshotFile.write(file, songs, both)
+
+        assertEquals(songs, LibrarySnapshotFile.map(file, SnapshotStamp.of(listOf(card, primary), rowCount = 3))?.toList())
+    }
+
+    @Test
+    fun `truncated file or bad header is rejected`() {
+        val file = temp.newFile()
+        LibrarySnapshotFile.write(file, songs, stamp)
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 4) }
+        assertNull(LibrarySnapshotFile.map(file, stamp))
+
+        LibrarySnapshotFile.write(file, songs, stamp)
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(8)
+            raf.writeInt(4) // row count
+        }
+        assertNull(LibrarySnapshotFile.map(file, stamp))
+    }
+
+    @Test
+    fun `corrupt string refs read as empty strings`() {
+        val file = temp.newFile()
+        LibrarySnapshotFile.write(file, songs, stamp)
+        RandomAccessFile(file, "rw").use { raf ->
+            // Title ref of the first row: after the header, one volume and five long columns
+            raf.seek(64 + 32 + 5 * 3 * 8L)
+            raf.writeInt(Int.MAX_VALUE)
+        }
+
+        val mapped = LibrarySnapshotFile.map(file, stamp)!!
+
+        assertEquals(songs[0].copy(title = ""), mapped[0])
+        assertEquals(songs.drop(1), mapped.drop(1))
+    }
+
+    private fun contentUri(id: Long) = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id)
+}
@@ -0,0 +1,49 @@
+package com.fourshil.musicya.data.repository
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Unit tests for MetadataPool interning and normalization.
+ */
+class MetadataPoolTest {
+
+    @Test
+    fun `equal values intern to one instance`() {
+        val pool = MetadataPool()
+        val first = pool.intern(String("Album".toCharArray()))
+        val second = pool.intern(String("Album".toCharArray()))
+
+        assertSame(first, second)
+        assertEquals(1, pool.size)
+    }
+
+    @Test
+    fun `search keys are lowercase and diacritic-folded`() {
+        val pool = MetadataPool()
+
+        assertEquals("beyonce", pool.searchKey("Beyoncé"))
+        assertEquals("sigur ros", pool.searchKey("Sigur Rós"))
+        assertEquals("motorhead", MetadataPool.fold("MOTÖRHEAD"))
+        assertEquals("beyoncé", pool.entry("Beyoncé").lowercase)
+    }
+
+    @Test
+    fun `folder is interned parent path`() {
+        val pool = MetadataPool()
+        val a = pool.folder("/music/album/1.mp3")
+        val b = pool.folder("/music/album/2.mp3")
+
+        assertEquals("/music/album", a)
+        assertSame(a, b)
+    }
+
+    @Test
+    fun `collation keys sort case-insensitively`() {
+        val pool = MetadataPool()
+        val sorted = listOf("beta", "Alpha", "alpha", "Gamma").sortedBy { pool.collationKey(it) }
+
+        assertEquals(listOf("alpha", "alpha", "beta", "gamma"), sorted.map { it.lowercase() })
+        assertSame(pool.collationKey("beta"), pool.collationKey("beta"))
+    }
+}
@@ -0,0 +1,125 @@
+package com.fourshil.musicya.data.repository
+
+import android.content.Context
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.fourshil.musicya.data.SettingsPreferences
+import com.fourshil.musicya.data.db.AppDatabase
+import com.fourshil.musicya.data.model.SongSortOrder
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Times MusicRepository against a [FakeMediaStoreProvider] at production library sizes
+ * and fails when an operation regresses past its stored [BenchmarkBaselines].
+ */
+@RunWith(RobolectricTestRunner::class)
+class MusicRepositoryBenchmarkTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val databases = mutableListOf<AppDatabase>()
+
+    @After
+    fun tearDown() {
+        databases.forEach { it.close() }
+    }
+
+    @Test
+    fun `synthetic provider serves the generated library`() = runBlocking {
+        FakeMediaStoreProvider.install(SyntheticLibrarySpec(rows = 500, artists = 10, pathDepth = 2))
+        val repository = newRepository()
+
+        val songs = repository.getAllSongs()
+        val folders = repository.getFolders()
+
+        assertEquals(500, songs.size)
+        assertEquals(songs.sortedWith(compareBy(NOCASE_ORDER) { it.title }).map { it.id }, songs.map { it.id })
+        assertEquals(10, songs.map { it.artist }.distinct().size)
+        assertEquals(songs.map { it.albumId }.distinct().size, folders.size)
+        assertEquals(folders.size, repository.getAllAlbums().size)
+        assertEquals(500, repository.getAllArtists().sumOf { it.songCount })
+        assertTrue(folders.all { it.path.startsWith("${FakeMediaStoreProvider.MUSIC_ROOT}/Artist ") })
+    }
+
+    @Test
+    fun `library operations stay within baselines at 1k 10k and 100k rows`() = runBlocking {
+        val baselines = BenchmarkBaselines.load()
+
+        for (rows in listOf(1_000, 10_000, 100_000)) {
+            FakeMediaStoreProvider.install(SyntheticLibrarySpec(rows = rows))
+            val iterations = if (rows >= 100_000) 3 else 5
+
+            baselines.check("getAllSongs", rows, medianMillis(iterations, setup = { newRepository() }) {
+                assertEquals(rows, it.getAllSongs().size)
+            })
+
+            // Later cold starts read the persisted index instead of rescanning
+            val indexed = newDatabase()
+            newRepository(indexed).loadLibrary()
+            baselines.check("getFolders", rows, medianMillis(iterations, setup = { newRepository(indexed) }) {
+                assertTrue(it.getFolders().isNotEmpty())
+            })
+
+            val loaded = newRepository(indexed)
+            val songs = loaded.getAllSongs()
+            val middle = SongPageKey.after(songs[rows / 2], SongSortOrder.TITLE)
+            baselines.check("getSongsPage", rows, medianMillis(iterations * 2, setup = { loaded }) {
+                assertEquals(songs.subList(rows / 2 + 1, rows / 2 + 51).map { s -> s.id },
+                    it.getSongsPage(it.library.value, SongSortOrder.TITLE, middle, 50).map { s -> s.id })
+            })
+
+            val ids = List(500) { i -> songs[(i * 7_919L % rows).toInt()].id }
+            baselines.check("getSongsByIds", rows, medianMillis(iterations * 2, setup = { loaded }) {
+                assertEquals(ids, it.getSongsByIds(ids).map { s -> s.id })
+            })
+        }
+
+        val regressions = baselines.finish()
+        assertTrue("Benchmark regressions:\n${regressions.joinToString("\n")}", regressions.isEmpty())
+    }
+
+    private fun newDatabase(): AppDatabase =
+        Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .build()
+            .also { databases += it }
+
+    private fun newRepository(database: AppDatabase = newDatabase()): MusicRepository {
+        val dao = database.libraryDao()
+        val scanner = MediaStoreScanner(context)
+        return MusicRepository(
+            context = context,
+            libraryDao = dao,
+            indexSync = LibraryIndexSync(context, scanner, dao),
+            mediaStoreObserver = MediaStoreObserver(context, scanner),
+            scanner = scanner,
+            metadataPool = MetadataPool(),
+            snapshotStore = LibrarySnapshotStore(context, dao, scanner),
+            settings = SettingsPreferences(context)
+        )
+    }
+
+    /**
+     * Median of [iterations] timed runs of [block], after one untimed warm-up.
+     * [setup] runs before each run, outside the timed section.
+     */
+    private suspend fun <T> medianMillis(
+        iterations: Int,
+        setup: suspend () -> T,
+        block: suspend (T) -> Unit
+    ): Long {
+        block(setup())
+        val samples = LongArray(iterations)
+        for (i in 0 until iterations) {
+            val subject = setup()
+            val start = System.nanoTime()
+            block(subject)
+            samples[i] = (System.nanoTime() - start) / 1_000_000
+        }
+        samples.sort()
+        return samples[iterations / 2]
+    }
+}
@@ -0,0 +1,87 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.db.PlayEvent
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+
+/**
+ * Unit tests for the play journal format: appends, rewrites and recovery from a crash
+ * mid-write.
+ */
+class PlayJournalFileTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `appended plays read back in order across reopening`() {
+        val file = temp.root.resolve("plays.journal")
+        PlayJournalFile(file).apply {
+            append(PlayEvent(songId = 1, playedAt = 100))
+            append(PlayEvent(songId = 2, playedAt = 200))
+            close()
+        }
+        PlayJournalFile(file).append(PlayEvent(songId = 1, playedAt = 300))
+
+        assertEquals(listOf(PlayEvent(songId = 1, playedAt = 100), PlayEvent(songId = 2, playedAt = 200), PlayEvent(songId = 1, playedAt = 300)), PlayJournalFile(file).readAll())
+    }
+
+    @Test
+    fun `listening details round trip`() {
+        val file = temp.root.resolve("plays.journal")
+        val play = PlayEvent(songId = 5, playedAt = 1_000, listenedMs = 95_000, completion = 0.42f, skipped = true)
+        PlayJournalFile(file).append(play)
+
+        assertEquals(listOf(play), PlayJournalFile(file).readAll())
+    }
+
+    @Test
+    fun `version 1 plays are still read`() {
+        val file = temp.newFile()
+        file.writeBytes(ByteBuffer.allocate(24).putInt(0x504A524E).putInt(1).putLong(9).putLong(900).array())
+
+        assertEquals(listOf(PlayEvent(songId = 9, playedAt = 900)), PlayJournalFile(file).readAll())
+    }
+
+    @Test
+    fun `a torn record is dropped and the next append stays aligned`() {
+        val file = temp.root.resolve("plays.journal")
+        PlayJournalFile(file).apply {
+            append(PlayEvent(songId = 1, playedAt = 100))
+            append(PlayEvent(songId = 2, playedAt = 200))
+            close()
+        }
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 5) }
+
+        assertEquals(listOf(PlayEvent(songId = 1, playedAt = 100)), PlayJournalFile(file).readAll())
+        PlayJournalFile(file).append(PlayEvent(songId = 3, playedAt = 300))
+        assertEquals(listOf(PlayEvent(songId = 1, playedAt = 100), PlayEvent(songId = 3, playedAt = 300)), PlayJournalFile(file).readAll())
+    }
+
+    @Test
+    fun `rewrite keeps only the given plays`() {
+        val file = temp.root.resolve("plays.journal")
+        val journal = PlayJournalFile(file)
+        journal.append(PlayEvent(songId = 1, playedAt = 100))
+        journal.append(PlayEvent(songId = 2, playedAt = 200))
+
+        journal.rewrite(listOf(PlayEvent(songId = 2, playedAt = 200)))
+        journal.append(PlayEvent(songId = 4, playedAt = 400))
+
+        assertEquals(listOf(PlayEvent(songId = 2, playedAt = 200), PlayEvent(songId = 4, playedAt = 400)), journal.readAll())
+    }
+
+    @Test
+    fun `a file in another format reads as empty and is started over`() {
+        val file = temp.newFile()
+        file.writeText("not a journal")
+
+        assertEquals(emptyList<PlayEvent>(), PlayJournalFile(file).readAll())
+        PlayJournalFile(file).append(PlayEvent(songId = 1, playedAt = 100))
+        assertEquals(listOf(PlayEvent(songId = 1, playedAt = 100)), PlayJournalFile(file).readAll())
+    }
+}
@@ -0,0 +1,154 @@
+package com.fourshil.musicya.data.repository
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.fourshil.musicya.data.db.AppDatabase
+import com.fourshil.musicya.data.db.Playlist
+import com.fourshil.musicya.data.model.testSong
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.StringReader
+
+/**
+ * Unit tests for playlist file import and export: parsing, round trips, resolving
+ * entries to songs, and importing a 10k-entry playlist against a 100k-song library.
+ * [LibraryComponentsBenchmarkTest] times that import.
+ */
+@RunWith(RobolectricTestRunner::class)
+class PlaylistFilesTest {
+
+    @Test
+    fun `m3u entries take their EXTINF line and skip other comments`() {
+        val text = "\uFEFF#EXTM3U\r\n#EXTINF:215,Björk - Jóga\r\n#EXTALB:Homogenic\r\nMusic/Björk/Jóga.flac\r\n\r\n" +
+            "#EXTINF:-1 tvg-id=\"x\",Radio\nhttp://example.com/stream\n" +
+            "/music/${"x".repeat(PlaylistFiles.MAX_LINE)}.mp3\n/music/plain.mp3"
+
+        val entries = PlaylistFiles.entries(StringReader(text), PlaylistFormat.M3U8).toList()
+
+        assertEquals(
+            listOf(
+                PlaylistEntry("Music/Björk/Jóga.flac", "Jóga", "Björk", 215_000),
+                PlaylistEntry("http://example.com/stream", "Radio", null, null),
+                PlaylistEntry("/music/plain.mp3")
+            ),
+            entries
+        )
+    }
+
+    @Test
+    fun `pls entries group numbered keys`() {
+        val text = "[playlist]\nFile1=/a.mp3\nTitle1=A - One\nLength1=60\nfile2=/b.mp3\nNumberOfEntries=2\nVersion=2\n"
+
+        val entries = PlaylistFiles.entries(StringReader(text), PlaylistFormat.PLS).toList()
+
+        assertEquals(listOf(PlaylistEntry("/a.mp3", "One", "A", 60_000), PlaylistEntry("/b.mp3")), entries)
+    }
+
+    @Test
+    fun `written playlists read back the same`() {
+        val written = listOf(
+            PlaylistEntry("/music/a.mp3", "Let It Be", "The Beatles", 243_000),
+            PlaylistEntry("/music/b c.mp3", "Untitled", null, 0)
+        )
+        for (format in PlaylistFormat.entries) {
+            val output = ByteArrayOutputStream()
+            PlaylistWriter(output, format).use { writer -> written.forEach { writer.write(it) } }
+
+            val read = PlaylistFiles.entries(StringReader(output.toString("UTF-8")), format).toList()
+
+            assertEquals(format.name, written, read)
+        }
+    }
+
+    @Test
+    fun `entries resolve by path, then folder and file name, then tags`() {
+        val resolver = PlaylistResolver(
+            listOf(
+                testSong(1, "Jóga", "Björk", path = "/storage/emulated/0/Music/Björk/Jóga.flac"),
+                testSong(2, "One", "A", path = "/storage/emulated/0/Music/A/01.mp3"),
+                testSong(3, "One", "B", path = "/storage/emulated/0/Music/B/01.mp3")
+            )
+        )
+
+        assertEquals(1L, resolver.resolve(PlaylistEntry("/storage/emulated/0/Music/Björk/Jóga.flac")))
+        assertEquals(1L, resolver.resolve(PlaylistEntry("../Music/Björk/Jóga.flac"), baseDir = "/storage/emulated/0/Playlists"))
+        assertEquals(1L, resolver.resolve(PlaylistEntry("file:///sdcard/Music/Bj%C3%B6rk/J%C3%B3ga.flac")))
+        assertEquals(2L, resolver.resolve(PlaylistEntry("C:\\Users\\me\\Music\\A\\01.mp3")))
+        assertEquals(1L, resolver.resolve(PlaylistEntry("D:\\gone.flac", "JOGA", "Bjork")))
+        // 01.mp3 alone names two songs
+        assertNull(resolver.resolve(PlaylistEntry("01.mp3")))
+        assertNull(resolver.resolve(PlaylistEntry("http://example.com/stream")))
+    }
+
+    @Test
+    fun `a 10k entry playlist imports every entry in order`() = runBlocking {
+        val library = importLibrary(100_000)
+        val text = importText(library, 10_000)
+        val db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase::class.java).build()
+        val dao = db.musicDao()
+        val reports = ArrayList<PlaylistImport>()
+
+        val resolver = PlaylistResolver(library)
+        val result = PlaylistTransfer.importEntries(
+            dao, "Big", PlaylistFiles.entries(StringReader(text), PlaylistFormat.M3U8), resolver, null
+        ) { reports += it }
+        val playlistId = result.playlistId!!
+
+        assertEquals(10_000, result.entries)
+        assertEquals(10_000, result.matched)
+        assertEquals(List(10_000) { (it * 7 % library.size).toLong() }, dao.getPlaylistSongIdsSync(playlistId))
+        assertEquals(10_000 / PlaylistTransfer.CHUNK_SIZE + 1, reports.size)
+        assertTrue(reports.last().done)
+        assertTrue(reports.dropLast(1).all { it.playlistId == null })
+        db.close()
+    }
+
+    @Test
+    fun `an import that fails partway leaves no playlist behind`() = runBlocking {
+        val db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppDatabase::class.java).build()
+        val dao = db.musicDao()
+        val resolver = PlaylistResolver(List(1_000) { testSong(it.toLong(), "Track $it", "Artist", path = "/music/$it.mp3") })
+        val entries = sequence {
+            for (i in 0 until 700) yield(PlaylistEntry("/music/$i.mp3"))
+            throw IOException("Connection to the provider lost")
+        }
+
+        assertThrows(IOException::class.java) {
+            runBlocking { PlaylistTransfer.importEntries(dao, "Broken", entries, resolver, null) {} }
+        }
+
+        assertEquals(emptyList<Playlist>(), dao.getAllPlaylists().first())
+        db.close()
+    }
+
+    /** A playlist library and files to import into it, shared with [LibraryComponentsBenchmarkTest]. */
+    internal companion object {
+        /** [size] songs, 50 to an artist folder. */
+        fun importLibrary(size: Int) = List(size) {
+            testSong(it.toLong(), "Track $it", "Artist ${it / 50}", path = "/storage/emulated/0/Music/Artist ${it / 50}/Track $it.mp3")
+        }
+
+        /**
+         * An M3U8 file of [entries] songs from [library], every 7th in turn, that all
+         * resolve: a mix of exact paths, paths from another machine and tag-only entries.
+         */
+        fun importText(library: List<Song>, entries: Int): String {
+            val text = StringBuilder("#EXTM3U\n")
+            for (i in 0 until entries) {
+                val id = i * 7 % library.size
+                when (i % 3) {
+                    0 -> text.append("#EXTINF:200,Artist ${id / 50} - Track $id\n${library[id].path}\n")
+                    1 -> text.append("#EXTINF:200,Artist ${id / 50} - Track $id\nC:\\Music\\Artist ${id / 50}\\Track $id.mp3\n")
+                    else -> text.append("#EXTINF:200,Artist ${id / 50} - Track $id\n/missing/$i.mp3\n")
+                }
+            }
+            return text.toString()
+        }
+    }
+}
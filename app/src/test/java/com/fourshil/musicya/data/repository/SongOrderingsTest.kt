@@ -0,0 +1,94 @@
+package com.fourshil.musicya.data.repository
+
+import com.fourshil.musicya.data.model.Song
+import com.fourshil.musicya.data.model.SongSortOrder
+import com.fourshil.musicya.data.model.testSong
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import kotlin.random.Random
+
+/**
+ * Unit tests for SongOrderings: collation order, keyset pages and incremental patches.
+ */
+@RunWith(RobolectricTestRunner::class)
+class SongOrderingsTest {
+
+    private val pool = MetadataPool()
+    private val libraryOrder = compareBy<Song, String>(NOCASE_ORDER) { it.title }.thenBy { it.id }
+
+    @Test
+    fun `text orders use locale collation and numeric orders run descending`() {
+        val orderings = orderings(
+            testSong(1, "zebra", "B", duration = 10),
+            testSong(2, "Éclair", "a", duration = 30),
+            testSong(3, "apple", "b", duration = 30)
+        )
+
+        assertEquals(listOf(3L, 2L, 1L), orderings.sorted(SongSortOrder.TITLE).map { it.id })
+        assertEquals(listOf(2L, 1L, 3L), orderings.sorted(SongSortOrder.ARTIST).map { it.id })
+        // Equal durations tie-break on ID in the same (descending) direction
+        assertEquals(listOf(3L, 2L, 1L), orderings.sorted(SongSortOrder.DURATION).map { it.id })
+    }
+
+    @Test
+    fun `pages follow keyset modes`() {
+        val songs = (1L..10L).map { testSong(it, "Title %02d".format(it), "Artist") }
+        val orderings = orderings(*songs.toTypedArray())
+        val order = SongSortOrder.TITLE
+
+        assertEquals(listOf(1L, 2L, 3L), orderings.page(order, null, 3).map { it.id })
+        assertEquals(listOf(4L, 5L, 6L), orderings.page(order, SongPageKey.after(songs[2], order), 3).map { it.id })
+        assertEquals(listOf(3L, 4L, 5L), orderings.page(order, SongPageKey.from(songs[2], order), 3).map { it.id })
+        assertEquals(listOf(1L, 2L), orderings.page(order, SongPageKey.before(songs[2], order), 3).map { it.id })
+    }
+
+    @Test
+    fun `patched permutations match a fresh build`() {
+        val random = Random(7)
+        val initial = (1L..500L).map { randomSong(it, random) }.sortedWith(libraryOrder)
+        val before = orderings(*initial.toTypedArray())
+        SongSortOrder.entries.forEach { before.permutation(it) }
+
+        val removed = initial.shuffled(random).take(40).mapTo(HashSet()) { it.id }
+        val replaced = initial.filter { it.id !in removed }.shuffled(random).take(20).map { randomSong(it.id, random) }
+        val added = (501L..540L).map { randomSong(it, random) }
+        val upserted = replaced + added
+        val upsertedIds = upserted.mapTo(HashSet()) { it.id }
+        val touched = removed + upsertedIds
+        // Both lists in library order, as the repository keeps them
+        val patchedSongs = (initial.filter { it.id !in touched } + upserted).sortedWith(libraryOrder)
+
+        val patched = before.patch(patchedSongs, touched, upsertedIds)
+        val fresh = SongOrderings(patchedSongs, pool::collationKey, pool::unpooledCollationKey)
+
+        SongSortOrder.entries.forEach { order ->
+            assertEquals(order.name, fresh.sorted(order).map { it.id }, patched.sorted(order).map { it.id })
+        }
+    }
+
+    @Test
+    fun `title keys stay out of the metadata pool`() {
+        val orderings = orderings(*(1L..100L).map { testSong(it, "Title $it", "Artist") }.toTypedArray())
+
+        orderings.permutation(SongSortOrder.TITLE)
+        orderings.page(SongSortOrder.TITLE, SongPageKey.after(orderings.songs[50], SongSortOrder.TITLE), 10)
+        assertEquals(0, pool.size)
+        orderings.permutation(SongSortOrder.ARTIST)
+        assertEquals(1, pool.size)
+    }
+
+    private fun orderings(vararg songs: Song) = SongOrderings(songs.toList(), pool::collationKey, pool::unpooledCollationKey)
+
+    private fun randomSong(id: Long, random: Random) = testSong(
+        id = id,
+        title = "Title ${random.nextInt(200)}",
+        artist = "Artist ${random.nextInt(30)}",
+        album = "Album ${id % 7}",
+        albumId = id % 7,
+        duration = random.nextLong(100) * 1_000,
+        dateAdded = id % 5,
+        size = random.nextLong(50)
+    )
+}
@@ -0,0 +1,153 @@
+package com.fourshil.musicya.data.repository
+
+import android.database.sqlite.SQLiteDatabase
+import com.fourshil.musicya.data.model.SongSortOrder
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Runs the keyset SQL from [SongPageQuery] against an in-memory table shaped like the
+ * MediaStore audio table, checking page walks in both directions against OFFSET pages.
+ */
+@RunWith(RobolectricTestRunner::class)
+class SongPageQueryTest {
+
+    private lateinit var db: SQLiteDatabase
+
+    @Before
+    fun setUp() {
+        db = createAudioTable()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun `forward keyset walk visits every row once in sort order`() {
+        insertRows(db, 1_000)
+
+        for (order in SongSortOrder.values()) {
+            val expected = allIds(db, order)
+            val walked = mutableListOf<Long>()
+            var key: SongPageKey? = null
+            do {
+                val page = loadPage(db, order, key, 37)
+                walked += page.map { it.id }
+                key = page.lastOrNull()?.let { SongPageKey(it.sortValue, it.id, SongPageKey.Mode.AFTER) }
+            } while (page.size == 37)
+
+            assertEquals("$order walk", expected, walked)
+        }
+    }
+
+    @Test
+    fun `backward page returns the rows just before the key in display order`() {
+        insertRows(db, 500)
+
+        for (order in SongSortOrder.values()) {
+            val expected = allIds(db, order)
+            val anchor = loadPage(db, order, null, 300).last()
+            val before = loadPage(db, order, SongPageKey(anchor.sortValue, anchor.id, SongPageKey.Mode.BEFORE), 20)
+            val from = loadPage(db, order, SongPageKey(anchor.sortValue, anchor.id, SongPageKey.Mode.FROM), 1)
+
+            assertEquals("$order prepend", expected.subList(279, 299), before.map { it.id })
+            assertEquals("$order refresh key is inclusive", anchor.id, from.single().id)
+        }
+    }
+
+    @Test
+    fun `deep keyset pages match OFFSET pages`() {
+        insertRows(db, 6_000)
+        val order = SongSortOrder.TITLE
+
+        for (depth in listOf(1_000, 2_500, 5_000)) {
+            val boundary = offsetPage(db, order, depth - 1, 1).single()
+            val key = SongPageKey(boundary.sortValue, boundary.id, SongPageKey.Mode.AFTER)
+
+            assertEquals("depth $depth", offsetPage(db, order, depth, 50), loadPage(db, order, key, 50))
+        }
+    }
+
+    /** The audio table and page queries, shared with [LibraryComponentsBenchmarkTest]. */
+    internal companion object {
+        data class Row(val id: Long, val sortValue: String)
+
+        /** In-memory database with a table shaped like the MediaStore audio table. */
+        fun createAudioTable(): SQLiteDatabase {
+            val db = SQLiteDatabase.create(null)
+            db.execSQL(
+                "CREATE TABLE audio (_id INTEGER PRIMARY KEY, title TEXT, artist TEXT, " +
+                    "date_added INTEGER, duration INTEGER, is_music INTEGER NOT NULL)"
+            )
+            return db
+        }
+
+        /**
+         * Rows with repeated titles/artists and some NULLs, so ties and fallbacks are exercised.
+         */
+        fun insertRows(db: SQLiteDatabase, count: Int) {
+            db.beginTransaction()
+            try {
+                val statement = db.compileStatement(
+                    "INSERT INTO audio (_id, title, artist, date_added, duration, is_music) VALUES (?, ?, ?, ?, ?, ?)"
+                )
+                for (i in 1..count) {
+                    statement.clearBindings()
+                    statement.bindLong(1, i.toLong())
+                    if (i % 97 == 0) statement.bindNull(2) else statement.bindString(2, "Track ${(i * 7919) % (count / 3 + 1)}")
+                    if (i % 53 == 0) statement.bindNull(3) else statement.bindString(3, if (i % 2 == 0) "artist ${i % 40}" else "Artist ${i % 40}")
+                    statement.bindLong(4, 1_700_000_000L + (i % 500))
+                    if (i % 61 == 0) statement.bindNull(5) else statement.bindLong(5, 120_000L + (i * 31) % 9_000)
+                    statement.bindLong(6, if (i % 250 == 0) 0 else 1)
+                    statement.executeInsert()
+                }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+
+        fun loadPage(db: SQLiteDatabase, order: SongSortOrder, key: SongPageKey?, limit: Int): List<Row> {
+            val query = SongPageQuery.build(order, key)
+            val selection = if (query.selection == null) {
+                MediaStoreScanner.MUSIC_SELECTION
+            } else {
+                "${MediaStoreScanner.MUSIC_SELECTION} AND (${query.selection})"
+            }
+            val rows = select(
+                db,
+                "SELECT _id, ${SongPageQuery.sortExpression(order)} FROM audio WHERE $selection " +
+                    "ORDER BY ${query.sortOrder} LIMIT $limit",
+                query.selectionArgs.toTypedArray()
+            )
+            return if (query.reversed) rows.asReversed() else rows
+        }
+
+        fun offsetPage(db: SQLiteDatabase, order: SongSortOrder, offset: Int, limit: Int): List<Row> {
+            val query = SongPageQuery.build(order, null)
+            return select(
+                db,
+                "SELECT _id, ${SongPageQuery.sortExpression(order)} FROM audio " +
+                    "WHERE ${MediaStoreScanner.MUSIC_SELECTION} ORDER BY ${query.sortOrder} LIMIT $limit OFFSET $offset",
+                emptyArray()
+            )
+        }
+
+        fun allIds(db: SQLiteDatabase, order: SongSortOrder): List<Long> = offsetPage(db, order, 0, Int.MAX_VALUE).map { it.id }
+
+        private fun select(db: SQLiteDatabase, sql: String, args: Array<String>): List<Row> =
+            db.rawQuery(sql, args).use { cursor ->
+                val rows = ArrayList<Row>(cursor.count)
+                while (cursor.moveToNext()) {
+                    rows.add(Row(cursor.getLong(0), cursor.getString(1)))
+                }
+                rows
+            }
+    }
+}
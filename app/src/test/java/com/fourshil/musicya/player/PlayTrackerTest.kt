@@ -0,0 +1,50 @@
+package com.fourshil.musicya.player
+
+import com.fourshil.musicya.data.db.PlayEvent
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Unit tests for PlayTracker: listened time across pauses, completion and skips.
+ */
+class PlayTrackerTest {
+
+    @Test
+    fun `paused time is not listened time`() {
+        val tracker = PlayTracker()
+        tracker.begin(songId = 7, now = 1_000, isPlaying = true)
+        tracker.setDuration(200_000)
+        tracker.setPlaying(false, now = 61_000)
+        tracker.setPlaying(true, now = 500_000)
+
+        val play = tracker.end(now = 560_000, completed = false)
+
+        assertEquals(PlayEvent(songId = 7, playedAt = 1_000, listenedMs = 120_000, completion = 0.6f, skipped = false), play)
+    }
+
+    @Test
+    fun `moving on early is a skip and playing to the end is not`() {
+        val tracker = PlayTracker()
+        tracker.begin(songId = 1, now = 0, isPlaying = true)
+        tracker.setDuration(200_000)
+        val skipped = tracker.end(now = 10_000, completed = false)!!
+
+        tracker.begin(songId = 2, now = 10_000, isPlaying = true)
+        val finished = tracker.end(now = 20_000, completed = true)!!
+
+        assertTrue(skipped.skipped)
+        assertEquals(0.05f, skipped.completion, 1e-6f)
+        assertFalse(finished.skipped)
+        assertEquals(1f, finished.completion, 0f)
+    }
+
+    @Test
+    fun `nothing is recorded without a song`() {
+        val tracker = PlayTracker()
+        assertNull(tracker.end(now = 0, completed = true))
+
+        tracker.begin(songId = 1, now = 0, isPlaying = false)
+        tracker.end(now = 5_000, completed = false)
+        assertNull(tracker.end(now = 6_000, completed = false))
+    }
+}